@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Takes the standard JMH command line
+ * options but writes the results as JSON to jmh-result.json unless told
+ * otherwise, so runs from different builds can be compared.</p>
+ */
+public final class BenchmarkMain {
+	private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+	private BenchmarkMain() {
+		throw new AssertionError("In BenchmarkMain constructor.");
+	}
+
+	/**
+	 * @param args
+	 *            JMH command line options, see -h
+	 * @throws CommandLineOptionException
+	 *             if the options can't be parsed
+	 * @throws RunnerException
+	 *             if the benchmarks fail
+	 * @throws IOException
+	 *             if the benchmarks can't be listed
+	 */
+	public static void main(final String[] args)
+			throws CommandLineOptionException, RunnerException, IOException {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if (cmdOptions.shouldHelp() || cmdOptions.shouldList()
+				|| cmdOptions.shouldListProfilers()
+				|| cmdOptions.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+		if (!cmdOptions.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmdOptions.getResult().hasValue()) {
+			options.result(DEFAULT_RESULT_FILE);
+		}
+		new Runner(options.build()).run();
+	}
+}
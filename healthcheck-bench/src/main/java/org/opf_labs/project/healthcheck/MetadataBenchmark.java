@@ -0,0 +1,38 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks parsing of an .opf.yml file, done once for every repository
+ * that has one.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataBenchmark {
+	private final String yaml = SyntheticOrg.METADATA_YAML;
+
+	/**
+	 * @return the parsed metadata, returned so it isn't optimised away
+	 */
+	@Benchmark
+	public ProjectMetadata fromYamlString() {
+		return ProjectMetadata.fromYamlString(this.yaml);
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.egit.github.core.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Benchmarks rendering the HTML and plain text reports. Output is encoded
+ * and discarded so character encoding is measured but not I/O.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportBenchmark {
+	/** Number of projects in the synthetic organisation */
+	@Param({ "10", "1000", "100000" })
+	public int projectCount;
+
+	private final User user = SyntheticOrg.user();
+	private List<GitHubProject> projects;
+
+	/**
+	 * Create the synthetic organisation.
+	 */
+	@Setup
+	public void createProjects() {
+		this.projects = SyntheticOrg.projects(this.projectCount);
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the output can't be flushed
+	 */
+	@Benchmark
+	public void outputHtml() throws IOException {
+		Writer out = nullWriter();
+		HealthCheckCLI.outputHtml(this.user, this.projects, out);
+		out.flush();
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the report can't be written
+	 */
+	@Benchmark
+	public void outputPlainText() throws IOException {
+		Writer out = nullWriter();
+		HealthCheckCLI.outputPlainText(this.user, this.projects, out);
+		out.flush();
+	}
+
+	private static Writer nullWriter() {
+		return new OutputStreamWriter(ByteStreams.nullOutputStream(),
+				Charsets.UTF_8);
+	}
+}
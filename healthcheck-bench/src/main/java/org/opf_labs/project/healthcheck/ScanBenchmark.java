@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a whole organisation scan, listing, indicator, metadata and
+ * Travis lookups included, against a local stub of the GitHub and Travis
+ * APIs. The stub adds a fixed latency to every response so the results show
+ * how well the scan overlaps its remote calls rather than how fast the
+ * loopback interface is. Each scan is a single shot, a 10,000 repository
+ * REST scan makes 30,000 requests and a GraphQL scan 100 queries and the
+ * 10,000 Travis lookups.</p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+	/** Number of repositories in the stub organisation */
+	@Param({ "100", "1000", "10000" })
+	public int repoCount;
+
+	/** Latency added to every stub response in milliseconds */
+	@Param({ "20" })
+	public long latencyMillis;
+
+	/** Fetch repositories with GraphQL queries rather than REST */
+	@Param({ "false", "true" })
+	public boolean graphQL;
+
+	/** Repositories scanned concurrently */
+	@Param({ "8" })
+	public int threads;
+
+	/** Scan on virtual threads, platform threads if the JVM has none */
+	@Param({ "false", "true" })
+	public boolean virtualThreads;
+
+	private StubApiServer stub;
+	private HealthCheckGitHubClient ghClient;
+	private ScanOptions options;
+
+	/**
+	 * Start the stub APIs.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started
+	 */
+	@Setup
+	public void startStub() throws IOException {
+		this.stub = new StubApiServer.Builder().syntheticRepos(this.repoCount)
+				.latency(this.latencyMillis).build();
+		this.ghClient = this.stub.createGitHubClient();
+		this.options = new ScanOptions.Builder().threads(this.threads)
+				.graphQL(this.graphQL).virtualThreads(this.virtualThreads)
+				.travisClient(this.stub.createTravisClient()).build();
+	}
+
+	/**
+	 * Stop the stub APIs.
+	 */
+	@TearDown
+	public void stopStub() {
+		this.stub.stop();
+	}
+
+	/**
+	 * @return the projects scanned
+	 * @throws IOException
+	 *             if the scan fails
+	 */
+	@Benchmark
+	public List<GitHubProject> scan() throws IOException {
+		return GitHubProjects.createProjectList(this.ghClient,
+				SyntheticOrg.LOGIN, this.options,
+				Collections.<GitHubProject> emptyList());
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Benchmarks Jackson serialisation of projects, a single project and the
+ * whole project list as written to the state file, as JSON and as a binary
+ * snapshot.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+	/** Number of projects in the synthetic organisation */
+	@Param({ "10", "1000", "100000" })
+	public int projectCount;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private List<GitHubProject> projects;
+	private byte[] json;
+	private byte[] snapshot;
+
+	/**
+	 * Create the synthetic organisation and its serialised forms.
+	 * 
+	 * @throws IOException
+	 *             if the list can't be serialised
+	 */
+	@Setup
+	public void createProjects() throws IOException {
+		this.projects = SyntheticOrg.projects(this.projectCount);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GitHubProjects.writeProjectList(this.projects, out);
+		this.json = out.toByteArray();
+		out = new ByteArrayOutputStream();
+		ProjectSnapshots.write(this.projects, out);
+		this.snapshot = out.toByteArray();
+	}
+
+	/**
+	 * @return the serialised project
+	 * @throws IOException
+	 *             if the project can't be serialised
+	 */
+	@Benchmark
+	public byte[] serialiseProject() throws IOException {
+		return this.mapper.writeValueAsBytes(this.projects.get(0));
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the list can't be serialised
+	 */
+	@Benchmark
+	public void writeProjectList() throws IOException {
+		GitHubProjects.writeProjectList(this.projects,
+				ByteStreams.nullOutputStream());
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the snapshot can't be written
+	 */
+	@Benchmark
+	public void writeSnapshot() throws IOException {
+		ProjectSnapshots.write(this.projects, ByteStreams.nullOutputStream());
+	}
+
+	/**
+	 * @return the projects read
+	 * @throws IOException
+	 *             if the list can't be read
+	 */
+	@Benchmark
+	public List<GitHubProject> readProjectList() throws IOException {
+		return GitHubProjects.readProjectList(new ByteArrayInputStream(this.json));
+	}
+
+	/**
+	 * @return the projects read
+	 * @throws IOException
+	 *             if the snapshot can't be read
+	 */
+	@Benchmark
+	public List<GitHubProject> readSnapshot() throws IOException {
+		return ProjectSnapshots.read(new ByteArrayInputStream(this.snapshot));
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.egit.github.core.User;
+import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
+import org.opf_labs.project.healthcheck.GitHubProject.Indicators;
+
+/**
+ * Generates repeatable synthetic organisations for the benchmarks. The
+ * projects vary the way a real org's do: some have metadata, a README,
+ * licence or Travis build and some don't.</p>
+ */
+final class SyntheticOrg {
+	static final String LOGIN = "openplanets";
+	static final String METADATA_YAML = "name: OPF Project Healthcheck\n"
+			+ "vendor: Open Planets Foundation\n"
+			+ "maintainer:\n"
+			+ "\tname: Carl Wilson\n"
+			+ "\temail: carl( AT )openplanetsfoundation( DOT )org\n";
+
+	private static final String[] LANGUAGES = { "Java", "Python", "C", "JavaScript", null };
+	private static final String[] VENDORS = { "Open Planets Foundation", "SCAPE", "KB" };
+	private static final long FIRST_UPDATE = 1373454000000L;
+	private static final long HOUR_MILLIS = 3600000L;
+
+	private SyntheticOrg() {
+		throw new AssertionError("In SyntheticOrg constructor.");
+	}
+
+	/**
+	 * @return the GitHub user that owns the synthetic projects
+	 */
+	static User user() {
+		User user = new User();
+		user.setLogin(LOGIN);
+		user.setName("Open Planets Foundation");
+		user.setAvatarUrl("https://avatars.githubusercontent.com/u/1");
+		user.setHtmlUrl("https://github.com/" + LOGIN);
+		return user;
+	}
+
+	/**
+	 * @param count
+	 *            the number of projects to create
+	 * @return the projects, the same list for the same count
+	 */
+	static List<GitHubProject> projects(final int count) {
+		List<GitHubProject> projects = new ArrayList<>(count);
+		for (int index = 0; index < count; index++) {
+			projects.add(project(index));
+		}
+		return projects;
+	}
+
+	private static GitHubProject project(final int index) {
+		String name = "project-" + index;
+		String url = "https://github.com/" + LOGIN + "/" + name;
+		ProjectMetadata metadata = (index % 3 == 0) ? ProjectMetadata
+				.defaultInstance() : ProjectMetadata.fromValues(name,
+				VENDORS[index % VENDORS.length]);
+		Indicators indicators = Indicators.fromValues(
+				(index % 2 == 0) ? url + "#readme" : "",
+				(index % 4 == 0) ? "" : url + "/blob/master/LICENSE",
+				(metadata == ProjectMetadata.defaultInstance()) ? "" : url
+						+ "/blob/master/.opf.yml");
+		return GitHubProject.fromValues(name, "Synthetic project number "
+				+ index + " for benchmarking", LOGIN, url, new Date(
+				FIRST_UPDATE + index * HOUR_MILLIS),
+				LANGUAGES[index % LANGUAGES.length], index % 17, metadata,
+				indicators, CiInfo.fromValues(index % 5 != 0));
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Circuit breaker for the calls to a single API host. After a run of
+ * consecutive failures the breaker opens and calls fail straight away,
+ * without a request, so a host that's down costs a scan a handful of
+ * timeouts rather than one, and its retries, for every repository. Once the
+ * breaker's been open for a while a single trial call is let through, the
+ * breaker closes if it succeeds and opens again if it fails.</p>
+ *
+ * Callers check with {@link #beforeCall()} and report the outcome with
+ * {@link #success()} or {@link #failure()}, an answer from the host, a 404
+ * say, is a success however unwelcome. The breaker's safe for use by
+ * concurrent threads.</p>
+ */
+public final class CircuitBreaker {
+	/** Default number of consecutive failures that open the breaker */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	/** Default time the breaker stays open before a trial call */
+	public static final long DEFAULT_OPEN_MILLIS = 30000L;
+
+	private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class);
+
+	/**
+	 * The states of a breaker.
+	 */
+	public enum State {
+		/** Calls are made */
+		CLOSED,
+		/** Calls fail without a request */
+		OPEN,
+		/** A single trial call is being made */
+		HALF_OPEN;
+	}
+
+	private final String host;
+	private final int failureThreshold;
+	private final long openNanos;
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openedAt = 0L;
+
+	/**
+	 * Create a breaker with the default threshold and open time.
+	 *
+	 * @param host
+	 *            the host the breaker guards, for messages
+	 */
+	public CircuitBreaker(final String host) {
+		this(host, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+	}
+
+	/**
+	 * @param host
+	 *            the host the breaker guards, for messages
+	 * @param failureThreshold
+	 *            the number of consecutive failures that open the breaker
+	 * @param openMillis
+	 *            the time the breaker stays open before a trial call
+	 */
+	public CircuitBreaker(final String host, final int failureThreshold,
+			final long openMillis) {
+		Preconditions.checkNotNull(host, "host == null");
+		Preconditions.checkArgument(failureThreshold > 0,
+				"failureThreshold < 1");
+		Preconditions.checkArgument(openMillis >= 0, "openMillis < 0");
+		this.host = host;
+		this.failureThreshold = failureThreshold;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+	}
+
+	/**
+	 * Checks a call can be made, the outcome of a call let through must be
+	 * reported.
+	 *
+	 * @throws OpenException
+	 *             if the breaker's open, or half open with its trial call
+	 *             already made
+	 */
+	public synchronized void beforeCall() throws OpenException {
+		if (this.state == State.OPEN
+				&& System.nanoTime() - this.openedAt >= this.openNanos) {
+			LOGGER.info("Trying " + this.host + " again");
+			this.state = State.HALF_OPEN;
+			return;
+		}
+		if (this.state != State.CLOSED) {
+			throw new OpenException(this.host);
+		}
+	}
+
+	/**
+	 * Reports a call that got an answer from the host, closing the breaker.
+	 */
+	public synchronized void success() {
+		if (this.state != State.CLOSED) {
+			LOGGER.info(this.host + " is answering again");
+		}
+		this.state = State.CLOSED;
+		this.failures = 0;
+	}
+
+	/**
+	 * Reports a call that failed, opening the breaker if it's the last straw
+	 * or the trial call.
+	 */
+	public synchronized void failure() {
+		this.failures++;
+		if (this.state == State.HALF_OPEN
+				|| (this.state == State.CLOSED && this.failures >= this.failureThreshold)) {
+			LOGGER.warn(this.failures + " failed calls to " + this.host
+					+ ", failing calls for the next "
+					+ TimeUnit.NANOSECONDS.toSeconds(this.openNanos) + "s");
+			this.state = State.OPEN;
+			this.openedAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @return the state of the breaker
+	 */
+	public synchronized State getState() {
+		return this.state;
+	}
+
+	/**
+	 * Thrown in place of a call to a host whose breaker is open.
+	 */
+	public static final class OpenException extends IOException {
+		private static final long serialVersionUID = -3906377862475117523L;
+
+		OpenException(final String host) {
+			super("Circuit open for " + host + ", not calling it");
+		}
+	}
+}
@@ -3,7 +3,10 @@
  */
 package org.opf_labs.project.healthcheck;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import org.eclipse.egit.github.core.Repository;
 
@@ -30,10 +33,16 @@ public final class GitHubProject {
 	final String url;
 	final String language;
 	final Date updated;
+	// Null if nothing's been pushed or the project predates recording it
+	final Date pushed;
 	final int openIssues;
 	final ProjectMetadata metadata;
 	final Indicators indicators;
 	final CiInfo ci;
+	// Listed but the metadata, indicators and CI info not yet looked up
+	final boolean pending;
+	// What couldn't be looked up, a project with errors is degraded
+	final List<String> errors;
 
 	private GitHubProject() {
 		throw new AssertionError("In GitHub Project no-arg constructor.");
@@ -41,20 +50,54 @@ public final class GitHubProject {
 
 	private GitHubProject(final String name, final String description,
 			final String ownerLogin, final String url, final Date updated,
-			final String language, final int openIssues,
+			final Date pushed, final String language, final int openIssues,
 			final ProjectMetadata metadata, final Indicators indicators,
-			final CiInfo ci) {
+			final CiInfo ci, final boolean pending, final List<String> errors) {
 		this.name = name;
 		this.description = description;
 		this.ownerLogin = ownerLogin;
 		this.url = url;
 		this.updated = updated;
+		this.pushed = pushed;
 		this.language = language;
 		this.openIssues = openIssues;
 		this.metadata = metadata;
 		this.indicators = indicators;
 		this.ci = ci;
+		this.pending = pending;
+		this.errors = errors;
+	}
 
+	/**
+	 * @param name
+	 *            the name of the project repo
+	 * @param description
+	 *            the GitHub description of the project
+	 * @param ownerLogin
+	 *            the GitHub login name of the project owner
+	 * @param url
+	 *            the GitHub URL of the project
+	 * @param updated
+	 *            the date the project was last updated
+	 * @param language
+	 *            the primary language of the project
+	 * @param openIssues
+	 *            the number of open GitHub Issues for the project
+	 * @param metadata
+	 *            the metadata object
+	 * @param indicators
+	 *            the project health indicators
+	 * @param ci
+	 *            the Travis CI information for the project
+	 * @return a new GitHub instance created from the param values
+	 */
+	public static GitHubProject fromValues(final String name,
+			final String description, final String ownerLogin,
+			final String url, final Date updated, final String language,
+			final int openIssues, final ProjectMetadata metadata,
+			final Indicators indicators, final CiInfo ci) {
+		return fromValues(name, description, ownerLogin, url, updated, null,
+				language, openIssues, metadata, indicators, ci, false, null);
 	}
 
 	/**
@@ -68,6 +111,9 @@ public final class GitHubProject {
 	 *            the GitHub URL of the project
 	 * @param updated
 	 *            the date the project was last updated
+	 * @param pushed
+	 *            the date of the last push to the project, null if there's
+	 *            been none
 	 * @param language
 	 *            the primary language of the project
 	 * @param openIssues
@@ -78,6 +124,12 @@ public final class GitHubProject {
 	 *            the project health indicators
 	 * @param ci
 	 *            the Travis CI information for the project
+	 * @param pending
+	 *            true if the metadata, indicators and CI info haven't been
+	 *            looked up yet and are placeholders
+	 * @param errors
+	 *            the lookups that failed for the project, each as the name of
+	 *            the lookup and the error, null or empty if none did
 	 * @return a new GitHub instance created from the param values
 	 */
 	@JsonCreator
@@ -87,11 +139,14 @@ public final class GitHubProject {
 			@JsonProperty("ownerLogin") final String ownerLogin,
 			@JsonProperty("url") final String url,
 			@JsonProperty("updated") final Date updated,
+			@JsonProperty("pushed") final Date pushed,
 			@JsonProperty("language") final String language,
 			@JsonProperty("openIssues") final int openIssues,
 			@JsonProperty("metadata") final ProjectMetadata metadata,
 			@JsonProperty("indicators") final Indicators indicators,
-			@JsonProperty("ci") final CiInfo ci) {
+			@JsonProperty("ci") final CiInfo ci,
+			@JsonProperty("pending") final boolean pending,
+			@JsonProperty("errors") final List<String> errors) {
 		Preconditions.checkNotNull(name, "name == null");
 		Preconditions.checkArgument(!name.isEmpty(), "name.isEmpty() == true");
 		Preconditions.checkNotNull(description, "description == null");
@@ -111,8 +166,19 @@ public final class GitHubProject {
 				ownerLogin,
 				url,
 				updated,
+				copyDate(pushed),
 				(language == null || language.isEmpty()) ? GitHubProjects.UNKNOWN : language,
-				openIssues, metadata, indicators, ci);
+				openIssues, metadata, indicators, ci, pending, copyErrors(errors));
+	}
+
+	private static Date copyDate(final Date date) {
+		return (date == null) ? null : new Date(date.getTime());
+	}
+
+	private static List<String> copyErrors(final List<String> errors) {
+		return (errors == null || errors.isEmpty()) ? Collections
+				.<String> emptyList() : Collections
+				.unmodifiableList(new ArrayList<>(errors));
 	}
 
 	/**
@@ -133,10 +199,13 @@ public final class GitHubProject {
 		private String url = GitHubProjects.UNKNOWN;
 		private String language = GitHubProjects.UNKNOWN;
 		private Date updated = new Date(0);
+		private Date pushed = null;
 		private int openIssues = 0;
 		private ProjectMetadata metadata = ProjectMetadata.defaultInstance();
 		private Indicators indicators;
 		private CiInfo ci;
+		private boolean pending = false;
+		private List<String> errors = Collections.emptyList();
 
 		/**
 		 * Creates a new builder populated from an existing project, used to
@@ -153,6 +222,7 @@ public final class GitHubProject {
 			this.url(project.url);
 			this.language(project.language);
 			this.updated(project.updated);
+			this.pushed(project.pushed);
 		}
 
 		/**
@@ -169,6 +239,7 @@ public final class GitHubProject {
 			this.url(repo.getHtmlUrl());
 			this.language(repo.getLanguage());
 			this.updated(repo.getUpdatedAt());
+			this.pushed(repo.getPushedAt());
 			this.openIssues(repo.getOpenIssues());
 		}
 
@@ -246,6 +317,18 @@ public final class GitHubProject {
 			return this;
 		}
 
+		/**
+		 * @param pushed
+		 *            the date of the last push to the project, null if
+		 *            there's been none
+		 * @return the builder instance for chaining
+		 */
+		@SuppressWarnings("synthetic-access")
+		public Builder pushed(final Date pushed) {
+			this.pushed = copyDate(pushed);
+			return this;
+		}
+
 		/**
 		 * @param openIssues
 		 *            the number of open issues for the project
@@ -290,6 +373,30 @@ public final class GitHubProject {
 			return this;
 		}
 
+		/**
+		 * @param pending
+		 *            true if the metadata, indicators and CI info are
+		 *            placeholders still to be looked up
+		 * @return the builder instance for chaining
+		 */
+		public Builder pending(final boolean pending) {
+			this.pending = pending;
+			return this;
+		}
+
+		/**
+		 * @param errors
+		 *            the lookups that failed for the project, each as the
+		 *            name of the lookup and the error
+		 * @return the builder instance for chaining
+		 */
+		@SuppressWarnings("synthetic-access")
+		public Builder errors(final List<String> errors) {
+			Preconditions.checkNotNull(errors, "errors == null");
+			this.errors = copyErrors(errors);
+			return this;
+		}
+
 		/**
 		 * Instantiate a new gitHubProject instance.
 		 * 
@@ -310,10 +417,13 @@ public final class GitHubProject {
 		this.url = builder.url;
 		this.language = builder.language;
 		this.updated = builder.updated;
+		this.pushed = builder.pushed;
 		this.openIssues = builder.openIssues;
 		this.metadata = builder.metadata;
 		this.indicators = builder.indicators;
 		this.ci = builder.ci;
+		this.pending = builder.pending;
+		this.errors = builder.errors;
 	}
 
 	/**
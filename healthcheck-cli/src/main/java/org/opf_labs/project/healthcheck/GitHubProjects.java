@@ -3,38 +3,62 @@
  */
 package org.opf_labs.project.healthcheck;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
-import javax.ws.rs.core.MediaType;
-
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.log4j.Logger;
 import org.eclipse.egit.github.core.Repository;
-import org.eclipse.egit.github.core.RepositoryCommit;
 import org.eclipse.egit.github.core.RepositoryContents;
-import org.eclipse.egit.github.core.Tree;
-import org.eclipse.egit.github.core.TreeEntry;
 import org.eclipse.egit.github.core.User;
 import org.eclipse.egit.github.core.client.GitHubClient;
 import org.eclipse.egit.github.core.client.RequestException;
-import org.eclipse.egit.github.core.service.CommitService;
 import org.eclipse.egit.github.core.service.ContentsService;
-import org.eclipse.egit.github.core.service.DataService;
 import org.eclipse.egit.github.core.service.RepositoryService;
 import org.eclipse.egit.github.core.service.UserService;
 import org.opf_labs.project.healthcheck.GitHubProject.Builder;
 import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
 import org.opf_labs.project.healthcheck.GitHubProject.Indicators;
 
-import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientResponse;
-import com.sun.jersey.api.client.WebResource;
-import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
-import com.sun.jersey.core.util.Base64;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Utility class for the GitHubProject bean. Gathers project information from
@@ -60,10 +84,25 @@ public final class GitHubProjects {
 	private static final String LICENSE = "license";
 	private static final String OPF_YAML = ".opf.yml";
 
-	// String constants for Travis
-	private static final String TRAVIS_ROOT = "https://api.travis-ci.org/";
-	private static final String TRAVIS_REPO_ROOT = TRAVIS_ROOT + "repos/";
-	
+	// Number of independent lookups made for each repository
+	private static final int STAGES_PER_REPO = 3;
+	// Names of the lookups in a project's errors
+	static final String INDICATORS_STAGE = "indicators";
+	static final String METADATA_STAGE = "metadata";
+	static final String TRAVIS_STAGE = "travis";
+	static final String LISTING_STAGE = "listing";
+	static final String SCAN_STAGE = "scan";
+	static final Indicators NO_INDICATORS = Indicators.fromValues("", "", "");
+	static final CiInfo NO_CI = CiInfo.fromValues(false);
+
+	// Jackson mapper for reading and writing project lists, thread safe once configured
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	static {
+		// Callers own the streams
+		MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+		MAPPER.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+	}
+
 	private static final Logger LOGGER = Logger.getLogger(GitHubProjects.class);
 
 	private GitHubProjects() {
@@ -91,7 +130,9 @@ public final class GitHubProjects {
 
 	/**
 	 * Get the healthcheck indicators for a GitHub project. Checks for a README,
-	 * a LICENSE, and an OPF YAML file.
+	 * a LICENSE, and an OPF YAML file in the root listing of the default
+	 * branch, a single request whatever the length of the project history.
+	 * An empty repository has no listing and gets empty indicators.
 	 * 
 	 * @param ghClient
 	 *            an EGit GitHub client object, holds credentials for gitHub
@@ -105,26 +146,39 @@ public final class GitHubProjects {
 	public static Indicators getProjectIndicators(
 			final GitHubClient ghClient, final Repository repo)
 			throws IOException {
+		ContentsService contentService = new ContentsService(ghClient);
+		List<RepositoryContents> rootContents;
+		try {
+			rootContents = contentService.getContents(repo);
+		} catch (RequestException excep) {
+			if (excep.getStatus() != HttpURLConnection.HTTP_NOT_FOUND) {
+				throw excep;
+			}
+			LOGGER.info("No contents for empty repo " + repo.getName());
+			rootContents = Collections.emptyList();
+		}
+		return indicatorsFromContents(repo, rootContents);
+	}
+
+	/**
+	 * Finds the healthcheck indicators in the root listing of a repository.
+	 */
+	static Indicators indicatorsFromContents(final Repository repo,
+			final List<RepositoryContents> rootContents) {
 		String readMeUrl = "", licenseUrl = "", metadataUrl = "";
-		CommitService commitService = new CommitService(ghClient);
-		DataService dataService = new DataService(ghClient);
-		List<RepositoryCommit> commits = commitService.getCommits(repo);
-		Tree tree = commits.get(0).getCommit().getTree();
-		String treeSha = tree.getSha();
-		tree = dataService.getTree(repo, treeSha);
-		for (TreeEntry treeEntry : tree.getTree()) {
-			if (!(treeEntry.getType().equals(TreeEntry.TYPE_BLOB))) {
+		for (RepositoryContents entry : rootContents) {
+			if (!(RepositoryContents.TYPE_FILE.equals(entry.getType()))) {
 				continue;
 			}
-			String baseName = FilenameUtils.getBaseName(treeEntry.getPath());
+			String baseName = FilenameUtils.getBaseName(entry.getPath());
 			if (baseName.equalsIgnoreCase(README)) {
 				readMeUrl = repo.getHtmlUrl() + "#readme";
 			} else if (baseName.equalsIgnoreCase(LICENSE)) {
 				licenseUrl = repo.getHtmlUrl() + "/blob/master/"
-						+ treeEntry.getPath();
-			} else if (treeEntry.getPath().equalsIgnoreCase(OPF_YAML)) {
+						+ entry.getPath();
+			} else if (entry.getPath().equalsIgnoreCase(OPF_YAML)) {
 				metadataUrl = repo.getHtmlUrl() + "/blob/master/"
-						+ treeEntry.getPath();
+						+ entry.getPath();
 			}
 		}
 		return Indicators.fromValues(readMeUrl, licenseUrl, metadataUrl);
@@ -147,17 +201,47 @@ public final class GitHubProjects {
 		try {
 			List<RepositoryContents> contents = contentService.getContents(
 					repo, OPF_YAML);
-			return ProjectMetadata.fromYamlString(Base64.base64Decode(contents
+			// Decoded straight to bytes, no intermediate String
+			return ProjectMetadata.fromYamlBytes(Base64.decodeBase64(contents
 					.get(0).getContent()));
 		} catch (RequestException excep) {
+			if (excep.getStatus() != HttpURLConnection.HTTP_NOT_FOUND) {
+				throw excep;
+			}
 			// No YAML file found
 			return ProjectMetadata.defaultInstance();
 		}
 	}
 
+	/**
+	 * Get the project metadata using the health indicators already found for
+	 * the repository, the .opf.yml file is only requested if the root listing
+	 * contained one.
+	 * 
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param repo
+	 *            an EGit GitHub repository object for the project
+	 * @param indicators
+	 *            the health indicators found for the repository
+	 * @return a ProjectMetadata instance.
+	 * @throws IOException
+	 *             if there's a problem calling the GitHub API
+	 */
+	public static ProjectMetadata getMetadata(final GitHubClient ghClient,
+			final Repository repo, final Indicators indicators)
+			throws IOException {
+		Preconditions.checkNotNull(indicators, "indicators == null");
+		if (indicators.metadataUrl.isEmpty()) {
+			return ProjectMetadata.defaultInstance();
+		}
+		return getMetadata(ghClient, repo);
+	}
+
 	/**
 	 * Retrieves the Travis Continuous Integration information for a software
-	 * project.
+	 * project using the shared default Travis client.
 	 * 
 	 * @param ownerLogin
 	 *            the GitHub login (id) of the repository
@@ -165,23 +249,362 @@ public final class GitHubProjects {
 	 *            the name of the repository
 	 * 
 	 * @return the Travis CI Information for the project.
+	 * @throws IOException
+	 *             if the lookup fails
 	 */
 	public static CiInfo getTravisInfo(final String ownerLogin,
-			final String repoName) {
-		ClientConfig cc = new DefaultClientConfig();
-		cc.getClasses().add(JacksonJsonProvider.class);
-		Client restClient = Client.create(cc);
-		WebResource travisCall = restClient.resource(TRAVIS_REPO_ROOT
-				+ ownerLogin + "/" + repoName);
-		ClientResponse response = travisCall.accept(MediaType.APPLICATION_JSON)
-				.get(ClientResponse.class);
-		if (response.getClientResponseStatus() == ClientResponse.Status.NOT_FOUND) {
-			LOGGER.info("Not Travis-CI build for repo " + repoName);
-			return CiInfo.fromValues(false);
+			final String repoName) throws IOException {
+		return getTravisInfo(TravisClient.defaultInstance(), ownerLogin,
+				repoName);
+	}
+
+	/**
+	 * Retrieves the Travis Continuous Integration information for a software
+	 * project.
+	 * 
+	 * @param travisClient
+	 *            the Travis client used to make the request
+	 * @param ownerLogin
+	 *            the GitHub login (id) of the repository
+	 * @param repoName
+	 *            the name of the repository
+	 * 
+	 * @return the Travis CI Information for the project.
+	 * @throws IOException
+	 *             if the lookup fails
+	 */
+	public static CiInfo getTravisInfo(final TravisClient travisClient,
+			final String ownerLogin, final String repoName) throws IOException {
+		Preconditions.checkNotNull(travisClient, "travisClient == null");
+		return travisClient.getCiInfo(ownerLogin, repoName);
+	}
+
+	/**
+	 * Creates a single GitHubProject from a GitHub repository, gathering the
+	 * metadata, health indicators and Travis CI info for the repository one
+	 * after the other on the calling thread.
+	 * 
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param ghLogin
+	 *            the string GitHub login of the repository owner, used for
+	 *            the Travis lookup
+	 * @param repo
+	 *            an EGit GitHub repository object for the project
+	 * @return the populated GitHubProject
+	 * @throws IOException
+	 *             if there's a problem calling the GitHub API
+	 */
+	public static GitHubProject createProject(final GitHubClient ghClient,
+			final String ghLogin, final Repository repo) throws IOException {
+		return createProject(ghClient, ghLogin, repo,
+				ScanOptions.defaultInstance(),
+				MoreExecutors.sameThreadExecutor());
+	}
+
+	/**
+	 * Creates a single GitHubProject from a GitHub repository. The metadata,
+	 * health indicator and Travis CI lookups don't depend on each other so
+	 * they're submitted to the stage executor together and joined into the
+	 * project builder, the latency of the repository is that of the slowest
+	 * lookup. If the options ask for the tree to be reused the metadata lookup
+	 * waits for the indicators and is skipped when there's no .opf.yml.
+	 * A lookup that fails, once the clients have given up retrying, doesn't
+	 * fail the project, it gets empty values in place of the lookup's and
+	 * the failure's recorded in its errors.
+	 * 
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param ghLogin
+	 *            the string GitHub login of the repository owner, used for
+	 *            the Travis lookup
+	 * @param repo
+	 *            an EGit GitHub repository object for the project
+	 * @param options
+	 *            the scan options
+	 * @param stageExecutor
+	 *            the executor that runs the individual lookups, must not be
+	 *            the executor running the caller or it may deadlock
+	 * @return the populated GitHubProject
+	 * @throws IOException
+	 *             if there's a problem calling the GitHub API
+	 */
+	public static GitHubProject createProject(final GitHubClient ghClient,
+			final String ghLogin, final Repository repo,
+			final ScanOptions options,
+			final ListeningExecutorService stageExecutor) throws IOException {
+		return createProject(ghClient, ghLogin, repo, options, stageExecutor,
+				null);
+	}
+
+	/**
+	 * As {@link #createProject(GitHubClient, String, Repository, ScanOptions, ListeningExecutorService)}
+	 * but a failed lookup falls back on the value from the repository's last
+	 * project, if there is one, rather than an empty value.
+	 */
+	static GitHubProject createProject(final GitHubClient ghClient,
+			final String ghLogin, final Repository repo,
+			final ScanOptions options,
+			final ListeningExecutorService stageExecutor,
+			final GitHubProject last) throws IOException {
+		Preconditions.checkNotNull(options, "options == null");
+		Preconditions.checkNotNull(stageExecutor, "stageExecutor == null");
+		LOGGER.info("Getting metadata for repo: " + repo.getName());
+		ListenableFuture<Indicators> indicators = stageExecutor
+				.submit(new Callable<Indicators>() {
+					@Override
+					public Indicators call() throws IOException {
+						return getProjectIndicators(ghClient, repo);
+					}
+				});
+		ListenableFuture<ProjectMetadata> metadata;
+		if (options.reuseTree) {
+			metadata = Futures.transform(indicators,
+					new AsyncFunction<Indicators, ProjectMetadata>() {
+						@Override
+						public ListenableFuture<ProjectMetadata> apply(
+								final Indicators found) throws IOException {
+							return Futures.immediateFuture(getMetadata(
+									ghClient, repo, found));
+						}
+					}, stageExecutor);
+		} else {
+			metadata = stageExecutor.submit(new Callable<ProjectMetadata>() {
+				@Override
+				public ProjectMetadata call() throws IOException {
+					return getMetadata(ghClient, repo);
+				}
+			});
+		}
+		Future<CiInfo> ci = stageExecutor.submit(new Callable<CiInfo>() {
+			@Override
+			public CiInfo call() throws IOException {
+				return getTravisInfo(options.travisClient, ghLogin,
+						repo.getName());
+			}
+		});
+		try {
+			List<String> errors = new ArrayList<>();
+			Builder projBuilder = (new Builder(repo))
+					.metadata(joinStage(metadata, METADATA_STAGE,
+							(last == null) ? ProjectMetadata.defaultInstance()
+									: last.metadata, errors))
+					.indicators(joinStage(indicators, INDICATORS_STAGE,
+							(last == null) ? NO_INDICATORS : last.indicators,
+							errors))
+					.ci(joinStage(ci, TRAVIS_STAGE, (last == null) ? NO_CI
+							: last.ci, errors));
+			return projBuilder.errors(errors).build();
+		} finally {
+			metadata.cancel(true);
+			indicators.cancel(true);
+			ci.cancel(true);
+		}
+	}
+
+	/**
+	 * Rebuilds the project for a single repository without listing the
+	 * owner's other repositories, for when something reports that one
+	 * repository has changed. The lookups run one after the other on the
+	 * calling thread.
+	 *
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param ownerLogin
+	 *            the GitHub login of the repository owner
+	 * @param repoName
+	 *            the name of the repository
+	 * @param options
+	 *            the scan options
+	 * @return the rebuilt project, or null if the repository no longer exists
+	 *         or is private
+	 * @throws IOException
+	 *             if there's a problem calling the GitHub API
+	 */
+	public static GitHubProject rescanProject(final GitHubClient ghClient,
+			final String ownerLogin, final String repoName,
+			final ScanOptions options) throws IOException {
+		return rescanProject(ghClient, ownerLogin, repoName, options,
+				MoreExecutors.sameThreadExecutor());
+	}
+
+	/**
+	 * As {@link #rescanProject(GitHubClient, String, String, ScanOptions)}
+	 * but the project's lookups are run by the stage executor, see
+	 * {@link #createProject(GitHubClient, String, Repository, ScanOptions, ListeningExecutorService)}.
+	 *
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param ownerLogin
+	 *            the GitHub login of the repository owner
+	 * @param repoName
+	 *            the name of the repository
+	 * @param options
+	 *            the scan options
+	 * @param stageExecutor
+	 *            the executor that runs the individual lookups
+	 * @return the rebuilt project, or null if the repository no longer exists
+	 *         or is private
+	 * @throws IOException
+	 *             if there's a problem calling the GitHub API
+	 */
+	public static GitHubProject rescanProject(final GitHubClient ghClient,
+			final String ownerLogin, final String repoName,
+			final ScanOptions options,
+			final ListeningExecutorService stageExecutor) throws IOException {
+		Preconditions.checkNotNull(ownerLogin, "ownerLogin == null");
+		Preconditions.checkNotNull(repoName, "repoName == null");
+		Preconditions.checkNotNull(options, "options == null");
+		Repository repo;
+		try {
+			repo = new RepositoryService(ghClient).getRepository(ownerLogin,
+					repoName);
+		} catch (RequestException excep) {
+			if (excep.getStatus() != HttpURLConnection.HTTP_NOT_FOUND) {
+				throw excep;
+			}
+			LOGGER.info("Repository " + ownerLogin + "/" + repoName
+					+ " no longer exists");
+			return null;
 		}
-		TravisRepo entity = response.getEntity(TravisRepo.class);
-		LOGGER.info("Last build for repo " + repoName + " id " + entity.lastBuildId);
-		return CiInfo.fromValues(entity.lastBuildId != 0);
+		if (repo.isPrivate()) {
+			return null;
+		}
+		return createProject(ghClient, ownerLogin, repo, options,
+				stageExecutor);
+	}
+
+	/**
+	 * Looks up the metadata, health indicators and CI info of a project a
+	 * lazy scan built from the repository listing alone, see
+	 * {@link ScanOptions.Builder#lazy(boolean)}. The listing details the
+	 * project already holds are reused, so unlike
+	 * {@link #rescanProject(GitHubClient, String, String, ScanOptions)} the
+	 * repository isn't requested again. The lookups run one after the other
+	 * on the calling thread.
+	 *
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param project
+	 *            the project to resolve
+	 * @param options
+	 *            the scan options
+	 * @return the resolved project, or the project passed if it isn't pending
+	 * @throws IOException
+	 *             if there's a problem calling the GitHub API
+	 */
+	public static GitHubProject resolveProject(final GitHubClient ghClient,
+			final GitHubProject project, final ScanOptions options)
+			throws IOException {
+		return resolveProject(ghClient, project, options,
+				MoreExecutors.sameThreadExecutor());
+	}
+
+	/**
+	 * As {@link #resolveProject(GitHubClient, GitHubProject, ScanOptions)} but
+	 * the project's lookups are run by the stage executor, see
+	 * {@link #createProject(GitHubClient, String, Repository, ScanOptions, ListeningExecutorService)}.
+	 *
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param project
+	 *            the project to resolve
+	 * @param options
+	 *            the scan options
+	 * @param stageExecutor
+	 *            the executor that runs the individual lookups
+	 * @return the resolved project, or the project passed if it isn't pending
+	 * @throws IOException
+	 *             if there's a problem calling the GitHub API
+	 */
+	public static GitHubProject resolveProject(final GitHubClient ghClient,
+			final GitHubProject project, final ScanOptions options,
+			final ListeningExecutorService stageExecutor) throws IOException {
+		Preconditions.checkNotNull(project, "project == null");
+		Preconditions.checkNotNull(options, "options == null");
+		if (!project.pending) {
+			return project;
+		}
+		return createProject(ghClient, project.ownerLogin,
+				toRepository(project), options, stageExecutor);
+	}
+
+	/**
+	 * Rebuilds the repository listing a project was built from.
+	 */
+	static Repository toRepository(final GitHubProject project) {
+		return new Repository().setName(project.name)
+				.setOwner(new User().setLogin(project.ownerLogin))
+				.setHtmlUrl(project.url).setDescription(project.description)
+				.setLanguage(project.language)
+				.setUpdatedAt(project.updated).setPushedAt(project.pushed)
+				.setOpenIssues(project.openIssues);
+	}
+
+	/**
+	 * Waits for a lookup, if it failed the failure's added to the errors and
+	 * the fallback returned in its place.
+	 */
+	private static <T> T joinStage(final Future<T> stage, final String name,
+			final T fallback, final List<String> errors) throws IOException {
+		try {
+			return stage.get();
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Repository lookup interrupted.");
+		} catch (ExecutionException excep) {
+			Throwable cause = excep.getCause();
+			if (cause instanceof InterruptedIOException) {
+				throw (InterruptedIOException) cause;
+			}
+			errors.add(stageError(name, cause));
+			return fallback;
+		}
+	}
+
+	/**
+	 * Creates an executor for a scan's tasks, a virtual thread per task if
+	 * the options ask for them and the JVM has them, otherwise a pool of
+	 * daemon platform threads. Virtual thread executors aren't bounded, the
+	 * scan holds a permit for each repository in flight.
+	 */
+	static ExecutorService newScanExecutor(final ScanOptions options,
+			final int platformThreads, final String namePrefix) {
+		if (options.virtualThreads) {
+			if (VirtualThreads.isAvailable()) {
+				return VirtualThreads.newThreadPerTaskExecutor(namePrefix);
+			}
+			LOGGER.warn("Virtual threads need Java 21 or later, using "
+					+ platformThreads + " platform threads");
+		}
+		return Executors.newFixedThreadPool(platformThreads,
+				new ThreadFactoryBuilder().setNameFormat(namePrefix + "%d")
+						.setDaemon(true).build());
+	}
+
+	/**
+	 * Takes a permit, a scan task waiting for one is parked rather than
+	 * holding a platform thread when it runs on a virtual thread.
+	 */
+	static void acquire(final Semaphore permits) throws InterruptedIOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Repository scan interrupted.");
+		}
+	}
+
+	static String stageError(final String name, final Throwable cause) {
+		LOGGER.warn(name + " lookup failed: " + cause.getMessage());
+		return name + ": " + ((cause.getMessage() == null) ? cause.getClass()
+				.getSimpleName() : cause.getMessage());
 	}
 
 	/**
@@ -198,23 +621,492 @@ public final class GitHubProjects {
 	public static List<GitHubProject> createProjectList(
 			final GitHubClient ghClient, final String ghLogin)
 			throws IOException {
-		RepositoryService repoService = new RepositoryService(ghClient);
+		return createProjectList(ghClient, ghLogin, ScanOptions.defaultInstance(),
+				Collections.<GitHubProject> emptyList());
+	}
+
+	/**
+	 * Scans the repositories of a GitHub user using a bounded pool of worker
+	 * threads. Projects are returned in the same order as the GitHub
+	 * repository listing, a repository that fails to scan is logged and left
+	 * out of the list rather than aborting the whole scan.
+	 * 
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param ghLogin
+	 *            the string GitHub login of the GitHub user who's project info's
+	 *            retrieved.
+	 * @param threads
+	 *            the maximum number of repositories scanned concurrently
+	 * @return a java.util.List of GitHub projects for the user identified by the
+	 *         login string
+	 * @throws IOException
+	 *             if the repository listing can't be retrieved or the scan is
+	 *             interrupted
+	 */
+	public static List<GitHubProject> createProjectList(
+			final GitHubClient ghClient, final String ghLogin,
+			final int threads) throws IOException {
+		return createProjectList(ghClient, ghLogin,
+				new ScanOptions.Builder().threads(threads).build(),
+				Collections.<GitHubProject> emptyList());
+	}
+
+	/**
+	 * Scans the repositories of a GitHub user with the given options. This is
+	 * an incremental version of
+	 * {@link #createProjectList(GitHubClient, String, int)}.
+	 * A repository whose updated timestamp, moved by changes to the
+	 * repository's settings, and pushed timestamp, moved by pushes, both
+	 * match those of the same project in the previous list has its metadata,
+	 * indicators and CI info copied forward rather than fetched again. Only the repository listing is requested for
+	 * unchanged repositories. If the options give a journal directory the
+	 * listing pages and finished projects are journaled as the scan goes, a
+	 * scan that's stopped part way picks up from the journal the next time
+	 * it's run, see {@link ScanOptions.Builder#journalDir(File)}.
+	 *
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param ghLogin
+	 *            the string GitHub login of the GitHub user who's project info's
+	 *            retrieved.
+	 * @param options
+	 *            the scan options
+	 * @param previous
+	 *            the projects from a previous scan, may be empty
+	 * @return a java.util.List of GitHub projects for the user identified by the
+	 *         login string
+	 * @throws IOException
+	 *             if the repository listing can't be retrieved or the scan is
+	 *             interrupted
+	 */
+	public static List<GitHubProject> createProjectList(
+			final GitHubClient ghClient, final String ghLogin,
+			final ScanOptions options,
+			final Collection<GitHubProject> previous) throws IOException {
+		final Map<String, GitHubProject> built = new HashMap<>();
+		List<Repository> scanned = scan(ghClient, ghLogin, options, previous,
+				new ProjectSink() {
+					@Override
+					public void accept(final GitHubProject project) {
+						built.put(project.ownerLogin + "/" + project.name, project);
+					}
+
+					@Override
+					public void close() {
+						// Nothing to finish
+					}
+				});
+		// Put the projects back into listing order
 		List<GitHubProject> projects = new ArrayList<>();
-		List<Repository> repos = repoService.getOrgRepositories(ghLogin);
-		for (Repository repo : repos) {
-			LOGGER.debug(repo.getName());
-			// Skip the private repos
-			if (repo.isPrivate()) {
-				LOGGER.info("Skipping private repository " + repo.getName());
-				continue;
+		for (Repository repo : scanned) {
+			GitHubProject project = built.get(repo.getOwner().getLogin() + "/"
+					+ repo.getName());
+			if (project != null) {
+				projects.add(project);
 			}
-			LOGGER.info("Getting metadata for repo: " + repo.getName());
-			ProjectMetadata metadata = getMetadata(ghClient, repo);
-			Builder projBuilder = (new Builder(repo)).metadata(metadata)
-					.indicators(getProjectIndicators(ghClient, repo))
-					.ci(getTravisInfo(ghLogin, repo.getName()));
-			projects.add(projBuilder.build());
 		}
 		return projects;
 	}
+
+	/**
+	 * Scans the repositories of a GitHub user like
+	 * {@link #createProjectList(GitHubClient, String, ScanOptions, Collection)}
+	 * but passes each project to the sink as soon as it's built rather than
+	 * collecting a list. Projects reach the sink in the order they finish,
+	 * copied forward projects first, and no reference to a project is kept
+	 * once the sink has it. The sink is called on the calling thread and
+	 * isn't closed by this method.
+	 * 
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param ghLogin
+	 *            the string GitHub login of the GitHub user who's project info's
+	 *            retrieved.
+	 * @param options
+	 *            the scan options
+	 * @param previous
+	 *            the projects from a previous scan, may be empty
+	 * @param sink
+	 *            the sink that receives the projects
+	 * @throws IOException
+	 *             if the repository listing can't be retrieved, the sink
+	 *             fails or the scan is interrupted
+	 */
+	public static void scanProjects(final GitHubClient ghClient,
+			final String ghLogin, final ScanOptions options,
+			final Collection<GitHubProject> previous, final ProjectSink sink)
+			throws IOException {
+		scan(ghClient, ghLogin, options, previous, sink);
+	}
+
+	private static List<Repository> scan(final GitHubClient ghClient,
+			final String ghLogin, final ScanOptions options,
+			final Collection<GitHubProject> previous, final ProjectSink sink)
+			throws IOException {
+		Preconditions.checkNotNull(options, "options == null");
+		Preconditions.checkNotNull(previous, "previous == null");
+		Preconditions.checkNotNull(sink, "sink == null");
+		Map<String, GitHubProject> previousByName = new HashMap<>();
+		for (GitHubProject project : previous) {
+			previousByName.put(project.ownerLogin + "/" + project.name, project);
+		}
+		if (options.graphQL) {
+			Preconditions.checkArgument(
+					ghClient instanceof HealthCheckGitHubClient,
+					"GraphQL scans need a HealthCheckGitHubClient");
+			return GraphQLProjects.scan((HealthCheckGitHubClient) ghClient,
+					ghLogin, options, previousByName, sink);
+		}
+		// A lazy scan makes no lookups worth journaling
+		final ScanJournal journal = (options.journalDir == null || options.lazy) ? null
+				: ScanJournal.open(options.journalDir, ghLogin);
+		List<Repository> scanned = new ArrayList<>();
+		Set<String> listedNames = new HashSet<>();
+		ExecutorService executor = newScanExecutor(options, options.threads,
+				"repo-scan-");
+		// Finished projects are taken in completion order rather than listing order
+		CompletionService<GitHubProject> completion = new ExecutorCompletionService<>(
+				executor);
+		Map<Future<GitHubProject>, Repository> pending = new HashMap<>();
+		// Each repository fans out into metadata, indicator and CI lookups
+		final ListeningExecutorService stageExecutor = MoreExecutors
+				.listeningDecorator(newScanExecutor(options, options.threads
+						* STAGES_PER_REPO, "repo-stage-"));
+		final Semaphore inFlight = new Semaphore(options.threads);
+		final RateLimitScheduler scheduler = (ghClient instanceof HealthCheckGitHubClient)
+				? ((HealthCheckGitHubClient) ghClient).getScheduler() : null;
+		int unchanged = 0, listed = 0, missingPages = 0, resumed = 0;
+		// Later listing pages download while the first page's repositories scan
+		try (RepositoryPages listing = (journal == null) ? RepositoryPages.open(
+				ghClient, ghLogin) : RepositoryPages.resume(ghClient, ghLogin,
+				journal.getListedPages(), journal.getPageCount())) {
+			for (int pageNumber = 1; pageNumber <= listing.getPageCount(); pageNumber++) {
+				List<Repository> page;
+				try {
+					page = listing.next();
+				} catch (InterruptedIOException excep) {
+					throw excep;
+				} catch (IOException excep) {
+					// The rest of the listing's still worth scanning
+					LOGGER.warn("Couldn't list page " + pageNumber + " of "
+							+ ghLogin + ": " + excep.getMessage());
+					missingPages++;
+					if (journal != null) {
+						journal.pageListed(pageNumber, listing.getPageCount(), null);
+					}
+					continue;
+				}
+				if (journal != null) {
+					journal.pageListed(pageNumber, listing.getPageCount(), page);
+				}
+				for (final Repository repo : page) {
+					LOGGER.debug(repo.getName());
+					// Skip the private repos
+					if (repo.isPrivate()) {
+						LOGGER.info("Skipping private repository " + repo.getName());
+						continue;
+					}
+					// A listing that shifted between pages can list one twice
+					if (!listedNames.add(repo.getOwner().getLogin() + "/"
+							+ repo.getName())) {
+						LOGGER.debug("Skipping repository listed twice "
+								+ repo.getName());
+						continue;
+					}
+					scanned.add(repo);
+					final GitHubProject last = previousByName.get(repo
+							.getOwner().getLogin() + "/" + repo.getName());
+					// Projects an interrupted run finished needn't be scanned again
+					GitHubProject done = (journal == null) ? null : journal
+							.getCompleted(repo.getOwner().getLogin(), repo.getName());
+					if (isUnchanged(done, repo)) {
+						resumed++;
+						sink.accept(done);
+						continue;
+					}
+					if (isUnchanged(last, repo)) {
+						unchanged++;
+						sink.accept(copyForward(last, repo));
+						continue;
+					}
+					if (options.lazy) {
+						listed++;
+						sink.accept(listedProject(repo));
+						continue;
+					}
+					pending.put(completion.submit(new Callable<GitHubProject>() {
+						@Override
+						public GitHubProject call() throws IOException {
+							acquire(inFlight);
+							try {
+								// Repositories already started get the remaining quota first
+								if (scheduler != null) {
+									scheduler.admitRepository();
+								}
+								try {
+									return createProject(ghClient, ghLogin, repo,
+											options, stageExecutor, last);
+								} finally {
+									if (scheduler != null) {
+										scheduler.repositoryFinished();
+									}
+								}
+							} finally {
+								inFlight.release();
+							}
+						}
+					}), repo);
+				}
+			}
+			if (missingPages > 0) {
+				// Repositories that may be on the missing pages keep their last projects
+				Map<String, GitHubProject> unlisted = new HashMap<>(previousByName);
+				for (Repository repo : scanned) {
+					unlisted.remove(repo.getOwner().getLogin() + "/" + repo.getName());
+				}
+				for (GitHubProject last : unlisted.values()) {
+					Repository repo = toRepository(last);
+					scanned.add(repo);
+					sink.accept(degradedProject(repo, last, LISTING_STAGE
+							+ ": not in the " + (listing.getPageCount() - missingPages)
+							+ " of " + listing.getPageCount() + " pages listed"));
+				}
+			}
+			LOGGER.info("Resumed " + resumed + " journaled projects, copied forward "
+					+ unchanged + " unchanged repositories, listed " + listed
+					+ " pending repositories, scanning " + pending.size());
+			while (!pending.isEmpty()) {
+				Future<GitHubProject> done = completion.take();
+				Repository repo = pending.remove(done);
+				GitHubProject project;
+				try {
+					project = done.get();
+				} catch (ExecutionException excep) {
+					if (excep.getCause() instanceof InterruptedIOException) {
+						throw (InterruptedIOException) excep.getCause();
+					}
+					project = degradedProject(repo, previousByName.get(repo
+							.getOwner().getLogin() + "/" + repo.getName()),
+							stageError(SCAN_STAGE, excep.getCause()));
+				}
+				// Degraded projects are scanned again on resume
+				if (journal != null && project.errors.isEmpty()) {
+					journal.projectDone(project);
+				}
+				sink.accept(project);
+			}
+			if (journal != null) {
+				journal.finish();
+			}
+			return scanned;
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Repository scan interrupted.");
+		} finally {
+			executor.shutdownNow();
+			stageExecutor.shutdownNow();
+			if (journal != null) {
+				journal.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes a list of projects as JSON, the list can be read back with
+	 * {@link #readProjectList(InputStream)}.
+	 * 
+	 * @param projects
+	 *            the projects to write
+	 * @param out
+	 *            the stream to write to, not closed by this method
+	 * @throws IOException
+	 *             if there's a problem writing the list
+	 */
+	public static void writeProjectList(final List<GitHubProject> projects,
+			final OutputStream out) throws IOException {
+		Preconditions.checkNotNull(projects, "projects == null");
+		Preconditions.checkNotNull(out, "out == null");
+		MAPPER.writeValue(out, projects);
+	}
+
+	/**
+	 * Writes a single project as JSON.
+	 *
+	 * @param project
+	 *            the project to write
+	 * @param out
+	 *            the stream to write to, not closed by this method
+	 * @throws IOException
+	 *             if there's a problem writing the project
+	 */
+	static void writeProject(final GitHubProject project,
+			final OutputStream out) throws IOException {
+		Preconditions.checkNotNull(project, "project == null");
+		Preconditions.checkNotNull(out, "out == null");
+		MAPPER.writeValue(out, project);
+	}
+
+	/**
+	 * Reads a list of projects written by
+	 * {@link #writeProjectList(List, OutputStream)}.
+	 * 
+	 * @param in
+	 *            the stream to read from, not closed by this method
+	 * @return the list of projects read
+	 * @throws IOException
+	 *             if there's a problem reading or parsing the list
+	 */
+	public static List<GitHubProject> readProjectList(final InputStream in)
+			throws IOException {
+		Preconditions.checkNotNull(in, "in == null");
+		return MAPPER.readValue(in,
+				new TypeReference<List<GitHubProject>>() {/** Type token */});
+	}
+
+	/**
+	 * Writes a list of projects to a file, as a binary snapshot if the file
+	 * name ends {@link ProjectSnapshots#EXTENSION} or JSON otherwise. The
+	 * list's written to a temporary file that then replaces the file, so a
+	 * failed write leaves the previous file intact.
+	 * 
+	 * @param projects
+	 *            the projects to write
+	 * @param file
+	 *            the file to create or replace
+	 * @throws IOException
+	 *             if there's a problem writing the file
+	 */
+	public static void writeProjectFile(final List<GitHubProject> projects,
+			final File file) throws IOException {
+		Preconditions.checkNotNull(projects, "projects == null");
+		replaceFile(file, new FileContents() {
+			@Override
+			public void write(final OutputStream out) throws IOException {
+				if (ProjectSnapshots.isSnapshotFile(file)) {
+					ProjectSnapshots.write(projects, out);
+				} else {
+					writeProjectList(projects, out);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes a file's contents to a temporary file that then replaces the
+	 * file. The temporary file's deleted if the contents can't be written, a
+	 * failed write leaves the previous file intact and nothing else behind.
+	 *
+	 * @param file
+	 *            the file to create or replace
+	 * @param contents
+	 *            writes the file's contents
+	 * @throws IOException
+	 *             if there's a problem writing the file
+	 */
+	static void replaceFile(final File file, final FileContents contents)
+			throws IOException {
+		Preconditions.checkNotNull(file, "file == null");
+		Preconditions.checkNotNull(contents, "contents == null");
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		boolean replaced = false;
+		try {
+			try (OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(tempFile))) {
+				contents.write(out);
+			}
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			replaced = true;
+		} finally {
+			if (!replaced && !tempFile.delete() && tempFile.exists()) {
+				LOGGER.warn("Couldn't delete " + tempFile.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Writes the contents of a file {@link #replaceFile(File, FileContents)}
+	 * replaces.
+	 */
+	interface FileContents {
+		/**
+		 * @param out
+		 *            the stream to write to, closed once this returns
+		 * @throws IOException
+		 *             if the contents can't be written, the file's left as it
+		 *             was
+		 */
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Reads the projects of a previous scan for an incremental scan, from
+	 * either a JSON or snapshot file whatever its name. A missing or
+	 * unreadable file only costs a full scan so it's logged and an empty list
+	 * returned.
+	 * 
+	 * @param stateFile
+	 *            a file written by {@link #writeProjectFile(List, File)}, may
+	 *            be null
+	 * @return the projects read, or an empty list
+	 */
+	public static List<GitHubProject> readPreviousProjects(final File stateFile) {
+		if (stateFile == null || !stateFile.isFile()) {
+			return Collections.emptyList();
+		}
+		try (InputStream stateStream = new BufferedInputStream(
+				new FileInputStream(stateFile))) {
+			List<GitHubProject> previous = ProjectSnapshots
+					.isSnapshot(stateStream) ? ProjectSnapshots
+					.read(stateStream) : readProjectList(stateStream);
+			LOGGER.info("Read " + previous.size() + " projects from "
+					+ stateFile.getAbsolutePath());
+			return previous;
+		} catch (IOException | IllegalArgumentException excep) {
+			LOGGER.warn("Couldn't read state file, running a full scan: "
+					+ excep.getMessage());
+			return Collections.emptyList();
+		}
+	}
+
+	static boolean isUnchanged(final GitHubProject last,
+			final Repository repo) {
+		// A pending or degraded project has lookups still to make
+		return (last != null) && !last.pending && last.errors.isEmpty()
+				&& (repo.getUpdatedAt() != null)
+				&& last.updated.equals(repo.getUpdatedAt())
+				&& Objects.equal(last.pushed, repo.getPushedAt());
+	}
+
+	static GitHubProject copyForward(final GitHubProject last,
+			final Repository repo) {
+		LOGGER.debug("Repository unchanged, copying forward " + repo.getName());
+		return (new Builder(repo)).metadata(last.metadata)
+				.indicators(last.indicators).ci(last.ci).build();
+	}
+
+	static GitHubProject listedProject(final Repository repo) {
+		return (new Builder(repo)).indicators(NO_INDICATORS).ci(NO_CI)
+				.pending(true).build();
+	}
+
+	/**
+	 * Builds a project for a repository that couldn't be scanned, from its
+	 * last project if there is one or the listing alone if not, recording
+	 * the error.
+	 */
+	static GitHubProject degradedProject(final Repository repo,
+			final GitHubProject last, final String error) {
+		Builder builder = new Builder(repo).errors(Collections
+				.singletonList(error));
+		if (last == null) {
+			return builder.indicators(NO_INDICATORS).ci(NO_CI).build();
+		}
+		return builder.metadata(last.metadata).indicators(last.indicators)
+				.ci(last.ci).build();
+	}
 }
@@ -0,0 +1,273 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.RepositoryContents;
+import org.eclipse.egit.github.core.User;
+import org.opf_labs.project.healthcheck.GitHubProject.Builder;
+import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
+import org.opf_labs.project.healthcheck.GitHubProject.Indicators;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+
+/**
+ * Fetches an owner's repositories through the GitHub GraphQL API rather than
+ * REST. Each query returns a page of repositories with everything the
+ * report needs from GitHub, the repository details, the root listing of the
+ * default branch and the text of any .opf.yml, so an owner with 500
+ * repositories takes 5 requests rather than a listing page and two contents
+ * requests per repository. Each repository is mapped into an EGit
+ * {@link Repository} so the projects are built just as a REST scan's are.
+ * The Travis lookups aren't GitHub's to batch and are still made per
+ * repository on the scan threads.</p>
+ */
+final class GraphQLProjects {
+	/** Repositories per query, GitHub's maximum page size */
+	static final int PAGE_SIZE = 100;
+
+	// Open pull requests are counted too, REST counts them as open issues
+	private static final String QUERY = "query($login: String!, $first: Int!, $after: String) {"
+			+ " repositoryOwner(login: $login) {"
+			+ " repositories(first: $first, after: $after, orderBy: {field: NAME, direction: ASC}) {"
+			+ " pageInfo { hasNextPage endCursor }"
+			+ " nodes { name description url isPrivate updatedAt pushedAt"
+			+ " owner { login } primaryLanguage { name }"
+			+ " issues(states: OPEN) { totalCount }"
+			+ " pullRequests(states: OPEN) { totalCount }"
+			+ " tree: object(expression: \"HEAD:\") { ... on Tree { entries { name type } } }"
+			+ " opfYaml: object(expression: \"HEAD:.opf.yml\") { ... on Blob { text } } } } } }";
+	private static final String GIT_BLOB = "blob";
+	private static final String GIT_TREE = "tree";
+	private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final Logger LOGGER = Logger.getLogger(GraphQLProjects.class);
+
+	private GraphQLProjects() {
+		throw new AssertionError("In GraphQLProjects constructor.");
+	}
+
+	/**
+	 * Scans an owner's repositories page by page, repositories unchanged
+	 * since the previous scan are copied forward without a Travis lookup.
+	 *
+	 * @return the public repositories in listing order
+	 */
+	static List<Repository> scan(final HealthCheckGitHubClient ghClient,
+			final String ghLogin, final ScanOptions options,
+			final Map<String, GitHubProject> previousByName,
+			final ProjectSink sink) throws IOException {
+		List<Repository> scanned = new ArrayList<>();
+		ExecutorService executor = GitHubProjects.newScanExecutor(options,
+				options.threads, "repo-scan-");
+		final Semaphore inFlight = new Semaphore(options.threads);
+		CompletionService<GitHubProject> completion = new ExecutorCompletionService<>(
+				executor);
+		Map<Future<GitHubProject>, Repository> pending = new HashMap<>();
+		int unchanged = 0, pages = 0;
+		try {
+			String cursor = null;
+			do {
+				JsonNode repositories = queryPage(ghClient, ghLogin, cursor);
+				pages++;
+				for (final JsonNode node : repositories.path("nodes")) {
+					final Repository repo = toRepository(node);
+					if (repo.isPrivate()) {
+						LOGGER.info("Skipping private repository " + repo.getName());
+						continue;
+					}
+					scanned.add(repo);
+					final GitHubProject last = previousByName.get(repo.getOwner()
+							.getLogin() + "/" + repo.getName());
+					if (GitHubProjects.isUnchanged(last, repo)) {
+						unchanged++;
+						sink.accept(GitHubProjects.copyForward(last, repo));
+						continue;
+					}
+					pending.put(completion.submit(new Callable<GitHubProject>() {
+						@Override
+						public GitHubProject call() throws IOException {
+							GitHubProjects.acquire(inFlight);
+							try {
+								return createProject(options, ghLogin, repo, node,
+										last);
+							} finally {
+								inFlight.release();
+							}
+						}
+					}), repo);
+				}
+				JsonNode pageInfo = repositories.path("pageInfo");
+				cursor = pageInfo.path("hasNextPage").asBoolean() ? pageInfo
+						.path("endCursor").asText() : null;
+			} while (cursor != null);
+			LOGGER.info("Listed " + scanned.size() + " repositories in " + pages
+					+ " GraphQL queries, copied forward " + unchanged
+					+ " unchanged repositories, scanning " + pending.size());
+			while (!pending.isEmpty()) {
+				Future<GitHubProject> done = completion.take();
+				Repository repo = pending.remove(done);
+				GitHubProject project;
+				try {
+					project = done.get();
+				} catch (ExecutionException excep) {
+					if (excep.getCause() instanceof InterruptedIOException) {
+						throw (InterruptedIOException) excep.getCause();
+					}
+					project = GitHubProjects.degradedProject(repo, previousByName
+							.get(repo.getOwner().getLogin() + "/" + repo.getName()),
+							GitHubProjects.stageError(GitHubProjects.SCAN_STAGE,
+									excep.getCause()));
+				}
+				sink.accept(project);
+			}
+			return scanned;
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Repository scan interrupted.");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Builds the JSON body of the query for a page of an owner's
+	 * repositories.
+	 *
+	 * @param login
+	 *            the owner's login
+	 * @param cursor
+	 *            the end cursor of the previous page, null for the first
+	 * @return the request body
+	 * @throws IOException
+	 *             if the request can't be serialised
+	 */
+	static byte[] pageRequest(final String login, final String cursor)
+			throws IOException {
+		ObjectNode request = MAPPER.createObjectNode();
+		request.put("query", QUERY);
+		ObjectNode variables = request.putObject("variables");
+		variables.put("login", login);
+		variables.put("first", PAGE_SIZE);
+		if (cursor != null) {
+			variables.put("after", cursor);
+		}
+		return MAPPER.writeValueAsBytes(request);
+	}
+
+	private static JsonNode queryPage(final HealthCheckGitHubClient ghClient,
+			final String login, final String cursor) throws IOException {
+		JsonNode response = MAPPER.readTree(ghClient.postGraphQL(pageRequest(
+				login, cursor)));
+		JsonNode owner = response.path("data").path("repositoryOwner");
+		if (owner.isMissingNode() || owner.isNull()) {
+			JsonNode errors = response.path("errors");
+			throw new IOException("GraphQL query for " + login + " failed: "
+					+ (errors.size() > 0 ? errors.get(0).path("message").asText()
+							: "no such user or organisation"));
+		}
+		return owner.path("repositories");
+	}
+
+	/**
+	 * Maps a GraphQL repository node into the EGit repository a REST listing
+	 * would have given.
+	 */
+	static Repository toRepository(final JsonNode node) throws IOException {
+		Repository repo = new Repository();
+		repo.setName(node.path("name").asText());
+		repo.setDescription(node.path("description").isNull() ? null : node
+				.path("description").asText());
+		repo.setHtmlUrl(node.path("url").asText());
+		repo.setPrivate(node.path("isPrivate").asBoolean());
+		repo.setOwner(new User().setLogin(node.path("owner").path("login")
+				.asText()));
+		JsonNode language = node.path("primaryLanguage");
+		repo.setLanguage(language.has("name") ? language.path("name").asText()
+				: null);
+		repo.setOpenIssues(node.path("issues").path("totalCount").asInt()
+				+ node.path("pullRequests").path("totalCount").asInt());
+		repo.setUpdatedAt(parseDate(node.path("updatedAt").asText()));
+		// An empty repository's never been pushed to
+		JsonNode pushed = node.path("pushedAt");
+		repo.setPushedAt(pushed.isTextual() ? parseDate(pushed.asText()) : null);
+		return repo;
+	}
+
+	private static GitHubProject createProject(final ScanOptions options,
+			final String ghLogin, final Repository repo, final JsonNode node,
+			final GitHubProject last) {
+		LOGGER.info("Getting metadata for repo: " + repo.getName());
+		// An empty repository has no tree
+		List<RepositoryContents> rootContents = new ArrayList<>();
+		for (JsonNode entry : node.path("tree").path("entries")) {
+			String type = entry.path("type").asText();
+			rootContents.add(new RepositoryContents().setPath(
+					entry.path("name").asText()).setType(
+					GIT_BLOB.equals(type) ? RepositoryContents.TYPE_FILE
+							: GIT_TREE.equals(type) ? RepositoryContents.TYPE_DIR
+									: type));
+		}
+		List<String> errors = new ArrayList<>();
+		String yaml = node.path("opfYaml").path("text").asText();
+		ProjectMetadata metadata;
+		try {
+			metadata = yaml.isEmpty() ? ProjectMetadata.defaultInstance()
+					: ProjectMetadata.fromYamlBytes(yaml.getBytes(Charsets.UTF_8));
+		} catch (IllegalArgumentException excep) {
+			// Only the metadata's lost, as in a REST scan
+			errors.add(GitHubProjects.stageError(
+					GitHubProjects.METADATA_STAGE, excep));
+			metadata = (last == null) ? ProjectMetadata.defaultInstance()
+					: last.metadata;
+		}
+		CiInfo ci;
+		try {
+			ci = GitHubProjects.getTravisInfo(options.travisClient, ghLogin,
+					repo.getName());
+		} catch (IOException excep) {
+			errors.add(GitHubProjects.stageError(GitHubProjects.TRAVIS_STAGE,
+					excep));
+			ci = (last == null) ? GitHubProjects.NO_CI : last.ci;
+		}
+		Indicators indicators = GitHubProjects.indicatorsFromContents(repo,
+				rootContents);
+		return (new Builder(repo)).metadata(metadata).indicators(indicators)
+				.ci(ci).errors(errors).build();
+	}
+
+	private static Date parseDate(final String date) throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		try {
+			return format.parse(date);
+		} catch (ParseException excep) {
+			throw new IOException("Malformed GraphQL timestamp " + date, excep);
+		}
+	}
+}
@@ -3,17 +3,19 @@
  */
 package org.opf_labs.project.healthcheck;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -28,12 +30,10 @@ import org.apache.log4j.Logger;
 import org.eclipse.egit.github.core.User;
 import org.eclipse.egit.github.core.client.GitHubClient;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.base.Joiner;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
 
-import freemarker.template.Configuration;
-import freemarker.template.Template;
 import freemarker.template.TemplateException;
 
 /**
@@ -52,25 +52,106 @@ import freemarker.template.TemplateException;
 public final class HealthCheckCLI {
 	
 	// Constants for CLI Options
+	private static final String CACHE_OPT = "cache";
+	private static final String CACHE_OPT_ARG = "Cache directory";
+	private static final String CACHE_OPT_DESC = "Directory used to cache GitHub responses between runs.";
+	private static final String CACHE_SIZE_OPT = "cachesize";
+	private static final String CACHE_SIZE_OPT_ARG = "Cache size MB";
+	private static final String CACHE_SIZE_OPT_DESC = "Maximum size of the response cache in megabytes, default 256";
 	private static final String FILE_OPT = "file";
 	private static final String FILE_OPT_ARG = "Write output to file";
 	private static final String FILE_OPT_DESC = "Path to file to create or overwrite.";
+	private static final String GITHUB_API_OPT = "githubapi";
+	private static final String GITHUB_API_OPT_ARG = "GitHub API URL";
+	private static final String GITHUB_API_OPT_DESC = "GitHub API host, other than github.com the API is under /api/v3, default https://api.github.com";
+	private static final String GRAPHQL_OPT = "graphql";
+	private static final String GRAPHQL_OPT_DESC = "fetch repositories, root listings and metadata a page of 100 at a time with GitHub GraphQL queries, needs a token";
 	private static final String HELP_OPT = "help";
 	private static final String HELP_OPT_DESC = "print this message";
+	private static final String HISTORY_OPT = "history";
+	private static final String HISTORY_OPT_ARG = "History directory";
+	private static final String HISTORY_OPT_DESC = "Append each project's indicators and open issues to the health history stored in this directory";
+	private static final String HOOK_SECRET_OPT = "hooksecret";
+	private static final String HOOK_SECRET_OPT_ARG = "Webhook secret";
+	private static final String HOOK_SECRET_OPT_DESC = "When serving, refuse GitHub webhooks that aren't signed with this secret";
 	private static final String HTML_OPT = "html";
 	private static final String HTML_OPT_DESC = "output HTML, defaults to plain text";
+	private static final String JOURNAL_OPT = "journal";
+	private static final String JOURNAL_OPT_ARG = "Journal directory";
+	private static final String JOURNAL_OPT_DESC = "Journal each org scan's progress in this directory, a scan that's stopped part way resumes from its journal on the next run";
+	private static final String LAZY_OPT = "lazy";
+	private static final String LAZY_OPT_DESC = "When serving, serve the report from the repository listing alone and look up each project's indicators, metadata and CI when it's viewed or in the background";
+	private static final String METRICS_OPT = "metrics";
+	private static final String METRICS_OPT_ARG = "Metrics file";
+	private static final String METRICS_OPT_DESC = "Write the run's remote call counts, latencies and cache hits to this file as JSON, a summary is always printed to stderr";
 	private static final String ORGANISATION_OPT = "org";
 	private static final String ORGANISATION_OPT_ARG = "GithHub organisation";
 	private static final String ORGANISATION_OPT_DESC = "GitHub org to retrieve details from, default openplanets";
+	private static final String ORGANISATIONS_OPT = "orgs";
+	private static final String ORGANISATIONS_OPT_ARG = "GitHub organisations";
+	private static final String ORGANISATIONS_OPT_DESC = "Comma separated GitHub orgs to scan in one batch, needs outdir";
+	private static final String ORG_FILE_OPT = "orgfile";
+	private static final String ORG_FILE_OPT_ARG = "Organisation file";
+	private static final String ORG_FILE_OPT_DESC = "File listing GitHub orgs to scan in one batch, one per line, needs outdir";
+	private static final String ORG_THREADS_OPT = "orgthreads";
+	private static final String ORG_THREADS_OPT_ARG = "Organisation threads";
+	private static final String ORG_THREADS_OPT_DESC = "Number of orgs a batch scans concurrently, default 2";
+	private static final String OUT_DIR_OPT = "outdir";
+	private static final String OUT_DIR_OPT_ARG = "Output directory";
+	private static final String OUT_DIR_OPT_DESC = "Directory for the batch reports, state files and combined index.";
 	private static final String PASSWORD_OPT = "pass";
 	private static final String PASSWORD_OPT_ARG = "GithHub password";
 	private static final String PASSWORD_OPT_DESC = "GitHub password used to get OAuth token";
+	private static final String REFRESH_OPT = "refresh";
+	private static final String REFRESH_OPT_ARG = "Refresh minutes";
+	private static final String REFRESH_OPT_DESC = "Minutes between the end of one scan and the next when serving, 0 to scan only at start and rely on webhooks, default 60";
+	private static final String REUSE_TREE_OPT = "reusetree";
+	private static final String REUSE_TREE_OPT_DESC = "only request .opf.yml when the root listing has one, saves a request per repo without metadata";
+	private static final String SERVE_OPT = "serve";
+	private static final String SERVE_OPT_ARG = "Port";
+	private static final String SERVE_OPT_DESC = "Serve the report and a JSON API on this port, rescanning in the background";
+	private static final String STATE_OPT = "state";
+	private static final String STATE_OPT_ARG = "State file";
+	private static final String STATE_OPT_DESC = "Project list from the last run, unchanged repos are copied forward and the file is rewritten, as a binary snapshot if the name ends .snapshot";
+	private static final String STREAM_OPT = "stream";
+	private static final String STREAM_OPT_ARG = "Stream format";
+	private static final String STREAM_OPT_DESC = "Write each project as soon as it's scanned, format is text, ndjson or html (list items), overrides html";
+	private static final String THREADS_OPT = "threads";
+	private static final String THREADS_OPT_ARG = "Thread count";
+	private static final String THREADS_OPT_DESC = "Number of repositories to scan concurrently, default 1";
+	private static final String TIMEOUT_OPT = "timeout";
+	private static final String TIMEOUT_OPT_ARG = "Timeout seconds";
+	private static final String TIMEOUT_OPT_DESC = "Read timeout for Travis requests in seconds, default 30";
+	private static final String TRAVIS_API_OPT = "travisapi";
+	private static final String TRAVIS_API_OPT_ARG = "Travis API URL";
+	private static final String TRAVIS_API_OPT_DESC = "Root URL of the Travis CI API, default https://api.travis-ci.org/";
 	private static final String USER_OPT = "user";
 	private static final String USER_OPT_ARG = "GithHub ID";
 	private static final String USER_OPT_DESC = "GitHub ID used to get OAuth token";
+	private static final String VIRTUAL_OPT = "virtual";
+	private static final String VIRTUAL_OPT_DESC = "Scan on virtual threads, threads then bounds the repositories in flight and can run to thousands, needs Java 21 or later";
 	
+	// Stream formats
+	private static final String STREAM_TEXT = "text";
+	private static final String STREAM_NDJSON = "ndjson";
+	private static final String STREAM_HTML = "html";
+
 	// Default org name is openplanets
 	private static final String DEFAULT_ORG_NAME = "openplanets";
+	// Default maximum response cache size in megabytes
+	private static final int DEFAULT_CACHE_SIZE_MB = 256;
+	private static final long BYTES_PER_MB = 1024L * 1024L;
+	// Default to scanning one repository at a time
+	private static final int DEFAULT_THREADS = 1;
+	// Default number of orgs a batch scans at once
+	private static final int DEFAULT_ORG_THREADS = 2;
+	// Default minutes between scans when serving
+	private static final int DEFAULT_REFRESH_MINUTES = 60;
+	// JDK keep-alive pool size property and its default
+	private static final String MAX_CONNECTIONS_PROP = "http.maxConnections";
+	private static final int DEFAULT_MAX_CONNECTIONS = 5;
+	private static final int CONNECTIONS_PER_THREAD = 3;
+	private static final int MILLIS_PER_SECOND = 1000;
 	
 	private static final Logger LOGGER = Logger.getLogger(HealthCheckCLI.class);
 
@@ -80,23 +161,103 @@ public final class HealthCheckCLI {
 		Option help = new Option(HELP_OPT, HELP_OPT_DESC);
 		Option html = new Option(HTML_OPT, HTML_OPT_DESC);
 		@SuppressWarnings("static-access")
+		Option cache = OptionBuilder.withArgName(CACHE_OPT_ARG).hasArg()
+				.withDescription(CACHE_OPT_DESC).create(CACHE_OPT);
+		@SuppressWarnings("static-access")
+		Option cacheSize = OptionBuilder.withArgName(CACHE_SIZE_OPT_ARG).hasArg()
+				.withDescription(CACHE_SIZE_OPT_DESC).create(CACHE_SIZE_OPT);
+		@SuppressWarnings("static-access")
 		Option file = OptionBuilder.withArgName(FILE_OPT_ARG).hasArg()
 				.withDescription(FILE_OPT_DESC).create(FILE_OPT);
 		@SuppressWarnings("static-access")
+		Option githubApi = OptionBuilder.withArgName(GITHUB_API_OPT_ARG).hasArg()
+				.withDescription(GITHUB_API_OPT_DESC).create(GITHUB_API_OPT);
+		@SuppressWarnings("static-access")
+		Option history = OptionBuilder.withArgName(HISTORY_OPT_ARG).hasArg()
+				.withDescription(HISTORY_OPT_DESC).create(HISTORY_OPT);
+		@SuppressWarnings("static-access")
+		Option hookSecret = OptionBuilder.withArgName(HOOK_SECRET_OPT_ARG).hasArg()
+				.withDescription(HOOK_SECRET_OPT_DESC).create(HOOK_SECRET_OPT);
+		@SuppressWarnings("static-access")
+		Option journal = OptionBuilder.withArgName(JOURNAL_OPT_ARG).hasArg()
+				.withDescription(JOURNAL_OPT_DESC).create(JOURNAL_OPT);
+		@SuppressWarnings("static-access")
+		Option metrics = OptionBuilder.withArgName(METRICS_OPT_ARG).hasArg()
+				.withDescription(METRICS_OPT_DESC).create(METRICS_OPT);
+		@SuppressWarnings("static-access")
 		Option organisation = OptionBuilder.withArgName(ORGANISATION_OPT_ARG).hasArg()
 				.withDescription(ORGANISATION_OPT_DESC).create(ORGANISATION_OPT);
 		@SuppressWarnings("static-access")
+		Option organisations = OptionBuilder.withArgName(ORGANISATIONS_OPT_ARG).hasArg()
+				.withDescription(ORGANISATIONS_OPT_DESC).create(ORGANISATIONS_OPT);
+		@SuppressWarnings("static-access")
+		Option orgFile = OptionBuilder.withArgName(ORG_FILE_OPT_ARG).hasArg()
+				.withDescription(ORG_FILE_OPT_DESC).create(ORG_FILE_OPT);
+		@SuppressWarnings("static-access")
+		Option orgThreads = OptionBuilder.withArgName(ORG_THREADS_OPT_ARG).hasArg()
+				.withDescription(ORG_THREADS_OPT_DESC).create(ORG_THREADS_OPT);
+		@SuppressWarnings("static-access")
+		Option outDir = OptionBuilder.withArgName(OUT_DIR_OPT_ARG).hasArg()
+				.withDescription(OUT_DIR_OPT_DESC).create(OUT_DIR_OPT);
+		@SuppressWarnings("static-access")
 		Option password = OptionBuilder.withArgName(PASSWORD_OPT_ARG).hasArg()
 				.withDescription(PASSWORD_OPT_DESC).create(PASSWORD_OPT);
 		@SuppressWarnings("static-access")
+		Option refresh = OptionBuilder.withArgName(REFRESH_OPT_ARG).hasArg()
+				.withDescription(REFRESH_OPT_DESC).create(REFRESH_OPT);
+		Option reuseTree = new Option(REUSE_TREE_OPT, REUSE_TREE_OPT_DESC);
+		Option graphQL = new Option(GRAPHQL_OPT, GRAPHQL_OPT_DESC);
+		Option lazy = new Option(LAZY_OPT, LAZY_OPT_DESC);
+		@SuppressWarnings("static-access")
+		Option serve = OptionBuilder.withArgName(SERVE_OPT_ARG).hasArg()
+				.withDescription(SERVE_OPT_DESC).create(SERVE_OPT);
+		@SuppressWarnings("static-access")
+		Option state = OptionBuilder.withArgName(STATE_OPT_ARG).hasArg()
+				.withDescription(STATE_OPT_DESC).create(STATE_OPT);
+		@SuppressWarnings("static-access")
+		Option stream = OptionBuilder.withArgName(STREAM_OPT_ARG).hasArg()
+				.withDescription(STREAM_OPT_DESC).create(STREAM_OPT);
+		@SuppressWarnings("static-access")
+		Option threads = OptionBuilder.withArgName(THREADS_OPT_ARG).hasArg()
+				.withDescription(THREADS_OPT_DESC).create(THREADS_OPT);
+		@SuppressWarnings("static-access")
+		Option timeout = OptionBuilder.withArgName(TIMEOUT_OPT_ARG).hasArg()
+				.withDescription(TIMEOUT_OPT_DESC).create(TIMEOUT_OPT);
+		@SuppressWarnings("static-access")
+		Option travisApi = OptionBuilder.withArgName(TRAVIS_API_OPT_ARG).hasArg()
+				.withDescription(TRAVIS_API_OPT_DESC).create(TRAVIS_API_OPT);
+		@SuppressWarnings("static-access")
 		Option user = OptionBuilder.withArgName(USER_OPT_ARG).hasArg()
 				.withDescription(USER_OPT_DESC).create(USER_OPT);
+		Option virtual = new Option(VIRTUAL_OPT, VIRTUAL_OPT_DESC);
 		OPTIONS.addOption(help);
 		OPTIONS.addOption(html);
+		OPTIONS.addOption(cache);
+		OPTIONS.addOption(cacheSize);
 		OPTIONS.addOption(file);
+		OPTIONS.addOption(githubApi);
+		OPTIONS.addOption(graphQL);
+		OPTIONS.addOption(history);
+		OPTIONS.addOption(hookSecret);
+		OPTIONS.addOption(journal);
+		OPTIONS.addOption(lazy);
+		OPTIONS.addOption(metrics);
 		OPTIONS.addOption(organisation);
+		OPTIONS.addOption(organisations);
+		OPTIONS.addOption(orgFile);
+		OPTIONS.addOption(orgThreads);
+		OPTIONS.addOption(outDir);
 		OPTIONS.addOption(password);
+		OPTIONS.addOption(refresh);
+		OPTIONS.addOption(reuseTree);
+		OPTIONS.addOption(serve);
+		OPTIONS.addOption(state);
+		OPTIONS.addOption(stream);
+		OPTIONS.addOption(threads);
+		OPTIONS.addOption(timeout);
+		OPTIONS.addOption(travisApi);
 		OPTIONS.addOption(user);
+		OPTIONS.addOption(virtual);
 	}
 	
 	private HealthCheckCLI() {
@@ -124,8 +285,29 @@ public final class HealthCheckCLI {
 				System.exit(0);
 			}
 
+			// Every remote call of the run is recorded
+			ScanMetrics metrics = new ScanMetrics();
+			// Scan options first, they size the connection pool
+			ScanOptions scanOptions = getScanOptions(cmd, metrics);
+			String streamFormat = getStreamFormat(cmd);
+			if (streamFormat == null && cmd.hasOption(HTML_OPT)) {
+				// Parse the report template now so a broken one fails before the scan
+				ReportRenderer.defaultInstance();
+			}
+
 			// Parsed OK so let's get GitHub Client
-			GitHubClient ghClient = createGitHubClient(cmd);
+			GitHubClient ghClient = createGitHubClient(cmd, metrics);
+
+			if (isBatch(cmd)) {
+				runBatch(cmd, ghClient, scanOptions);
+				reportMetrics(cmd, metrics);
+				return;
+			}
+			if (cmd.hasOption(SERVE_OPT)) {
+				// The HTTP threads keep the JVM running after main returns
+				startServer(cmd, ghClient, scanOptions);
+				return;
+			}
 			
 			// Now the organisation name
 			LOGGER.info("Getting GitHub user");
@@ -133,13 +315,26 @@ public final class HealthCheckCLI {
 			
 			LOGGER.info("Reading project data for GitHub user " + user.getName());
 
-			List<GitHubProject> projects = GitHubProjects.createProjectList(ghClient, user.getLogin());
-			// Get a file writer if requested
-			if (cmd.hasOption(FILE_OPT)) {
-				outWriter = getFileOutputWriter(cmd.getOptionValue(FILE_OPT));
-			} else {
-				outWriter = new OutputStreamWriter(System.out);
+			File stateFile = cmd.hasOption(STATE_OPT) ? new File(cmd.getOptionValue(STATE_OPT)) : null;
+			if (streamFormat != null) {
+				// Projects are written as they're scanned so the writer's needed first
+				outWriter = getOutputWriter(cmd);
+				streamProjects(cmd, ghClient, user, scanOptions, stateFile, streamFormat, outWriter);
+				outWriter.close();
+				reportMetrics(cmd, metrics);
+				return;
+			}
+			List<GitHubProject> projects = GitHubProjects.createProjectList(ghClient, user.getLogin(),
+					scanOptions, GitHubProjects.readPreviousProjects(stateFile));
+			if (stateFile != null) {
+				GitHubProjects.writeProjectFile(projects, stateFile);
 			}
+			if (cmd.hasOption(HISTORY_OPT)) {
+				try (HealthHistory history = openHistory(cmd)) {
+					history.append(System.currentTimeMillis(), projects);
+				}
+			}
+			outWriter = getOutputWriter(cmd);
 
 			if (cmd.hasOption(HTML_OPT)) {
 				outputHtml(user, projects, outWriter);
@@ -147,6 +342,7 @@ public final class HealthCheckCLI {
 				outputPlainText(user, projects, outWriter);
 			}
 			outWriter.close();
+			reportMetrics(cmd, metrics);
 		} catch (ParseException e) {
 			LOGGER.info("There was a problem parsing the command line arguments.");
 			logFatalExceptionAndExit(e);
@@ -172,8 +368,26 @@ public final class HealthCheckCLI {
 		formatter.printHelp("proj-heath", OPTIONS);
 	}
 
-	private static GitHubClient createGitHubClient(final CommandLine cmd) {
-		GitHubClient client = new GitHubClient();
+	private static GitHubClient createGitHubClient(final CommandLine cmd, final ScanMetrics metrics)
+			throws ParseException, IOException {
+		HealthCheckGitHubClient client;
+		if (cmd.hasOption(GITHUB_API_OPT)) {
+			try {
+				client = HealthCheckGitHubClient.fromUrl(cmd.getOptionValue(GITHUB_API_OPT));
+			} catch (IllegalArgumentException excep) {
+				throw new ParseException(excep.getMessage());
+			}
+		} else {
+			client = new HealthCheckGitHubClient();
+		}
+		client.setMetrics(metrics);
+		if (cmd.hasOption(CACHE_OPT)) {
+			File cacheDir = new File(cmd.getOptionValue(CACHE_OPT));
+			LOGGER.info("Caching GitHub responses in " + cacheDir.getAbsolutePath());
+			int cacheSizeMb = cmd.hasOption(CACHE_SIZE_OPT) ? getPositiveInt(cmd, CACHE_SIZE_OPT, "Cache size")
+					: DEFAULT_CACHE_SIZE_MB;
+			client.setResponseCache(new ResponseCache(cacheDir, cacheSizeMb * BYTES_PER_MB));
+		}
 		if (cmd.hasOption(USER_OPT)) {
 			String user = cmd.getOptionValue(USER_OPT);
 			LOGGER.info("User:" + user);
@@ -190,6 +404,221 @@ public final class HealthCheckCLI {
 		return (cmd.hasOption(ORGANISATION_OPT)) ? cmd.getOptionValue(ORGANISATION_OPT) : DEFAULT_ORG_NAME;
 	}
 
+	private static boolean isBatch(final CommandLine cmd) {
+		return cmd.hasOption(ORGANISATIONS_OPT) || cmd.hasOption(ORG_FILE_OPT);
+	}
+
+	private static void runBatch(final CommandLine cmd, final GitHubClient ghClient, final ScanOptions scanOptions)
+			throws ParseException, IOException {
+		if (!cmd.hasOption(OUT_DIR_OPT)) {
+			throw new ParseException("A batch of orgs needs an output directory.");
+		}
+		List<String> logins = getOrgLogins(cmd);
+		File outDir = new File(cmd.getOptionValue(OUT_DIR_OPT));
+		LOGGER.info("Scanning " + logins.size() + " orgs into " + outDir.getAbsolutePath());
+		OrgBatch batch = new OrgBatch(ghClient, scanOptions, ReportRenderer.defaultInstance(), getOrgThreads(cmd));
+		List<OrgBatch.OrgReport> reports = batch.run(logins, outDir);
+		LOGGER.info("Wrote reports for " + reports.size() + " of " + logins.size() + " orgs");
+	}
+
+	private static void startServer(final CommandLine cmd, final GitHubClient ghClient, final ScanOptions scanOptions)
+			throws ParseException, IOException {
+		int port = getPositiveInt(cmd, SERVE_OPT, "Port");
+		int refreshMinutes = cmd.hasOption(REFRESH_OPT) ? getNonNegativeInt(cmd, REFRESH_OPT, "Refresh minutes")
+				: DEFAULT_REFRESH_MINUTES;
+		final HealthCheckServer server = new HealthCheckServer(ghClient, getOrgName(cmd), scanOptions,
+				ReportRenderer.defaultInstance(), refreshMinutes, TimeUnit.MINUTES);
+		if (cmd.hasOption(HOOK_SECRET_OPT)) {
+			String secret = cmd.getOptionValue(HOOK_SECRET_OPT);
+			if (secret.isEmpty()) {
+				throw new ParseException("Webhook secret can't be empty.");
+			}
+			server.setHookSecret(secret);
+		}
+		server.start(port);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				server.stop();
+			}
+		}, "server-shutdown"));
+	}
+
+	private static int getPositiveInt(final CommandLine cmd, final String opt, final String name)
+			throws ParseException {
+		return getInt(cmd, opt, 1, name + " must be a positive integer.");
+	}
+
+	private static int getNonNegativeInt(final CommandLine cmd, final String opt, final String name)
+			throws ParseException {
+		return getInt(cmd, opt, 0, name + " must be 0 or a positive integer.");
+	}
+
+	private static int getInt(final CommandLine cmd, final String opt, final int min, final String message)
+			throws ParseException {
+		try {
+			int value = Integer.parseInt(cmd.getOptionValue(opt));
+			if (value >= min) {
+				return value;
+			}
+		} catch (NumberFormatException excep) {
+			LOGGER.debug(excep.getMessage());
+		}
+		throw new ParseException(message);
+	}
+
+	private static List<String> getOrgLogins(final CommandLine cmd) throws ParseException, IOException {
+		Set<String> logins = new LinkedHashSet<>();
+		Splitter splitter = Splitter.on(',').trimResults().omitEmptyStrings();
+		if (cmd.hasOption(ORGANISATIONS_OPT)) {
+			Iterables.addAll(logins, splitter.split(cmd.getOptionValue(ORGANISATIONS_OPT)));
+		}
+		if (cmd.hasOption(ORG_FILE_OPT)) {
+			for (String line : com.google.common.io.Files.readLines(new File(cmd.getOptionValue(ORG_FILE_OPT)),
+					Charsets.UTF_8)) {
+				String login = line.trim();
+				// Blank lines and comments are ignored
+				if (!login.isEmpty() && !login.startsWith("#")) {
+					logins.add(login);
+				}
+			}
+		}
+		if (logins.isEmpty()) {
+			throw new ParseException("No orgs given for the batch.");
+		}
+		return new ArrayList<>(logins);
+	}
+
+	private static ScanOptions getScanOptions(final CommandLine cmd, final ScanMetrics metrics)
+			throws ParseException {
+		int threads = getThreads(cmd);
+		// A batch runs several org scans at once
+		int concurrentThreads = isBatch(cmd) ? threads * getOrgThreads(cmd) : threads;
+		// Keep enough idle connections for every concurrent lookup, must be set before the first request
+		if (System.getProperty(MAX_CONNECTIONS_PROP) == null) {
+			System.setProperty(MAX_CONNECTIONS_PROP,
+					String.valueOf(Math.max(DEFAULT_MAX_CONNECTIONS, concurrentThreads * CONNECTIONS_PER_THREAD)));
+		}
+		if (cmd.hasOption(LAZY_OPT) && !cmd.hasOption(SERVE_OPT)) {
+			throw new ParseException("Lazy lookups are only made when serving.");
+		}
+		if (cmd.hasOption(HOOK_SECRET_OPT) && !cmd.hasOption(SERVE_OPT)) {
+			throw new ParseException("Webhooks are only taken when serving.");
+		}
+		ScanOptions.Builder builder = new ScanOptions.Builder().threads(threads)
+				.reuseTree(cmd.hasOption(REUSE_TREE_OPT)).graphQL(cmd.hasOption(GRAPHQL_OPT))
+				.lazy(cmd.hasOption(LAZY_OPT)).virtualThreads(cmd.hasOption(VIRTUAL_OPT));
+		if (cmd.hasOption(JOURNAL_OPT)) {
+			File journalDir = new File(cmd.getOptionValue(JOURNAL_OPT));
+			LOGGER.info("Journaling scans in " + journalDir.getAbsolutePath());
+			builder.journalDir(journalDir);
+		}
+		int readTimeout = cmd.hasOption(TIMEOUT_OPT) ? getPositiveInt(cmd, TIMEOUT_OPT, "Timeout") * MILLIS_PER_SECOND
+				: TravisClient.DEFAULT_READ_TIMEOUT;
+		String travisRoot = cmd.hasOption(TRAVIS_API_OPT) ? cmd.getOptionValue(TRAVIS_API_OPT)
+				: TravisClient.DEFAULT_ROOT;
+		if (!travisRoot.endsWith("/")) {
+			travisRoot += "/";
+		}
+		builder.travisClient(new TravisClient(travisRoot, TravisClient.DEFAULT_CONNECT_TIMEOUT, readTimeout,
+				metrics));
+		return builder.build();
+	}
+
+	private static void reportMetrics(final CommandLine cmd, final ScanMetrics metrics) throws IOException {
+		// Standard out may be carrying the report
+		metrics.printSummary(System.err);
+		if (!cmd.hasOption(METRICS_OPT)) {
+			return;
+		}
+		File metricsFile = new File(cmd.getOptionValue(METRICS_OPT));
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(metricsFile))) {
+			metrics.writeJson(out);
+		}
+		LOGGER.info("Wrote metrics to " + metricsFile.getAbsolutePath());
+	}
+
+	private static String getStreamFormat(final CommandLine cmd) throws ParseException {
+		if (!cmd.hasOption(STREAM_OPT)) {
+			return null;
+		}
+		String format = cmd.getOptionValue(STREAM_OPT);
+		if (STREAM_TEXT.equals(format) || STREAM_NDJSON.equals(format) || STREAM_HTML.equals(format)) {
+			return format;
+		}
+		throw new ParseException("Stream format must be one of text, ndjson or html.");
+	}
+
+	private static int getOrgThreads(final CommandLine cmd) throws ParseException {
+		return cmd.hasOption(ORG_THREADS_OPT) ? getPositiveInt(cmd, ORG_THREADS_OPT, "Org thread count")
+				: DEFAULT_ORG_THREADS;
+	}
+
+	private static int getThreads(final CommandLine cmd) throws ParseException {
+		return cmd.hasOption(THREADS_OPT) ? getPositiveInt(cmd, THREADS_OPT, "Thread count") : DEFAULT_THREADS;
+	}
+
+	private static HealthHistory openHistory(final CommandLine cmd) throws IOException {
+		File historyDir = new File(cmd.getOptionValue(HISTORY_OPT));
+		LOGGER.info("Recording health history in " + historyDir.getAbsolutePath());
+		return HealthHistory.open(historyDir);
+	}
+
+	private static void streamProjects(final CommandLine cmd, final GitHubClient ghClient, final User user,
+			final ScanOptions scanOptions, final File stateFile, final String format, final Writer outWriter)
+			throws IOException {
+		if (!cmd.hasOption(HISTORY_OPT)) {
+			streamProjects(ghClient, user, scanOptions, stateFile, createStreamSink(format, user, outWriter));
+			return;
+		}
+		try (HealthHistory history = openHistory(cmd)) {
+			// Only the run's records are held and they're stored once the scan completes
+			HealthHistory.RunWriter run = history.newRun(System.currentTimeMillis());
+			streamProjects(ghClient, user, scanOptions, stateFile,
+					ProjectSinks.tee(createStreamSink(format, user, outWriter), run));
+			run.commit();
+		}
+	}
+
+	private static void streamProjects(final GitHubClient ghClient, final User user, final ScanOptions scanOptions,
+			final File stateFile, final ProjectSink outSink) throws IOException {
+		final List<GitHubProject> previous = GitHubProjects.readPreviousProjects(stateFile);
+		if (stateFile == null) {
+			try (ProjectSink sink = outSink) {
+				GitHubProjects.scanProjects(ghClient, user.getLogin(), scanOptions, previous, sink);
+			}
+			return;
+		}
+		// The state is streamed too and only replaces the old file once the scan completes
+		GitHubProjects.replaceFile(stateFile, new GitHubProjects.FileContents() {
+			@Override
+			public void write(final OutputStream stateStream) throws IOException {
+				try (ProjectSink sink = ProjectSinks.tee(outSink, ProjectSnapshots.isSnapshotFile(stateFile)
+						? ProjectSnapshots.sink(stateStream) : ProjectSinks.jsonArray(stateStream))) {
+					GitHubProjects.scanProjects(ghClient, user.getLogin(), scanOptions, previous, sink);
+				}
+			}
+		});
+	}
+
+	private static ProjectSink createStreamSink(final String format, final User user, final Writer outWriter)
+			throws IOException {
+		if (STREAM_NDJSON.equals(format)) {
+			return ProjectSinks.ndjson(outWriter);
+		} else if (STREAM_HTML.equals(format)) {
+			return ProjectSinks.htmlFragment(outWriter);
+		}
+		return ProjectSinks.plainText(user, outWriter);
+	}
+
+	private static Writer getOutputWriter(final CommandLine cmd) throws IOException {
+		// Get a file writer if requested
+		if (cmd.hasOption(FILE_OPT)) {
+			return getFileOutputWriter(cmd.getOptionValue(FILE_OPT));
+		}
+		return new OutputStreamWriter(System.out);
+	}
+
 	private static Writer getFileOutputWriter(String filePath) throws IOException {
 		File outFile = new File(filePath);
 		if (!outFile.exists()) {
@@ -202,28 +631,9 @@ public final class HealthCheckCLI {
 		return new FileWriter(outFile, false);
 	}
 	
-	private static void outputHtml(final User user, final List<GitHubProject> projects, final Writer outWriter) {
-		Configuration cfg = new Configuration();
-		cfg.setOutputEncoding("utf-8");
-		cfg.setClassForTemplateLoading(HealthCheckCLI.class, getTemplateDir());
+	static void outputHtml(final User user, final List<GitHubProject> projects, final Writer outWriter) {
 		try {
-			Template indexTemplate = cfg.getTemplate("index.html");
-			Map<String, Object> templateData = new HashMap<>();
-			templateData.put("user", user);
-			ObjectMapper mapper = new ObjectMapper(new JsonFactory());
-			templateData.put("userJson", mapper.writeValueAsString(user));
-			List<String> projectsJson = new ArrayList<>();
-			Set<String> vendors = new TreeSet<>();
-			for (GitHubProject project : projects) {
-				projectsJson.add(mapper.writeValueAsString(project));
-				if (project.metadata != ProjectMetadata.defaultInstance()) {
-					vendors.add(project.metadata.vendor);
-				}
-			}
-			Joiner joiner = Joiner.on(",");
-			templateData.put("projectsJson", joiner.join(projectsJson));
-			templateData.put("vendors", vendors);
-			indexTemplate.process(templateData, outWriter);
+			ReportRenderer.defaultInstance().renderHtml(user, projects, outWriter);
 		} catch (TemplateException | IOException e) {
 			// TODO Auto-generated catch block
 			LOGGER.warn(e.getMessage());
@@ -231,21 +641,14 @@ public final class HealthCheckCLI {
 		}
 	}
 	
-	private static void outputPlainText(final User user, final List<GitHubProject> projects, final Writer outWriter) throws IOException {
-		outWriter.write(user.getName() + " Repositories");
-
-		int repoCount = 0;
-		for (GitHubProject project : projects) {
-			outWriter.write(++repoCount + ": " + project.name
-					+ ", updated: " + project.updated);
-			outWriter.write(project.description);
+	static void outputPlainText(final User user, final List<GitHubProject> projects, final Writer outWriter) throws IOException {
+		try (ProjectSink sink = ProjectSinks.plainText(user, outWriter)) {
+			for (GitHubProject project : projects) {
+				sink.accept(project);
+			}
 		}
 	}
 
-	private static String getTemplateDir() {
-		return "/" + HealthCheckCLI.class.getPackage().getName().replace(".", "/") + "/templates";
-	}
-
 	private static void logFatalExceptionAndExit(final Exception excep) {
 		LOGGER.fatal("Exception Stack Trace:");
 		LOGGER.fatal(excep);
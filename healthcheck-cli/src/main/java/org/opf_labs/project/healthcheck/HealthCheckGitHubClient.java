@@ -0,0 +1,469 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.eclipse.egit.github.core.client.GitHubClient;
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+/**
+ * EGit GitHub client extended for the healthcheck. If a response cache is set
+ * GET requests are made conditional on the ETag or Last-Modified values of the
+ * cached response. GitHub answers unchanged resources with a bodiless 304 that
+ * doesn't count against the rate limit, the cached body is then used.</p>
+ *
+ * All EGit services fetch through {@link #get(GitHubRequest)} so the cache
+ * covers repository listings, trees and contents alike.</p>
+ *
+ * Every request is also gated by a {@link RateLimitScheduler} fed from the
+ * rate limit headers of each response. A request refused by a secondary rate
+ * limit, or because the quota ran out, is retried after the wait GitHub asks
+ * for rather than failing the scan.</p>
+ *
+ * A request that fails with an I/O error or a 5xx is retried under the
+ * client's {@link RetryPolicy}, with a jittered back off. The host is guarded
+ * by a {@link CircuitBreaker}, once it's failed repeatedly requests fail
+ * straight away for a while rather than each waiting out its retries.</p>
+ *
+ * GraphQL queries are POSTed by {@link #postGraphQL(byte[])}, gated and
+ * retried the same way but never cached.</p>
+ *
+ * If {@link ScanMetrics} are set every request's latency, response size and
+ * cache outcome is recorded against the type of call, along with the rate
+ * limit remaining.</p>
+ */
+public class HealthCheckGitHubClient extends GitHubClient {
+	private static final String HEADER_ETAG = "ETag";
+	private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	private static final String HEADER_LINK = "Link";
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+	// Retries for requests refused by a rate limit
+	private static final int MAX_RATE_LIMIT_RETRIES = 3;
+	// Back off used for a secondary limit without a Retry-After header
+	private static final long DEFAULT_BACK_OFF_MILLIS = 60000L;
+	// Hosts that mean the public API
+	private static final String GITHUB_HOST = "github.com";
+	private static final String GITHUB_API_HOST = "api.github.com";
+	// GraphQL endpoints of the public API and of GitHub Enterprise
+	private static final String GRAPHQL_PATH = "/graphql";
+	private static final String ENTERPRISE_GRAPHQL_PATH = "/api/graphql";
+	private static final String JSON_TYPE = "application/json";
+
+	private static final Logger LOGGER = Logger
+			.getLogger(HealthCheckGitHubClient.class);
+
+	private final RateLimitScheduler scheduler = new RateLimitScheduler();
+	// Initialised after the super constructor has set the host
+	private final CircuitBreaker breaker = new CircuitBreaker(this.baseUri);
+	private RetryPolicy retryPolicy = RetryPolicy.defaultInstance();
+	private ResponseCache responseCache = null;
+	private ScanMetrics metrics = null;
+
+	/**
+	 * Create a client for the public GitHub API.
+	 */
+	public HealthCheckGitHubClient() {
+		super();
+	}
+
+	/**
+	 * Create a client for a GitHub Enterprise style API host, requests are
+	 * made under the /api/v3 path of the host.
+	 *
+	 * @param hostname
+	 *            the API host name
+	 * @param port
+	 *            the API port, -1 for the scheme default
+	 * @param scheme
+	 *            the URL scheme, http or https
+	 */
+	public HealthCheckGitHubClient(final String hostname, final int port,
+			final String scheme) {
+		super(hostname, port, scheme);
+	}
+
+	/**
+	 * Create a client for the API at a URL. The github.com hosts give a
+	 * client for the public API, any other host is treated as GitHub
+	 * Enterprise, or a stub of it, and requests are made under its /api/v3
+	 * path. Only the scheme, host and port of the URL are used.
+	 *
+	 * @param apiUrl
+	 *            the URL of the API host, e.g. https://github.example.org
+	 * @return a client for the API
+	 * @throws IllegalArgumentException
+	 *             if the URL is malformed
+	 */
+	public static HealthCheckGitHubClient fromUrl(final String apiUrl) {
+		Preconditions.checkNotNull(apiUrl, "apiUrl == null");
+		URL url;
+		try {
+			url = new URL(apiUrl);
+		} catch (MalformedURLException excep) {
+			throw new IllegalArgumentException("Malformed GitHub API URL "
+					+ apiUrl, excep);
+		}
+		String host = url.getHost();
+		if (GITHUB_HOST.equalsIgnoreCase(host)
+				|| GITHUB_API_HOST.equalsIgnoreCase(host)) {
+			return new HealthCheckGitHubClient();
+		}
+		return new HealthCheckGitHubClient(host, url.getPort(),
+				url.getProtocol());
+	}
+
+	/**
+	 * @return the rate limit scheduler that gates this client's requests
+	 */
+	public RateLimitScheduler getScheduler() {
+		return this.scheduler;
+	}
+
+	/**
+	 * @return the circuit breaker guarding this client's API host
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return this.breaker;
+	}
+
+	/**
+	 * @param retryPolicy
+	 *            the policy for retrying failed requests
+	 * @return this client
+	 */
+	public HealthCheckGitHubClient setRetryPolicy(final RetryPolicy retryPolicy) {
+		Preconditions.checkNotNull(retryPolicy, "retryPolicy == null");
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
+	/**
+	 * @param responseCache
+	 *            the cache used for conditional requests, null to disable
+	 *            response caching
+	 * @return this client
+	 */
+	public HealthCheckGitHubClient setResponseCache(
+			final ResponseCache responseCache) {
+		this.responseCache = responseCache;
+		return this;
+	}
+
+	/**
+	 * @param metrics
+	 *            the metrics every request is recorded in, null to disable
+	 *            recording
+	 * @return this client
+	 */
+	public HealthCheckGitHubClient setMetrics(final ScanMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	@Override
+	protected HttpURLConnection createConnection(final String uri,
+			final String method) throws IOException {
+		this.scheduler.beforeRequest();
+		return super.createConnection(uri, method);
+	}
+
+	@Override
+	protected GitHubClient updateRateLimits(final HttpURLConnection request) {
+		this.scheduler.update(request);
+		if (this.metrics != null) {
+			String remaining = request
+					.getHeaderField(RateLimitScheduler.HEADER_REMAINING);
+			if (remaining != null) {
+				try {
+					this.metrics.rateLimit(Integer.parseInt(remaining.trim()));
+				} catch (NumberFormatException excep) {
+					// The scheduler logs malformed headers
+				}
+			}
+		}
+		return super.updateRateLimits(request);
+	}
+
+	@Override
+	public GitHubResponse get(final GitHubRequest request) throws IOException {
+		String uri = request.generateUri();
+		String accept = request.getResponseContentType();
+		String key = uri + " " + Strings.nullToEmpty(accept);
+		ResponseCache.Entry cached = (this.responseCache == null) ? null
+				: this.responseCache.get(key);
+		String call = (this.metrics == null) ? null : ScanMetrics
+				.classifyGitHub(uri);
+
+		for (int attempt = 0;; attempt++) {
+			HttpURLConnection httpRequest = createGet(uri);
+			// Timed from here so waits for the rate limit aren't counted
+			long start = System.nanoTime();
+			if (accept != null) {
+				httpRequest.setRequestProperty(HEADER_ACCEPT, accept);
+			}
+			if (cached != null) {
+				if (!cached.etag.isEmpty()) {
+					httpRequest.setRequestProperty(HEADER_IF_NONE_MATCH,
+							cached.etag);
+				}
+				if (!cached.lastModified.isEmpty()) {
+					httpRequest.setRequestProperty(HEADER_IF_MODIFIED_SINCE,
+							cached.lastModified);
+				}
+			}
+			int code;
+			this.breaker.beforeCall();
+			try {
+				code = httpRequest.getResponseCode();
+			} catch (IOException excep) {
+				this.breaker.failure();
+				recordCall(call, start, 0L, true);
+				if (this.retryPolicy.canRetry(attempt)) {
+					LOGGER.info("Retrying " + uri + " after " + excep.getMessage());
+					this.retryPolicy.backOff(attempt);
+					continue;
+				}
+				throw excep;
+			}
+			reportToBreaker(code);
+			updateRateLimits(httpRequest);
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				LOGGER.debug("Not modified, using cached response for " + uri);
+				if (call != null) {
+					this.metrics.cacheHit(call);
+				}
+				recordCall(call, start, 0L, false);
+				return new CachedResponse(httpRequest, getBody(request,
+						new ByteArrayInputStream(cached.body)), cached.link);
+			}
+			if (isOk(code)) {
+				if (call != null && cached != null) {
+					this.metrics.cacheMiss(call);
+				}
+				return okResponse(request, key, httpRequest, call, start);
+			}
+			if (isEmpty(code)) {
+				recordCall(call, start, 0L, false);
+				return new GitHubResponse(httpRequest, null);
+			}
+			// A 404 for a file that isn't there is an answer, not a failure
+			recordCall(call, start, 0L, code != HttpURLConnection.HTTP_NOT_FOUND);
+			if (attempt < MAX_RATE_LIMIT_RETRIES
+					&& isRateLimited(code, httpRequest)) {
+				LOGGER.info("Rate limited, retrying " + uri);
+				drain(httpRequest);
+				continue;
+			}
+			String retryAfter = httpRequest
+					.getHeaderField(RetryPolicy.HEADER_RETRY_AFTER);
+			if (RetryPolicy.isRetryable(code)
+					&& this.retryPolicy.canRetry(attempt, retryAfter)) {
+				LOGGER.info("Retrying " + uri + " after a " + code);
+				drain(httpRequest);
+				this.retryPolicy.backOff(attempt, retryAfter);
+				continue;
+			}
+			throw createException(getStream(httpRequest), code,
+					httpRequest.getResponseMessage());
+		}
+	}
+
+	/**
+	 * POSTs a GraphQL request to the API host's GraphQL endpoint, the public
+	 * API's or GitHub Enterprise's under /api/graphql.
+	 *
+	 * @param request
+	 *            the JSON request body, the query and its variables
+	 * @return the JSON response body, which may report errors alongside or
+	 *         instead of data
+	 * @throws IOException
+	 *             if the request fails or is refused
+	 */
+	public byte[] postGraphQL(final byte[] request) throws IOException {
+		Preconditions.checkNotNull(request, "request == null");
+		URL url = new URL(this.baseUri
+				+ ((this.prefix == null) ? GRAPHQL_PATH : ENTERPRISE_GRAPHQL_PATH));
+		String call = (this.metrics == null) ? null : ScanMetrics.GITHUB_GRAPHQL;
+		for (int attempt = 0;; attempt++) {
+			this.scheduler.beforeRequest();
+			HttpURLConnection httpRequest = configureRequest((HttpURLConnection) url
+					.openConnection());
+			long start = System.nanoTime();
+			httpRequest.setRequestMethod(METHOD_POST);
+			httpRequest.setDoOutput(true);
+			httpRequest.setRequestProperty(HEADER_CONTENT_TYPE, JSON_TYPE);
+			httpRequest.setFixedLengthStreamingMode(request.length);
+			int code;
+			this.breaker.beforeCall();
+			try {
+				try (OutputStream out = httpRequest.getOutputStream()) {
+					out.write(request);
+				}
+				code = httpRequest.getResponseCode();
+			} catch (IOException excep) {
+				this.breaker.failure();
+				recordCall(call, start, 0L, true);
+				if (this.retryPolicy.canRetry(attempt)) {
+					LOGGER.info("Retrying GraphQL query after "
+							+ excep.getMessage());
+					this.retryPolicy.backOff(attempt);
+					continue;
+				}
+				throw excep;
+			}
+			reportToBreaker(code);
+			updateRateLimits(httpRequest);
+			if (isOk(code)) {
+				byte[] body;
+				try (InputStream stream = getStream(httpRequest)) {
+					body = ByteStreams.toByteArray(stream);
+				}
+				recordCall(call, start, body.length, false);
+				return body;
+			}
+			recordCall(call, start, 0L, true);
+			if (attempt < MAX_RATE_LIMIT_RETRIES
+					&& isRateLimited(code, httpRequest)) {
+				LOGGER.info("Rate limited, retrying GraphQL query");
+				drain(httpRequest);
+				continue;
+			}
+			String retryAfter = httpRequest
+					.getHeaderField(RetryPolicy.HEADER_RETRY_AFTER);
+			if (RetryPolicy.isRetryable(code)
+					&& this.retryPolicy.canRetry(attempt, retryAfter)) {
+				LOGGER.info("Retrying GraphQL query after a " + code);
+				drain(httpRequest);
+				this.retryPolicy.backOff(attempt, retryAfter);
+				continue;
+			}
+			throw createException(getStream(httpRequest), code,
+					httpRequest.getResponseMessage());
+		}
+	}
+
+	private GitHubResponse okResponse(final GitHubRequest request,
+			final String key, final HttpURLConnection httpRequest,
+			final String call, final long start) throws IOException {
+		if (this.responseCache == null && call == null) {
+			return new GitHubResponse(httpRequest, getBody(request,
+					getStream(httpRequest)));
+		}
+		byte[] body;
+		try (InputStream stream = getStream(httpRequest)) {
+			body = ByteStreams.toByteArray(stream);
+		}
+		recordCall(call, start, body.length, false);
+		if (this.responseCache == null) {
+			return new GitHubResponse(httpRequest, getBody(request,
+					new ByteArrayInputStream(body)));
+		}
+		String etag = httpRequest.getHeaderField(HEADER_ETAG);
+		String lastModified = httpRequest.getHeaderField(HEADER_LAST_MODIFIED);
+		if (etag != null || lastModified != null) {
+			this.responseCache.put(key, new ResponseCache.Entry(etag,
+					lastModified, httpRequest.getHeaderField(HEADER_LINK), body));
+		}
+		return new GitHubResponse(httpRequest, getBody(request,
+				new ByteArrayInputStream(body)));
+	}
+
+	// Any answer short of a server error means the host is up
+	private void reportToBreaker(final int code) {
+		if (code >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+			this.breaker.failure();
+		} else {
+			this.breaker.success();
+		}
+	}
+
+	private void recordCall(final String call, final long start,
+			final long bytes, final boolean failed) {
+		if (call != null) {
+			this.metrics.record(call, System.nanoTime() - start, bytes, failed);
+		}
+	}
+
+	/**
+	 * Checks a refused request for the primary or secondary rate limit and
+	 * tells the scheduler how long to hold requests for.
+	 */
+	private boolean isRateLimited(final int code,
+			final HttpURLConnection httpRequest) {
+		if (code != HttpURLConnection.HTTP_FORBIDDEN
+				&& code != RetryPolicy.HTTP_TOO_MANY_REQUESTS) {
+			return false;
+		}
+		String retryAfter = httpRequest
+				.getHeaderField(RetryPolicy.HEADER_RETRY_AFTER);
+		if (retryAfter != null) {
+			try {
+				this.scheduler.backOff(TimeUnit.SECONDS.toMillis(Long
+						.parseLong(retryAfter.trim())));
+			} catch (NumberFormatException excep) {
+				this.scheduler.backOff(DEFAULT_BACK_OFF_MILLIS);
+			}
+			return true;
+		}
+		if ("0".equals(httpRequest
+				.getHeaderField(RateLimitScheduler.HEADER_REMAINING))) {
+			this.scheduler.exhausted();
+			return true;
+		}
+		if (code == RetryPolicy.HTTP_TOO_MANY_REQUESTS) {
+			this.scheduler.backOff(DEFAULT_BACK_OFF_MILLIS);
+			return true;
+		}
+		return false;
+	}
+
+	private void drain(final HttpURLConnection httpRequest) {
+		try (InputStream stream = getStream(httpRequest)) {
+			if (stream != null) {
+				ByteStreams.toByteArray(stream);
+			}
+		} catch (IOException excep) {
+			LOGGER.debug("Couldn't drain refused response: " + excep.getMessage());
+		}
+	}
+
+	/**
+	 * Response rebuilt from the cache, falls back to the cached Link header so
+	 * page iteration still works when a 304 doesn't repeat it.
+	 */
+	private static final class CachedResponse extends GitHubResponse {
+		private final String link;
+
+		CachedResponse(final HttpURLConnection response, final Object body,
+				final String link) {
+			super(response, body);
+			this.link = link;
+		}
+
+		@Override
+		public String getHeader(final String name) {
+			String value = super.getHeader(name);
+			if (value == null && HEADER_LINK.equalsIgnoreCase(name)
+					&& !this.link.isEmpty()) {
+				return this.link;
+			}
+			return value;
+		}
+	}
+}
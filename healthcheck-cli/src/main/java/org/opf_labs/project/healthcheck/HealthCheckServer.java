@@ -0,0 +1,1038 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.egit.github.core.User;
+import org.eclipse.egit.github.core.client.GitHubClient;
+import org.opf_labs.project.healthcheck.WebHooks.RepoRef;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import freemarker.template.TemplateException;
+
+/**
+ * Serves the healthcheck report for an organisation over HTTP. The project
+ * list is held in memory and rescanned in the background on a fixed delay,
+ * each rescan is incremental against the last. Every response is built once
+ * per scan, or once per process for the web assets, and held in memory
+ * along with a gzipped copy and an ETag, so requests never reach GitHub and
+ * cost no more than copying bytes to the socket.</p>
+ *
+ * Paths served:
+ * <ul>
+ * <li><code>/</code> and <code>/index.html</code>, the HTML report,</li>
+ * <li><code>/api/projects</code>, the projects as a JSON array,</li>
+ * <li><code>/api/projects/{owner}/{name}</code>, a single project as JSON,
+ * answered 202 with the project still pending while it's being looked
+ * up,</li>
+ * <li><code>/js/</code>, <code>/css/</code> and <code>/favicon.png</code>,
+ * the report's web assets.</li>
+ * </ul>
+ * Until the first scan completes the report and API answer 503.</p>
+ *
+ * GitHub webhooks, push, repository or any other repository event, can be
+ * posted to <code>/hooks/github</code> and Travis CI build notifications to
+ * <code>/hooks/travis</code>. Each rescans only the repository named in the
+ * payload, in the background, and swaps the rebuilt project into the served
+ * responses, so a change shows up in seconds rather than at the next full
+ * scan. Notifications for a repository already waiting to be rescanned are
+ * coalesced, and a repository's rescanned at most once per hook interval,
+ * see {@link #setHookInterval(long, TimeUnit)}, a notification that comes
+ * sooner is held until the interval's up. Payloads over
+ * {@value #MAX_HOOK_BYTES} bytes are refused with a 413. If the server's
+ * given a secret, see {@link #setHookSecret(String)}, GitHub hooks must be
+ * signed with it and unsigned ones are refused with a 403. Travis signs its
+ * notifications with its own key rather than a shared secret, they're taken
+ * as they come but only for repositories the report already holds, so at
+ * worst one rescans a served repository once per interval.</p>
+ *
+ * The full scan still runs on the refresh schedule alongside the hooks, a
+ * hook GitHub failed to deliver, a repository made public or a change no
+ * hook reports, a Travis build without notifications say, would otherwise
+ * go unseen. A refresh period of 0 scans once at start and leaves the hooks
+ * to keep the report current.</p>
+ *
+ * With lazy scan options, see {@link ScanOptions.Builder#lazy(boolean)}, a
+ * scan only lists the repositories and the report's served as soon as the
+ * listing's in, the metadata, indicators and CI info of new and changed
+ * projects are left pending. A project's looked up when the report page asks
+ * for it, as its row's scrolled into view, or when a background filler
+ * working through the pending projects reaches it, whichever's first.
+ * Lookups run on a small pool of their own and a request for a pending
+ * project starts its lookup and is answered straight away, the page asks
+ * again until it's resolved, so a lookup held up by the rate limit never
+ * holds an HTTP thread. Resolved projects are swapped into the served
+ * responses in batches, the report's rendered once per batch rather than
+ * once per project, so each project's looked up once per change to the
+ * repository.</p>
+ */
+public final class HealthCheckServer {
+	/** Path of the projects JSON API */
+	public static final String API_PROJECTS = "/api/projects";
+	/** Path GitHub webhooks are posted to */
+	public static final String HOOK_GITHUB = "/hooks/github";
+	/** Path Travis CI build notifications are posted to */
+	public static final String HOOK_TRAVIS = "/hooks/travis";
+	/** Largest webhook payload taken, GitHub's push payloads are well under */
+	public static final int MAX_HOOK_BYTES = 1024 * 1024;
+
+	private static final String WEB_ROOT = "/"
+			+ HealthCheckServer.class.getPackage().getName().replace(".", "/")
+			+ "/web";
+	private static final String TYPE_HTML = "text/html; charset=utf-8";
+	private static final String TYPE_JSON = "application/json; charset=utf-8";
+	private static final int HTTP_THREADS = 4;
+	// Pending project lookups run at once, matches the page's maxLookups
+	private static final int LOOKUP_THREADS = 4;
+	// Enough for a webhook rescan and every lookup to run their three stages at once
+	private static final int STAGE_THREADS = 3 * (LOOKUP_THREADS + 1);
+	// Shortest time between webhook rescans of a repository
+	private static final long HOOK_INTERVAL_SECONDS = 10L;
+	// Resolved projects arriving this close together are swapped in together
+	private static final long SWAP_DELAY_MILLIS = 250L;
+	// Responses smaller than this aren't worth compressing
+	private static final int MIN_GZIP_BYTES = 256;
+	// Seconds a client should wait for the first scan
+	private static final String RETRY_AFTER_SECONDS = "30";
+	// Seconds a client should wait before asking again for a pending project
+	private static final String LOOKUP_RETRY_AFTER_SECONDS = "2";
+
+	private static final Logger LOGGER = Logger
+			.getLogger(HealthCheckServer.class);
+
+	private final GitHubClient ghClient;
+	private final String login;
+	private final ScanOptions options;
+	private final ReportRenderer renderer;
+	private final long refreshPeriod;
+	private final TimeUnit refreshUnit;
+	private final ConcurrentMap<String, CachedResponse> assets = new ConcurrentHashMap<>();
+	// Serialises scans without blocking start, stop and getPort
+	private final Object refreshLock = new Object();
+	private volatile Snapshot snapshot = null;
+	private HttpServer server = null;
+	private ExecutorService httpExecutor = null;
+	// Runs the scans and the swaps of resolved projects, null when stopped
+	private volatile ScheduledExecutorService refresher = null;
+	private ScheduledExecutorService hookExecutor = null;
+	private ExecutorService filler = null;
+	// Runs the lookups of pending projects, null when stopped
+	private volatile ExecutorService lookupExecutor = null;
+	// Runs the stages of single project rescans and lookups, null when stopped
+	private volatile ListeningExecutorService stageExecutor = null;
+	private volatile String hookSecret = null;
+	private volatile long hookIntervalNanos = TimeUnit.SECONDS
+			.toNanos(HOOK_INTERVAL_SECONDS);
+	// Set while a pass of the filler is waiting to start
+	private final AtomicBoolean fillQueued = new AtomicBoolean(false);
+	// Lookups of pending projects in progress or waiting to be swapped in,
+	// shared by concurrent requests
+	private final ConcurrentMap<String, Future<GitHubProject>> resolving = new ConcurrentHashMap<>();
+	// Resolved projects waiting to be swapped in, keyed by owner/name
+	private final ConcurrentMap<String, GitHubProject> resolvedProjects = new ConcurrentHashMap<>();
+	// Set while a swap of resolved projects is waiting to run
+	private final AtomicBoolean swapQueued = new AtomicBoolean(false);
+	// Repositories queued for a rescan, so a burst of pushes costs one rescan
+	private final Set<String> queuedRepos = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// When each repository rescanned within the hook interval was, in nanos
+	private final ConcurrentMap<String, Long> hookRescans = new ConcurrentHashMap<>();
+
+	/**
+	 * @param ghClient
+	 *            the GitHub client used for the scans
+	 * @param login
+	 *            the GitHub login of the organisation served
+	 * @param options
+	 *            the options for each scan
+	 * @param renderer
+	 *            the renderer for the HTML report
+	 * @param refreshPeriod
+	 *            the delay between the end of one scan and the start of the
+	 *            next, 0 for only the scan at start
+	 * @param refreshUnit
+	 *            the unit of the refresh period
+	 */
+	public HealthCheckServer(final GitHubClient ghClient, final String login,
+			final ScanOptions options, final ReportRenderer renderer,
+			final long refreshPeriod, final TimeUnit refreshUnit) {
+		Preconditions.checkNotNull(ghClient, "ghClient == null");
+		Preconditions.checkNotNull(login, "login == null");
+		Preconditions.checkNotNull(options, "options == null");
+		Preconditions.checkNotNull(renderer, "renderer == null");
+		Preconditions.checkArgument(refreshPeriod >= 0, "refreshPeriod < 0");
+		Preconditions.checkNotNull(refreshUnit, "refreshUnit == null");
+		this.ghClient = ghClient;
+		this.login = login;
+		this.options = options;
+		this.renderer = renderer;
+		this.refreshPeriod = refreshPeriod;
+		this.refreshUnit = refreshUnit;
+	}
+
+	/**
+	 * Sets the secret GitHub webhooks are signed with, hooks posted after the
+	 * call without a valid X-Hub-Signature-256 are refused.
+	 *
+	 * @param secret
+	 *            the webhook secret, null to accept unsigned hooks
+	 * @return the server instance for chaining
+	 */
+	public HealthCheckServer setHookSecret(final String secret) {
+		Preconditions.checkArgument(secret == null || !secret.isEmpty(),
+				"secret.isEmpty() == true");
+		this.hookSecret = secret;
+		return this;
+	}
+
+	/**
+	 * Sets the shortest time between webhook rescans of a repository, a
+	 * notification that comes sooner after the last rescan is held until the
+	 * interval's up and coalesced with any others in the meantime.
+	 *
+	 * @param interval
+	 *            the shortest interval, 0 to rescan on every notification
+	 * @param unit
+	 *            the unit of the interval
+	 * @return the server instance for chaining
+	 */
+	public HealthCheckServer setHookInterval(final long interval,
+			final TimeUnit unit) {
+		Preconditions.checkArgument(interval >= 0, "interval < 0");
+		Preconditions.checkNotNull(unit, "unit == null");
+		this.hookIntervalNanos = unit.toNanos(interval);
+		return this;
+	}
+
+	/**
+	 * Starts serving and schedules the first scan straight away, or after
+	 * the refresh period if {@link #refresh()} has already been called.
+	 *
+	 * @param port
+	 *            the port to listen on, 0 for an ephemeral port
+	 * @throws IOException
+	 *             if the server can't be bound
+	 */
+	public synchronized void start(final int port) throws IOException {
+		Preconditions.checkState(this.server == null, "Server already started.");
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.server.createContext("/", new Handler());
+		this.server.createContext("/hooks/", new HookHandler());
+		this.hookExecutor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+						.setNameFormat("hook-%d").setDaemon(true).build());
+		this.filler = Executors
+				.newSingleThreadExecutor(new ThreadFactoryBuilder()
+						.setNameFormat("resolve-%d").setDaemon(true).build());
+		this.lookupExecutor = Executors.newFixedThreadPool(LOOKUP_THREADS,
+				new ThreadFactoryBuilder().setNameFormat("lookup-%d")
+						.setDaemon(true).build());
+		this.stageExecutor = MoreExecutors.listeningDecorator(Executors
+				.newFixedThreadPool(STAGE_THREADS, new ThreadFactoryBuilder()
+						.setNameFormat("project-stage-%d").setDaemon(true)
+						.build()));
+		this.httpExecutor = Executors.newFixedThreadPool(HTTP_THREADS,
+				new ThreadFactoryBuilder().setNameFormat("http-%d").build());
+		this.server.setExecutor(this.httpExecutor);
+		this.server.start();
+		this.refresher = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+						.setNameFormat("refresh-%d").setDaemon(true).build());
+		Runnable scan = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch (IOException | RuntimeException excep) {
+					// Keep serving the last scan, try again next time
+					LOGGER.warn("Refresh of " + HealthCheckServer.this.login
+							+ " failed: " + excep.getMessage());
+				}
+			}
+		};
+		if (this.refreshPeriod > 0) {
+			this.refresher.scheduleWithFixedDelay(scan,
+					(this.snapshot == null) ? 0L : this.refreshPeriod,
+					this.refreshPeriod, this.refreshUnit);
+		} else if (this.snapshot == null) {
+			this.refresher.execute(scan);
+		}
+		queueFill();
+		LOGGER.info("Serving " + this.login + " on port " + getPort());
+	}
+
+	/**
+	 * Stops serving and cancels the background scans.
+	 */
+	public synchronized void stop() {
+		if (this.server == null) {
+			return;
+		}
+		this.refresher.shutdownNow();
+		this.refresher = null;
+		this.hookExecutor.shutdownNow();
+		this.filler.shutdownNow();
+		this.lookupExecutor.shutdownNow();
+		this.lookupExecutor = null;
+		this.stageExecutor.shutdownNow();
+		this.stageExecutor = null;
+		this.server.stop(0);
+		this.httpExecutor.shutdownNow();
+		this.server = null;
+	}
+
+	/**
+	 * @return the port the server's listening on
+	 */
+	public synchronized int getPort() {
+		Preconditions.checkState(this.server != null, "Server not started.");
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * @return the projects from the last completed scan, empty before the
+	 *         first completes
+	 */
+	public List<GitHubProject> getProjects() {
+		Snapshot current = this.snapshot;
+		return (current == null) ? Collections.<GitHubProject> emptyList()
+				: current.projects;
+	}
+
+	/**
+	 * Rescans the organisation and replaces the served responses once the
+	 * scan's complete. Called on the refresh schedule, calls don't overlap.
+	 *
+	 * @throws IOException
+	 *             if the scan or rendering fails, the previous responses
+	 *             are still served
+	 */
+	public void refresh() throws IOException {
+		synchronized (this.refreshLock) {
+			long start = System.currentTimeMillis();
+			User user = GitHubProjects.getUser(this.ghClient, this.login);
+			List<GitHubProject> projects = Collections
+					.unmodifiableList(GitHubProjects.createProjectList(
+							this.ghClient, user.getLogin(), this.options,
+							getProjects()));
+			this.snapshot = new Snapshot(user, projects, renderIndex(user,
+					projects), renderProjects(projects));
+			LOGGER.info("Refreshed " + projects.size() + " projects for "
+					+ this.login + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		}
+		queueFill();
+	}
+
+	/**
+	 * Rescans a single repository and swaps the rebuilt project into the
+	 * served responses, a repository that's gone or become private is
+	 * dropped. Does nothing before the first scan completes, that scan will
+	 * pick up the change.
+	 *
+	 * @param owner
+	 *            the GitHub login of the repository owner
+	 * @param name
+	 *            the name of the repository
+	 * @throws IOException
+	 *             if the rescan or rendering fails, the previous responses
+	 *             are still served
+	 */
+	public void updateProject(final String owner, final String name)
+			throws IOException {
+		// Fetched outside the lock so a long full scan doesn't hold it up
+		GitHubProject project = GitHubProjects.rescanProject(this.ghClient,
+				owner, name, this.options, stages());
+		replaceProject(owner, name, project);
+		LOGGER.info("Updated " + owner + "/" + name + " from webhook");
+	}
+
+	/**
+	 * Looks up the metadata, indicators and CI info of a project a lazy scan
+	 * left pending and queues the resolved project to be swapped into the
+	 * served responses. Concurrent calls for the same project share a single
+	 * lookup.
+	 *
+	 * @param owner
+	 *            the GitHub login of the repository owner
+	 * @param name
+	 *            the name of the repository
+	 * @return the resolved project, the project as served if it isn't
+	 *         pending, or null if no such project's served
+	 * @throws IOException
+	 *             if the lookup fails, the project's left pending
+	 */
+	public GitHubProject resolveProject(final String owner, final String name)
+			throws IOException {
+		GitHubProject listed = findProject(owner, name);
+		if (listed == null || !listed.pending) {
+			return listed;
+		}
+		return join(lookup(listed));
+	}
+
+	/**
+	 * Starts the lookup of a pending project on the lookup pool, or on the
+	 * calling thread if the server isn't running, unless one's already
+	 * started.
+	 */
+	private Future<GitHubProject> lookup(final GitHubProject listed)
+			throws IOException {
+		final String key = listed.ownerLogin + "/" + listed.name;
+		FutureTask<GitHubProject> lookup = new FutureTask<>(
+				new Callable<GitHubProject>() {
+					@SuppressWarnings("synthetic-access")
+					@Override
+					public GitHubProject call() throws IOException {
+						GitHubProject resolved;
+						try {
+							resolved = GitHubProjects.resolveProject(
+									HealthCheckServer.this.ghClient, listed,
+									HealthCheckServer.this.options, stages());
+						} catch (IOException | RuntimeException excep) {
+							HealthCheckServer.this.resolving.remove(key);
+							throw excep;
+						}
+						// Stays in resolving until it's swapped in
+						HealthCheckServer.this.resolvedProjects.put(key, resolved);
+						queueSwap();
+						return resolved;
+					}
+				});
+		Future<GitHubProject> running = this.resolving.putIfAbsent(key, lookup);
+		if (running != null) {
+			return running;
+		}
+		ExecutorService executor = this.lookupExecutor;
+		if (executor == null) {
+			lookup.run();
+			return lookup;
+		}
+		try {
+			executor.execute(lookup);
+		} catch (RejectedExecutionException excep) {
+			this.resolving.remove(key);
+			throw new IOException("Server stopped, " + key + " not looked up.");
+		}
+		return lookup;
+	}
+
+	/**
+	 * Queues a swap of the resolved projects, run after a short delay so
+	 * projects resolved together are rendered together. The swap's made
+	 * straight away if the server isn't running.
+	 */
+	private void queueSwap() {
+		ScheduledExecutorService swapper = this.refresher;
+		if (swapper == null) {
+			swapResolved();
+			return;
+		}
+		if (!this.swapQueued.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			swapper.schedule(new Runnable() {
+				@SuppressWarnings("synthetic-access")
+				@Override
+				public void run() {
+					// Cleared first so a project resolved during the swap queues another
+					HealthCheckServer.this.swapQueued.set(false);
+					swapResolved();
+				}
+			}, SWAP_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException excep) {
+			this.swapQueued.set(false);
+		}
+	}
+
+	/**
+	 * Swaps the resolved projects waiting into the served responses, in one
+	 * pass and one render. A resolved project only replaces the pending
+	 * project it was resolved from, a webhook or scan may have replaced that
+	 * in the meantime.
+	 */
+	private void swapResolved() {
+		Map<String, GitHubProject> batch = new HashMap<>();
+		for (String key : this.resolvedProjects.keySet()) {
+			GitHubProject resolved = this.resolvedProjects.remove(key);
+			if (resolved != null) {
+				batch.put(key, resolved);
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			synchronized (this.refreshLock) {
+				Snapshot current = this.snapshot;
+				if (current == null) {
+					return;
+				}
+				List<GitHubProject> projects = new ArrayList<>(
+						current.projects.size());
+				int swapped = 0;
+				for (GitHubProject existing : current.projects) {
+					GitHubProject resolved = batch.get(existing.ownerLogin + "/"
+							+ existing.name);
+					if (resolved != null && existing.pending
+							&& existing.updated.equals(resolved.updated)) {
+						projects.add(resolved);
+						swapped++;
+					} else {
+						projects.add(existing);
+					}
+				}
+				if (swapped > 0) {
+					projects = Collections.unmodifiableList(projects);
+					this.snapshot = new Snapshot(current.user, projects,
+							renderIndex(current.user, projects),
+							renderProjects(projects));
+				}
+			}
+		} catch (IOException | RuntimeException excep) {
+			// Left pending, they're looked up again
+			LOGGER.warn("Couldn't swap in " + batch.size()
+					+ " resolved projects: " + excep.getMessage());
+		} finally {
+			for (String key : batch.keySet()) {
+				this.resolving.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @return the server's stage executor, or the calling thread's when the
+	 *         server isn't running
+	 */
+	private ListeningExecutorService stages() {
+		ListeningExecutorService stages = this.stageExecutor;
+		return (stages == null) ? MoreExecutors.sameThreadExecutor() : stages;
+	}
+
+	private GitHubProject findProject(final String owner, final String name) {
+		for (GitHubProject project : getProjects()) {
+			if (project.ownerLogin.equalsIgnoreCase(owner)
+					&& project.name.equals(name)) {
+				return project;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Swaps a project into the served responses, a null project is dropped
+	 * and a project that isn't served yet added.
+	 */
+	private void replaceProject(final String owner, final String name,
+			final GitHubProject project) throws IOException {
+		synchronized (this.refreshLock) {
+			Snapshot current = this.snapshot;
+			if (current == null) {
+				return;
+			}
+			List<GitHubProject> projects = new ArrayList<>(
+					current.projects.size() + 1);
+			boolean found = false;
+			for (GitHubProject existing : current.projects) {
+				if (existing.ownerLogin.equalsIgnoreCase(owner)
+						&& existing.name.equals(name)) {
+					found = true;
+					if (project != null) {
+						projects.add(project);
+					}
+				} else {
+					projects.add(existing);
+				}
+			}
+			if (!found) {
+				if (project == null) {
+					return;
+				}
+				projects.add(project);
+			}
+			projects = Collections.unmodifiableList(projects);
+			this.snapshot = new Snapshot(current.user, projects, renderIndex(
+					current.user, projects), renderProjects(projects));
+		}
+	}
+
+	private void queueFill() {
+		if (!this.options.lazy || this.filler == null
+				|| !this.fillQueued.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			this.filler.execute(new Runnable() {
+				@SuppressWarnings("synthetic-access")
+				@Override
+				public void run() {
+					// Cleared first so a refresh during the pass queues another
+					HealthCheckServer.this.fillQueued.set(false);
+					fillPending();
+				}
+			});
+		} catch (RejectedExecutionException excep) {
+			this.fillQueued.set(false);
+		}
+	}
+
+	private void fillPending() {
+		int resolved = 0;
+		for (GitHubProject project : getProjects()) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			if (!project.pending) {
+				continue;
+			}
+			try {
+				resolveProject(project.ownerLogin, project.name);
+				resolved++;
+			} catch (IOException | RuntimeException excep) {
+				LOGGER.warn("Lookup of " + project.ownerLogin + "/"
+						+ project.name + " failed: " + excep.getMessage());
+			}
+		}
+		if (resolved > 0) {
+			LOGGER.info("Resolved " + resolved + " pending projects for "
+					+ this.login);
+		}
+	}
+
+	private static GitHubProject join(final Future<GitHubProject> lookup)
+			throws IOException {
+		try {
+			return lookup.get();
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Project lookup interrupted.");
+		} catch (ExecutionException excep) {
+			Throwables.propagateIfPossible(excep.getCause(), IOException.class);
+			throw new IOException(excep.getCause());
+		}
+	}
+
+	private boolean queueUpdate(final RepoRef repo) {
+		final String key = repo.toString();
+		if (!this.queuedRepos.add(key)) {
+			return true;
+		}
+		// Held until the interval since the repository's last rescan is up
+		Long last = this.hookRescans.get(key);
+		long delay = (last == null) ? 0L : Math.max(0L, last.longValue()
+				+ this.hookIntervalNanos - System.nanoTime());
+		try {
+			this.hookExecutor.schedule(new Runnable() {
+				@SuppressWarnings("synthetic-access")
+				@Override
+				public void run() {
+					// Cleared first so a push during the rescan queues another
+					HealthCheckServer.this.queuedRepos.remove(key);
+					forgetRescan(key, recordRescan(key));
+					try {
+						updateProject(repo.owner, repo.name);
+					} catch (IOException | RuntimeException excep) {
+						LOGGER.warn("Webhook update of " + key + " failed: "
+								+ excep.getMessage());
+					}
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException excep) {
+			this.queuedRepos.remove(key);
+			return false;
+		}
+		return true;
+	}
+
+	private Long recordRescan(final String key) {
+		Long started = Long.valueOf(System.nanoTime());
+		this.hookRescans.put(key, started);
+		return started;
+	}
+
+	/**
+	 * Drops a rescan's time once the interval's up, so only repositories
+	 * rescanned recently are held.
+	 */
+	private void forgetRescan(final String key, final Long started) {
+		try {
+			this.hookExecutor.schedule(new Runnable() {
+				@SuppressWarnings("synthetic-access")
+				@Override
+				public void run() {
+					HealthCheckServer.this.hookRescans.remove(key, started);
+				}
+			}, this.hookIntervalNanos, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException excep) {
+			// Stopping, the times go with the server
+		}
+	}
+
+	private CachedResponse renderIndex(final User user,
+			final List<GitHubProject> projects) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (Writer out = new OutputStreamWriter(bytes, Charsets.UTF_8)) {
+			this.renderer.renderHtml(user, projects, out);
+		} catch (TemplateException excep) {
+			throw new IOException("Couldn't render the report.", excep);
+		}
+		return new CachedResponse(TYPE_HTML, bytes.toByteArray());
+	}
+
+	private static CachedResponse renderProjects(
+			final List<GitHubProject> projects) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GitHubProjects.writeProjectList(projects, bytes);
+		return new CachedResponse(TYPE_JSON, bytes.toByteArray());
+	}
+
+	/**
+	 * Never waits for a lookup, a pending project's lookup is started and
+	 * the project answered as it's served until the lookup's done.
+	 *
+	 * @return a served project, resolved if it's pending and its lookup's
+	 *         done, or null if there's no such project
+	 */
+	private GitHubProject getProject(final String ownerAndName)
+			throws IOException {
+		int slash = ownerAndName.indexOf('/');
+		if (slash < 1 || slash == ownerAndName.length() - 1
+				|| ownerAndName.indexOf('/', slash + 1) >= 0) {
+			return null;
+		}
+		GitHubProject listed = findProject(ownerAndName.substring(0, slash),
+				ownerAndName.substring(slash + 1));
+		if (listed == null || !listed.pending) {
+			return listed;
+		}
+		Future<GitHubProject> lookup = lookup(listed);
+		return lookup.isDone() ? join(lookup) : listed;
+	}
+
+	private static CachedResponse writeProject(final GitHubProject project)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GitHubProjects.writeProject(project, bytes);
+		return new CachedResponse(TYPE_JSON, bytes.toByteArray());
+	}
+
+	private CachedResponse getAsset(final String path) throws IOException {
+		CachedResponse asset = this.assets.get(path);
+		if (asset != null) {
+			return asset;
+		}
+		// Paths are matched against the known directories so can't escape the web root
+		try (InputStream in = HealthCheckServer.class
+				.getResourceAsStream(WEB_ROOT + path)) {
+			if (in == null) {
+				return null;
+			}
+			asset = new CachedResponse(contentType(path),
+					ByteStreams.toByteArray(in));
+		}
+		CachedResponse existing = this.assets.putIfAbsent(path, asset);
+		return (existing == null) ? asset : existing;
+	}
+
+	private static boolean isAssetPath(final String path) {
+		return (path.startsWith("/js/") || path.startsWith("/css/") || path
+				.equals("/favicon.png")) && !path.contains("..");
+	}
+
+	private static String contentType(final String path) {
+		if (path.endsWith(".js")) {
+			return "application/javascript; charset=utf-8";
+		} else if (path.endsWith(".css")) {
+			return "text/css; charset=utf-8";
+		} else if (path.endsWith(".png")) {
+			return "image/png";
+		}
+		return "application/octet-stream";
+	}
+
+	private final class Handler implements HttpHandler {
+		Handler() {
+			// Nothing to set up
+		}
+
+		@SuppressWarnings("synthetic-access")
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				String method = exchange.getRequestMethod();
+				if (!"GET".equals(method) && !"HEAD".equals(method)) {
+					exchange.getResponseHeaders().add("Allow", "GET, HEAD");
+					sendStatus(exchange, HttpURLConnection.HTTP_BAD_METHOD);
+					return;
+				}
+				String path = exchange.getRequestURI().getPath();
+				CachedResponse response;
+				int status = HttpURLConnection.HTTP_OK;
+				boolean project = path.startsWith(API_PROJECTS + "/");
+				if (path.equals("/") || path.equals("/index.html")
+						|| path.equals(API_PROJECTS) || project) {
+					Snapshot current = HealthCheckServer.this.snapshot;
+					if (current == null) {
+						exchange.getResponseHeaders().add("Retry-After",
+								RETRY_AFTER_SECONDS);
+						sendStatus(exchange, HttpURLConnection.HTTP_UNAVAILABLE);
+						return;
+					}
+					if (project) {
+						GitHubProject found;
+						try {
+							found = getProject(path.substring(API_PROJECTS
+									.length() + 1));
+						} catch (IOException excep) {
+							LOGGER.warn("Lookup of " + path + " failed: "
+									+ excep.getMessage());
+							sendStatus(exchange,
+									HttpURLConnection.HTTP_BAD_GATEWAY);
+							return;
+						}
+						response = (found == null) ? null : writeProject(found);
+						// Still being looked up, the client should ask again
+						if (found != null && found.pending) {
+							exchange.getResponseHeaders().add("Retry-After",
+									LOOKUP_RETRY_AFTER_SECONDS);
+							status = HttpURLConnection.HTTP_ACCEPTED;
+						}
+					} else {
+						response = path.equals(API_PROJECTS) ? current.projectsJson
+								: current.index;
+					}
+				} else if (isAssetPath(path)) {
+					response = getAsset(path);
+				} else {
+					response = null;
+				}
+				if (response == null) {
+					sendStatus(exchange, HttpURLConnection.HTTP_NOT_FOUND);
+					return;
+				}
+				response.send(exchange, status);
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private final class HookHandler implements HttpHandler {
+		HookHandler() {
+			// Nothing to set up
+		}
+
+		@SuppressWarnings("synthetic-access")
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().add("Allow", "POST");
+					sendStatus(exchange, HttpURLConnection.HTTP_BAD_METHOD);
+					return;
+				}
+				String path = exchange.getRequestURI().getPath();
+				Headers headers = exchange.getRequestHeaders();
+				byte[] body = readBody(exchange);
+				if (body == null) {
+					LOGGER.warn("Refused oversized webhook posted to " + path);
+					sendStatus(exchange,
+							HttpURLConnection.HTTP_ENTITY_TOO_LARGE);
+					return;
+				}
+				RepoRef repo;
+				try {
+					if (path.equals(HOOK_GITHUB)) {
+						String secret = HealthCheckServer.this.hookSecret;
+						if (secret != null
+								&& !WebHooks.isSignedBy(secret, headers
+										.getFirst(WebHooks.GITHUB_SIGNATURE_HEADER),
+										body)) {
+							LOGGER.warn("Refused unsigned webhook posted to "
+									+ path);
+							sendStatus(exchange, HttpURLConnection.HTTP_FORBIDDEN);
+							return;
+						}
+						repo = WebHooks.fromGitHub(
+								headers.getFirst(WebHooks.GITHUB_EVENT_HEADER),
+								body);
+					} else if (path.equals(HOOK_TRAVIS)) {
+						repo = WebHooks.fromTravis(
+								headers.getFirst("Content-Type"), body);
+						// Unsigned, so only taken for repositories already served
+						if (findProject(repo.owner, repo.name) == null) {
+							repo = null;
+						}
+					} else {
+						sendStatus(exchange, HttpURLConnection.HTTP_NOT_FOUND);
+						return;
+					}
+				} catch (IOException excep) {
+					LOGGER.warn("Unreadable webhook posted to " + path + ": "
+							+ excep.getMessage());
+					sendStatus(exchange, HttpURLConnection.HTTP_BAD_REQUEST);
+					return;
+				}
+				// Hooks for other owners' repositories aren't in the report
+				if (repo == null
+						|| !repo.owner.equalsIgnoreCase(HealthCheckServer.this.login)) {
+					sendStatus(exchange, HttpURLConnection.HTTP_NO_CONTENT);
+				} else if (queueUpdate(repo)) {
+					sendStatus(exchange, HttpURLConnection.HTTP_ACCEPTED);
+				} else {
+					sendStatus(exchange, HttpURLConnection.HTTP_UNAVAILABLE);
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the request body, or null if it's over {@link #MAX_HOOK_BYTES}
+	 */
+	private static byte[] readBody(final HttpExchange exchange)
+			throws IOException {
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		try {
+			if (length != null && Long.parseLong(length) > MAX_HOOK_BYTES) {
+				return null;
+			}
+		} catch (NumberFormatException excep) {
+			return null;
+		}
+		byte[] body;
+		// Read a byte past the limit to tell a chunked body that's over it
+		try (InputStream in = exchange.getRequestBody()) {
+			body = ByteStreams.toByteArray(ByteStreams.limit(in,
+					MAX_HOOK_BYTES + 1L));
+		}
+		return (body.length > MAX_HOOK_BYTES) ? null : body;
+	}
+
+	private static void sendStatus(final HttpExchange exchange, final int status)
+			throws IOException {
+		exchange.sendResponseHeaders(status, -1);
+	}
+
+	/**
+	 * The results of a scan and the responses rendered from them, replaced
+	 * as a whole so requests never see a mix of two scans.
+	 */
+	private static final class Snapshot {
+		final User user;
+		final List<GitHubProject> projects;
+		final CachedResponse index;
+		final CachedResponse projectsJson;
+
+		Snapshot(final User user, final List<GitHubProject> projects,
+				final CachedResponse index, final CachedResponse projectsJson) {
+			this.user = user;
+			this.projects = projects;
+			this.index = index;
+			this.projectsJson = projectsJson;
+		}
+	}
+
+	/**
+	 * A response body held in memory with a gzipped copy, if compression's
+	 * worthwhile, and an ETag for conditional requests.
+	 */
+	private static final class CachedResponse {
+		private final String contentType;
+		private final byte[] body;
+		private final byte[] gzipBody;
+		private final String etag;
+
+		CachedResponse(final String contentType, final byte[] body)
+				throws IOException {
+			this.contentType = contentType;
+			this.body = body;
+			this.gzipBody = (body.length >= MIN_GZIP_BYTES && !contentType
+					.startsWith("image/")) ? gzip(body) : null;
+			this.etag = "\"" + DigestUtils.sha1Hex(body) + "\"";
+		}
+
+		void send(final HttpExchange exchange, final int status)
+				throws IOException {
+			Headers requestHeaders = exchange.getRequestHeaders();
+			Headers headers = exchange.getResponseHeaders();
+			headers.add("ETag", this.etag);
+			headers.add("Vary", "Accept-Encoding");
+			// Only a complete response can stand in for a cached one
+			if (status == HttpURLConnection.HTTP_OK
+					&& this.etag.equals(requestHeaders.getFirst("If-None-Match"))) {
+				sendStatus(exchange, HttpURLConnection.HTTP_NOT_MODIFIED);
+				return;
+			}
+			headers.add("Content-Type", this.contentType);
+			byte[] sent = this.body;
+			String acceptEncoding = requestHeaders.getFirst("Accept-Encoding");
+			if (this.gzipBody != null && acceptEncoding != null
+					&& acceptEncoding.contains("gzip")) {
+				headers.add("Content-Encoding", "gzip");
+				sent = this.gzipBody;
+			}
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				headers.add("Content-Length", String.valueOf(sent.length));
+				sendStatus(exchange, status);
+				return;
+			}
+			exchange.sendResponseHeaders(status, sent.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(sent);
+			}
+		}
+
+		private static byte[] gzip(final byte[] body) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+				out.write(body);
+			}
+			return bytes.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,604 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+/**
+ * Append-only store of the health of every project at every run, so how a
+ * project's indicators and open issues change over time can be queried.</p>
+ *
+ * A run is stored as fixed size records, one per project sorted by a repo id,
+ * in memory-mapped segment files. A run index of fixed size entries gives
+ * each run's time, segment and offset and the repo ids are the line numbers
+ * of a file of repo names. Queries only touch the runs and records they need
+ * through the mappings, so years of hourly runs aren't read onto the heap:
+ * a repo's history is a binary search of each run in the time range and a
+ * coverage figure a sequential scan of the runs asked for.</p>
+ *
+ * Records are forced to disk before the run index entry that makes them
+ * visible, so a run is either stored whole or not at all. Only one instance
+ * may have a store directory open.</p>
+ */
+public final class HealthHistory implements Closeable {
+	/** Default maximum segment file size, a larger run gets its own segment */
+	public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024L * 1024L;
+
+	private static final String REPOS_FILE = "repos";
+	private static final String RUNS_FILE = "runs";
+	private static final String SEGMENT_FORMAT = "segment-%05d";
+	// int repo id, int open issues, byte indicator flags, padding
+	private static final int RECORD_BYTES = 12;
+	// long time, int segment, long offset, int record count
+	private static final int RUN_BYTES = 24;
+
+	private static final Logger LOGGER = Logger.getLogger(HealthHistory.class);
+
+	/**
+	 * The health indicators recorded for each project.
+	 */
+	public enum Indicator {
+		/** The project has a README */
+		README(1),
+		/** The project has a LICENSE */
+		LICENSE(2),
+		/** The project has an .opf.yml metadata file */
+		METADATA(4),
+		/** The project builds on Travis CI */
+		TRAVIS(8);
+
+		final int flag;
+
+		Indicator(final int flag) {
+			this.flag = flag;
+		}
+
+		static int flagsOf(final GitHubProject project) {
+			int flags = 0;
+			if (!project.indicators.readMeUrl.isEmpty()) {
+				flags |= README.flag;
+			}
+			if (!project.indicators.licenseUrl.isEmpty()) {
+				flags |= LICENSE.flag;
+			}
+			if (!project.indicators.metadataUrl.isEmpty()) {
+				flags |= METADATA.flag;
+			}
+			if (project.ci.hasTravis) {
+				flags |= TRAVIS.flag;
+			}
+			return flags;
+		}
+	}
+
+	/**
+	 * A project's health at one run.
+	 */
+	public static final class Sample {
+		private final long time;
+		private final int openIssues;
+		private final int flags;
+
+		Sample(final long time, final int openIssues, final int flags) {
+			this.time = time;
+			this.openIssues = openIssues;
+			this.flags = flags;
+		}
+
+		/**
+		 * @return the time of the run in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+		/**
+		 * @return the number of open issues at the run
+		 */
+		public int getOpenIssues() {
+			return this.openIssues;
+		}
+
+		/**
+		 * @param indicator
+		 *            the indicator to check
+		 * @return true if the project had the indicator at the run
+		 */
+		public boolean has(final Indicator indicator) {
+			return (this.flags & indicator.flag) != 0;
+		}
+
+		@Override
+		public String toString() {
+			return "Sample [time=" + this.time + ", openIssues="
+					+ this.openIssues + ", flags=" + this.flags + "]";
+		}
+	}
+
+	/**
+	 * How many projects had an indicator at one run.
+	 */
+	public static final class Coverage {
+		private final long time;
+		private final int projects;
+		private final int covered;
+
+		Coverage(final long time, final int projects, final int covered) {
+			this.time = time;
+			this.projects = projects;
+			this.covered = covered;
+		}
+
+		/**
+		 * @return the time of the run in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+		/**
+		 * @return the number of projects at the run
+		 */
+		public int getProjects() {
+			return this.projects;
+		}
+
+		/**
+		 * @return the number of projects with the indicator
+		 */
+		public int getCovered() {
+			return this.covered;
+		}
+
+		/**
+		 * @return the fraction of projects with the indicator, 0 for a run
+		 *         with no projects
+		 */
+		public double getFraction() {
+			return (this.projects == 0) ? 0d : (double) this.covered
+					/ this.projects;
+		}
+
+		@Override
+		public String toString() {
+			return "Coverage [time=" + this.time + ", projects="
+					+ this.projects + ", covered=" + this.covered + "]";
+		}
+	}
+
+	/**
+	 * Collects the projects of a run as they're scanned, only the record of
+	 * each is kept. Nothing is stored until the run's committed so a failed
+	 * scan can simply be dropped.
+	 */
+	public final class RunWriter implements ProjectSink {
+		private final long time;
+		private final Map<Integer, int[]> records = new HashMap<>();
+
+		RunWriter(final long time) {
+			this.time = time;
+		}
+
+		@Override
+		public void accept(final GitHubProject project) throws IOException {
+			synchronized (HealthHistory.this) {
+				int repoId = repoId(project.ownerLogin, project.name);
+				this.records.put(Integer.valueOf(repoId), new int[] { repoId,
+						project.openIssues, Indicator.flagsOf(project) });
+			}
+		}
+
+		/**
+		 * Nothing to release, the run's only stored by {@link #commit()}.
+		 */
+		@Override
+		public void close() {
+			// Deliberately empty
+		}
+
+		/**
+		 * Appends the run to the store.
+		 *
+		 * @throws IOException
+		 *             if the run can't be written
+		 */
+		public void commit() throws IOException {
+			synchronized (HealthHistory.this) {
+				int[][] sorted = this.records.values().toArray(
+						new int[this.records.size()][]);
+				appendRun(this.time, sorted);
+			}
+		}
+	}
+
+	private final File dir;
+	private final long segmentBytes;
+	private final List<String> repoNames = new ArrayList<>();
+	private final Map<String, Integer> repoIds = new HashMap<>();
+	private final RandomAccessFile reposFile;
+	private final RandomAccessFile runsFile;
+	private final Map<Integer, MappedByteBuffer> segments = new HashMap<>();
+	private MappedByteBuffer runs;
+	private int runCount;
+
+	private HealthHistory(final File dir, final long segmentBytes)
+			throws IOException {
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.reposFile = new RandomAccessFile(new File(dir, REPOS_FILE), "rw");
+		this.runsFile = new RandomAccessFile(new File(dir, RUNS_FILE), "rw");
+		loadRepos();
+		// A torn run index entry was never visible, drop it
+		this.runCount = (int) (this.runsFile.length() / RUN_BYTES);
+		this.runsFile.setLength((long) this.runCount * RUN_BYTES);
+		mapRuns();
+	}
+
+	/**
+	 * Opens the history store in a directory, creating it if needed.
+	 *
+	 * @param dir
+	 *            the store directory
+	 * @return the open store
+	 * @throws IOException
+	 *             if the directory can't be created or the store read
+	 */
+	public static HealthHistory open(final File dir) throws IOException {
+		return open(dir, DEFAULT_SEGMENT_BYTES);
+	}
+
+	static HealthHistory open(final File dir, final long segmentBytes)
+			throws IOException {
+		Preconditions.checkNotNull(dir, "dir == null");
+		Preconditions.checkArgument(segmentBytes >= RECORD_BYTES,
+				"segmentBytes < " + RECORD_BYTES);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can't create history directory "
+					+ dir.getAbsolutePath());
+		}
+		return new HealthHistory(dir, segmentBytes);
+	}
+
+	/**
+	 * Appends the health of a list of projects as a run.
+	 *
+	 * @param time
+	 *            the time of the run, later than the last stored run
+	 * @param projects
+	 *            the projects scanned
+	 * @throws IOException
+	 *             if the run can't be written
+	 */
+	public synchronized void append(final long time,
+			final List<GitHubProject> projects) throws IOException {
+		Preconditions.checkNotNull(projects, "projects == null");
+		RunWriter writer = newRun(time);
+		for (GitHubProject project : projects) {
+			writer.accept(project);
+		}
+		writer.commit();
+	}
+
+	/**
+	 * Starts a run whose projects are added as they're scanned.
+	 *
+	 * @param time
+	 *            the time of the run, later than the last stored run
+	 * @return a writer for the run
+	 */
+	public synchronized RunWriter newRun(final long time) {
+		checkTime(time);
+		return new RunWriter(time);
+	}
+
+	/**
+	 * @return the number of runs stored
+	 */
+	public synchronized int getRunCount() {
+		return this.runCount;
+	}
+
+	/**
+	 * @param run
+	 *            the index of a stored run, 0 the oldest
+	 * @return the time of the run in milliseconds since the epoch
+	 */
+	public synchronized long getRunTime(final int run) {
+		Preconditions.checkElementIndex(run, this.runCount, "run");
+		return runTime(run);
+	}
+
+	/**
+	 * The health of a project at each run in a time range, for a project
+	 * that's renamed or moved this is the history under the given name.
+	 *
+	 * @param owner
+	 *            the login of the project's owner
+	 * @param name
+	 *            the project's repository name
+	 * @param from
+	 *            the earliest run time wanted, inclusive
+	 * @param to
+	 *            the latest run time wanted, inclusive
+	 * @return the project's samples oldest first, runs the project wasn't
+	 *         part of are skipped
+	 * @throws IOException
+	 *             if a segment can't be read
+	 */
+	public synchronized List<Sample> history(final String owner,
+			final String name, final long from, final long to)
+			throws IOException {
+		Integer repoId = this.repoIds.get(repoKey(owner, name));
+		if (repoId == null) {
+			return Collections.emptyList();
+		}
+		List<Sample> samples = new ArrayList<>();
+		for (int run = firstRunFrom(from); run < this.runCount
+				&& runTime(run) <= to; run++) {
+			ByteBuffer records = runRecords(run);
+			int index = findRecord(records, repoId.intValue());
+			if (index >= 0) {
+				int pos = index * RECORD_BYTES;
+				samples.add(new Sample(runTime(run), records.getInt(pos + 4),
+						records.get(pos + 8)));
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * How many of an owner's projects had an indicator at each of the latest
+	 * runs.
+	 *
+	 * @param owner
+	 *            the login of the owner, or null for every project
+	 * @param indicator
+	 *            the indicator to count
+	 * @param lastRuns
+	 *            the number of latest runs wanted
+	 * @return the coverage at each run oldest first, fewer than asked for if
+	 *         fewer runs are stored
+	 * @throws IOException
+	 *             if a segment can't be read
+	 */
+	public synchronized List<Coverage> coverage(final String owner,
+			final Indicator indicator, final int lastRuns) throws IOException {
+		Preconditions.checkNotNull(indicator, "indicator == null");
+		Preconditions.checkArgument(lastRuns >= 0, "lastRuns < 0");
+		BitSet owned = (owner == null) ? null : ownedRepos(owner);
+		List<Coverage> coverage = new ArrayList<>();
+		for (int run = Math.max(0, this.runCount - lastRuns); run < this.runCount; run++) {
+			ByteBuffer records = runRecords(run);
+			int projects = 0, covered = 0;
+			for (int pos = 0; pos < records.limit(); pos += RECORD_BYTES) {
+				if (owned != null && !owned.get(records.getInt(pos))) {
+					continue;
+				}
+				projects++;
+				if ((records.get(pos + 8) & indicator.flag) != 0) {
+					covered++;
+				}
+			}
+			coverage.add(new Coverage(runTime(run), projects, covered));
+		}
+		return coverage;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.segments.clear();
+		this.runs = null;
+		try {
+			this.reposFile.close();
+		} finally {
+			this.runsFile.close();
+		}
+	}
+
+	private void checkTime(final long time) {
+		if (this.runCount > 0 && time <= runTime(this.runCount - 1)) {
+			throw new IllegalArgumentException("Run time " + time
+					+ " isn't after the last run "
+					+ runTime(this.runCount - 1));
+		}
+	}
+
+	private void appendRun(final long time, final int[][] records)
+			throws IOException {
+		checkTime(time);
+		Arrays.sort(records, new Comparator<int[]>() {
+			@Override
+			public int compare(final int[] first, final int[] second) {
+				return Integer.compare(first[0], second[0]);
+			}
+		});
+		int segment = 0;
+		long offset = 0L;
+		if (this.runCount > 0) {
+			int last = this.runCount - 1;
+			segment = this.runs.getInt(last * RUN_BYTES + 8);
+			offset = this.runs.getLong(last * RUN_BYTES + 12)
+					+ (long) this.runs.getInt(last * RUN_BYTES + 20)
+					* RECORD_BYTES;
+		}
+		long size = (long) records.length * RECORD_BYTES;
+		if (offset > 0L && offset + size > this.segmentBytes) {
+			segment++;
+			offset = 0L;
+		}
+		// Repo names first, an unused name is harmless
+		this.reposFile.getChannel().force(false);
+		if (size > 0L) {
+			writeRecords(segment, offset, records);
+		}
+		ByteBuffer entry = ByteBuffer.allocate(RUN_BYTES);
+		entry.putLong(time).putInt(segment).putLong(offset)
+				.putInt(records.length).flip();
+		FileChannel channel = this.runsFile.getChannel();
+		long position = (long) this.runCount * RUN_BYTES;
+		while (entry.hasRemaining()) {
+			position += channel.write(entry, position);
+		}
+		channel.force(false);
+		this.runCount++;
+		mapRuns();
+		LOGGER.info("Stored run of " + records.length + " projects in "
+				+ segmentFile(segment).getName());
+	}
+
+	private void writeRecords(final int segment, final long offset,
+			final int[][] records) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(
+				segmentFile(segment), "rw")) {
+			MappedByteBuffer buffer = file.getChannel().map(MapMode.READ_WRITE,
+					offset, (long) records.length * RECORD_BYTES);
+			for (int[] record : records) {
+				buffer.putInt(record[0]).putInt(record[1])
+						.put((byte) record[2]).put((byte) 0).putShort((short) 0);
+			}
+			buffer.force();
+		}
+		// The read mapping no longer covers the segment
+		this.segments.remove(Integer.valueOf(segment));
+	}
+
+	private ByteBuffer runRecords(final int run) throws IOException {
+		int segment = this.runs.getInt(run * RUN_BYTES + 8);
+		long offset = this.runs.getLong(run * RUN_BYTES + 12);
+		int count = this.runs.getInt(run * RUN_BYTES + 20);
+		if (count == 0) {
+			return ByteBuffer.allocate(0);
+		}
+		MappedByteBuffer mapped = this.segments.get(Integer.valueOf(segment));
+		long end = offset + (long) count * RECORD_BYTES;
+		if (mapped == null || mapped.capacity() < end) {
+			try (RandomAccessFile file = new RandomAccessFile(
+					segmentFile(segment), "r")) {
+				mapped = file.getChannel().map(MapMode.READ_ONLY, 0L,
+						file.length());
+			}
+			this.segments.put(Integer.valueOf(segment), mapped);
+		}
+		ByteBuffer records = mapped.duplicate();
+		records.position((int) offset).limit((int) end);
+		return records.slice();
+	}
+
+	private static int findRecord(final ByteBuffer records, final int repoId) {
+		int low = 0, high = records.limit() / RECORD_BYTES - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midId = records.getInt(mid * RECORD_BYTES);
+			if (midId < repoId) {
+				low = mid + 1;
+			} else if (midId > repoId) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int firstRunFrom(final long from) {
+		int low = 0, high = this.runCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (runTime(mid) < from) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private long runTime(final int run) {
+		return this.runs.getLong(run * RUN_BYTES);
+	}
+
+	private BitSet ownedRepos(final String owner) {
+		String prefix = owner + "/";
+		BitSet owned = new BitSet(this.repoNames.size());
+		for (int id = 0; id < this.repoNames.size(); id++) {
+			if (this.repoNames.get(id).startsWith(prefix)) {
+				owned.set(id);
+			}
+		}
+		return owned;
+	}
+
+	private int repoId(final String owner, final String name)
+			throws IOException {
+		String key = repoKey(owner, name);
+		Integer id = this.repoIds.get(key);
+		if (id != null) {
+			return id.intValue();
+		}
+		this.reposFile.seek(this.reposFile.length());
+		this.reposFile.write((key + "\n").getBytes(Charsets.UTF_8));
+		id = Integer.valueOf(this.repoNames.size());
+		this.repoNames.add(key);
+		this.repoIds.put(key, id);
+		return id.intValue();
+	}
+
+	private static String repoKey(final String owner, final String name) {
+		return owner + "/" + name;
+	}
+
+	private void loadRepos() throws IOException {
+		long complete = 0L;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(this.dir, REPOS_FILE)),
+				Charsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				complete += line.getBytes(Charsets.UTF_8).length + 1;
+				this.repoIds.put(line, Integer.valueOf(this.repoNames.size()));
+				this.repoNames.add(line);
+			}
+		}
+		// A torn last name has no newline, drop it
+		if (complete > this.reposFile.length()) {
+			String torn = this.repoNames.remove(this.repoNames.size() - 1);
+			this.repoIds.remove(torn);
+			complete -= torn.getBytes(Charsets.UTF_8).length + 1;
+		}
+		this.reposFile.setLength(complete);
+	}
+
+	private void mapRuns() throws IOException {
+		this.runs = this.runsFile.getChannel().map(MapMode.READ_ONLY, 0L,
+				(long) this.runCount * RUN_BYTES);
+	}
+
+	private File segmentFile(final int segment) {
+		return new File(this.dir, String.format(SEGMENT_FORMAT,
+				Integer.valueOf(segment)));
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.eclipse.egit.github.core.User;
+import org.eclipse.egit.github.core.client.GitHubClient;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import freemarker.template.TemplateException;
+
+/**
+ * Scans several GitHub organisations in one process. Every organisation is
+ * scanned with the same GitHub client, so they share its connection pool,
+ * response cache and rate limit scheduler, and the same Travis client and
+ * report renderer. Each organisation gets a directory in the output
+ * directory holding its report and the state file used to scan it
+ * incrementally next time, and a combined index linking the reports is
+ * written to the output directory.</p>
+ */
+public final class OrgBatch {
+	/** File name of the reports and the combined index */
+	public static final String REPORT_FILE = "index.html";
+	/** File name of each organisation's state file */
+	public static final String STATE_FILE = "projects.json";
+
+	private static final Logger LOGGER = Logger.getLogger(OrgBatch.class);
+
+	private final GitHubClient ghClient;
+	private final ScanOptions options;
+	private final ReportRenderer renderer;
+	private final int orgThreads;
+
+	/**
+	 * @param ghClient
+	 *            the GitHub client shared by every organisation scan
+	 * @param options
+	 *            the options for each organisation scan
+	 * @param renderer
+	 *            the renderer for the reports and index
+	 * @param orgThreads
+	 *            the maximum number of organisations scanned concurrently
+	 */
+	public OrgBatch(final GitHubClient ghClient, final ScanOptions options,
+			final ReportRenderer renderer, final int orgThreads) {
+		Preconditions.checkNotNull(ghClient, "ghClient == null");
+		Preconditions.checkNotNull(options, "options == null");
+		Preconditions.checkNotNull(renderer, "renderer == null");
+		Preconditions.checkArgument(orgThreads > 0, "orgThreads < 1");
+		this.ghClient = ghClient;
+		this.options = options;
+		this.renderer = renderer;
+		this.orgThreads = orgThreads;
+	}
+
+	/**
+	 * Scans the organisations and writes their reports and the combined
+	 * index. An organisation that fails to scan is logged and left out of
+	 * the index rather than failing the batch.
+	 *
+	 * @param logins
+	 *            the GitHub logins of the organisations to scan
+	 * @param outDir
+	 *            the directory the reports are written to, created if
+	 *            needed
+	 * @return the reports written, in the order of the logins
+	 * @throws IOException
+	 *             if the index can't be written or the batch is interrupted
+	 */
+	public List<OrgReport> run(final List<String> logins, final File outDir)
+			throws IOException {
+		Preconditions.checkNotNull(logins, "logins == null");
+		Preconditions.checkNotNull(outDir, "outDir == null");
+		mkdirs(outDir);
+		ExecutorService executor = Executors.newFixedThreadPool(
+				this.orgThreads,
+				new ThreadFactoryBuilder().setNameFormat("org-scan-%d")
+						.setDaemon(true).build());
+		List<Future<OrgReport>> futures = new ArrayList<>();
+		try {
+			for (final String login : logins) {
+				futures.add(executor.submit(new Callable<OrgReport>() {
+					@SuppressWarnings("synthetic-access")
+					@Override
+					public OrgReport call() throws IOException,
+							TemplateException {
+						return scanOrg(login, new File(outDir, login));
+					}
+				}));
+			}
+			List<OrgReport> reports = new ArrayList<>();
+			for (int index = 0; index < futures.size(); index++) {
+				try {
+					reports.add(futures.get(index).get());
+				} catch (ExecutionException excep) {
+					LOGGER.warn("Failed to scan organisation "
+							+ logins.get(index) + ": "
+							+ excep.getCause().getMessage());
+				}
+			}
+			writeIndex(reports, new File(outDir, REPORT_FILE));
+			return reports;
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Organisation batch interrupted.");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private OrgReport scanOrg(final String login, final File orgDir)
+			throws IOException, TemplateException {
+		mkdirs(orgDir);
+		User user = GitHubProjects.getUser(this.ghClient, login);
+		LOGGER.info("Reading project data for GitHub user " + user.getName());
+		File stateFile = new File(orgDir, STATE_FILE);
+		List<GitHubProject> projects = GitHubProjects.createProjectList(
+				this.ghClient, user.getLogin(), this.options,
+				GitHubProjects.readPreviousProjects(stateFile));
+		GitHubProjects.writeProjectFile(projects, stateFile);
+		File reportFile = new File(orgDir, REPORT_FILE);
+		File tempFile = new File(reportFile.getAbsolutePath() + ".tmp");
+		try (Writer out = createWriter(tempFile)) {
+			this.renderer.renderHtml(user, projects, out);
+		}
+		Files.move(tempFile.toPath(), reportFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		return new OrgReport(user, projects.size(), orgDir.getName() + "/"
+				+ REPORT_FILE);
+	}
+
+	private void writeIndex(final List<OrgReport> reports, final File indexFile)
+			throws IOException {
+		File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+		try (Writer out = createWriter(tempFile)) {
+			this.renderer.renderIndex(reports, out);
+		} catch (TemplateException excep) {
+			throw new IOException("Couldn't render the organisation index.",
+					excep);
+		}
+		Files.move(tempFile.toPath(), indexFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static Writer createWriter(final File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				file), Charsets.UTF_8));
+	}
+
+	private static void mkdirs(final File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Couldn't create directory "
+					+ dir.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * The outcome of scanning one organisation, the getters are used by the
+	 * index template.
+	 */
+	public static final class OrgReport {
+		private final User user;
+		private final int projectCount;
+		private final String reportPath;
+
+		OrgReport(final User user, final int projectCount,
+				final String reportPath) {
+			this.user = user;
+			this.projectCount = projectCount;
+			this.reportPath = reportPath;
+		}
+
+		/**
+		 * @return the GitHub user of the organisation
+		 */
+		public User getUser() {
+			return this.user;
+		}
+
+		/**
+		 * @return the number of projects in the report
+		 */
+		public int getProjectCount() {
+			return this.projectCount;
+		}
+
+		/**
+		 * @return the path of the report relative to the output directory
+		 */
+		public String getReportPath() {
+			return this.reportPath;
+		}
+	}
+}
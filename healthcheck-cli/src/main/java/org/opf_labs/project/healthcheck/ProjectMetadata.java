@@ -3,8 +3,12 @@
  */
 package org.opf_labs.project.healthcheck;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 
 import org.apache.log4j.Logger;
 
@@ -14,7 +18,9 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 
 /**
@@ -37,6 +43,8 @@ public final class ProjectMetadata {
 	private final static String OPF = "OPF";
 	private final static ProjectMetadata DEFAULT_INSTANCE = new ProjectMetadata(GitHubProjects.UNKNOWN, GitHubProjects.UNKNOWN);
 	private final static Logger LOGGER = Logger.getLogger(ProjectMetadata.class); 
+	// Immutable so shared by every parse, building a mapper per file was most of the parse time
+	private final static ObjectReader YAML_READER = new ObjectMapper(new YAMLFactory()).reader(ProjectMetadata.class);
 	/** The projects full name */
 	public final String name;
 	/** The projects vendor identifier, could be an individual, organisation, or project. */
@@ -68,6 +76,10 @@ public final class ProjectMetadata {
 		Preconditions.checkArgument(!name.isEmpty(), "name.isEmpty() == true");
 		Preconditions.checkArgument(!vendor.isEmpty(),
 				"vendor.isEmpty() == true");
+		// Keep the default instance unique so identity checks survive a round trip
+		if (name.equals(DEFAULT_INSTANCE.name) && vendor.equals(DEFAULT_INSTANCE.vendor)) {
+			return DEFAULT_INSTANCE;
+		}
 		return new ProjectMetadata(name, vendor);
 	}
 
@@ -79,7 +91,7 @@ public final class ProjectMetadata {
 	}
 	/**
 	 * Factory method for ProjectMetadata, returns a new instance from an
-	 * InputStream to YAML metadata.
+	 * InputStream to UTF-8 YAML metadata.
 	 * 
 	 * @param yamlStream
 	 *            an java.io.InputStream of YAML metadata
@@ -87,20 +99,7 @@ public final class ProjectMetadata {
 	 */
 	public static ProjectMetadata fromYamlStream(InputStream yamlStream) {
 		Preconditions.checkNotNull(yamlStream, "yamlStream is null");
-		ProjectMetadata pmd = null;
-		ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
-		try {
-			pmd = mapper.readValue(yamlStream, ProjectMetadata.class);
-		} catch (JsonParseException | JsonMappingException excep) {
-			LOGGER.warn("Jackson JSON parsing error parsing metadata from Travis YAML stream");
-			throw new IllegalArgumentException("Problem parsing project metadata from YAML stream.", excep);
-		} catch (IOException excep) {
-			// TODO Auto-generated catch block
-			LOGGER.warn("I/O error reading YAML Stream from Travis.");
-			LOGGER.warn(excep.getMessage());
-			LOGGER.warn(excep.getStackTrace());
-		}
-		return pmd;
+		return parse(new InputStreamReader(yamlStream, Charsets.UTF_8));
 	}
 	
 	/**
@@ -112,10 +111,28 @@ public final class ProjectMetadata {
 	public static ProjectMetadata fromYamlString(String yaml) {
 		Preconditions.checkNotNull(yaml, "yaml == null");
 		Preconditions.checkArgument(!yaml.isEmpty(), "yaml.isEmpty() == true");
+		return parse(new StringReader(yaml));
+	}
+
+	/**
+	 * Factory method for ProjectMetadata, returns a new instance from UTF-8
+	 * YAML metadata bytes, such as a decoded GitHub contents payload.
+	 * 
+	 * @param yaml
+	 *            the UTF-8 bytes of the YAML metadata
+	 * @return a populated project metadata instance
+	 */
+	public static ProjectMetadata fromYamlBytes(final byte[] yaml) {
+		Preconditions.checkNotNull(yaml, "yaml == null");
+		Preconditions.checkArgument(yaml.length > 0, "yaml.length == 0");
+		return parse(new InputStreamReader(new ByteArrayInputStream(yaml),
+				Charsets.UTF_8));
+	}
+
+	private static ProjectMetadata parse(final Reader yaml) {
 		ProjectMetadata pmd = null;
-		ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
-		try {
-			pmd = mapper.readValue(yaml.replaceAll("\t", "  "), ProjectMetadata.class);
+		try (Reader reader = new TabExpandingReader(yaml)) {
+			pmd = YAML_READER.readValue(reader);
 		} catch (JsonParseException | JsonMappingException excep) {
 			LOGGER.warn("Jackson JSON parsing error parsing metadata from Travis YAML stream");
 			throw new IllegalArgumentException("Problem parsing project metadata from YAML stream.", excep);
@@ -127,4 +144,62 @@ public final class ProjectMetadata {
 		}
 		return pmd;
 	}
+
+	/**
+	 * Reader that replaces each tab with two spaces as the characters pass
+	 * through, YAML doesn't allow tabs for indentation but hand written
+	 * metadata files often use them.
+	 */
+	static final class TabExpandingReader extends Reader {
+		private static final int BUFFER_SIZE = 1024;
+		private final Reader in;
+		private final char[] buffer = new char[BUFFER_SIZE];
+		// Second space of a tab that didn't fit the caller's buffer
+		private boolean pendingSpace = false;
+
+		TabExpandingReader(final Reader in) {
+			super(in);
+			this.in = in;
+		}
+
+		@Override
+		public int read(final char[] cbuf, final int off, final int len)
+				throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			int count = 0;
+			if (this.pendingSpace) {
+				cbuf[off] = ' ';
+				this.pendingSpace = false;
+				count++;
+			}
+			// Every character read expands to at most two
+			int toRead = Math.min(this.buffer.length, (len - count + 1) / 2);
+			if (toRead > 0) {
+				int read = this.in.read(this.buffer, 0, toRead);
+				if (read < 0 && count == 0) {
+					return -1;
+				}
+				for (int index = 0; index < read; index++) {
+					if (this.buffer[index] != '\t') {
+						cbuf[off + count++] = this.buffer[index];
+						continue;
+					}
+					cbuf[off + count++] = ' ';
+					if (count < len) {
+						cbuf[off + count++] = ' ';
+					} else {
+						this.pendingSpace = true;
+					}
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+	}
 }
@@ -0,0 +1,36 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives projects one at a time as an organisation scan builds them, see
+ * {@link GitHubProjects#scanProjects(org.eclipse.egit.github.core.client.GitHubClient, String, ScanOptions, java.util.Collection, ProjectSink)}.
+ * A sink is only ever called from the thread running the scan so
+ * implementations needn't be thread safe. Implementations for the output
+ * formats are created by {@link ProjectSinks}.</p>
+ */
+public interface ProjectSink extends Closeable {
+	/**
+	 * Accepts a project as soon as it's been built.
+	 *
+	 * @param project
+	 *            the project to accept
+	 * @throws IOException
+	 *             if the project can't be written, this aborts the scan
+	 */
+	void accept(GitHubProject project) throws IOException;
+
+	/**
+	 * Finishes the output, writing any trailer and flushing. Closing a sink
+	 * doesn't close the stream or writer it writes to.
+	 *
+	 * @throws IOException
+	 *             if the output can't be finished
+	 */
+	@Override
+	void close() throws IOException;
+}
@@ -0,0 +1,249 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.eclipse.egit.github.core.User;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import freemarker.template.utility.StringUtil;
+
+/**
+ * Factory methods for the {@link ProjectSink} output formats. Every sink
+ * flushes after each project so a reader, or whatever's left after a crash,
+ * sees the projects scanned so far.</p>
+ */
+public final class ProjectSinks {
+	private static final String NEWLINE = "\n";
+
+	// Jackson mapper for project output, thread safe once configured
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	static {
+		// The sinks' callers own the streams
+		MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+	}
+
+	private ProjectSinks() {
+		throw new AssertionError("In ProjectSinks constructor.");
+	}
+
+	/**
+	 * Creates a sink that writes the plain text listing, the user header is
+	 * written immediately.
+	 *
+	 * @param user
+	 *            the GitHub user whose projects are written
+	 * @param out
+	 *            the writer to write to, not closed by the sink
+	 * @return the new sink
+	 * @throws IOException
+	 *             if the header can't be written
+	 */
+	public static ProjectSink plainText(final User user, final Writer out)
+			throws IOException {
+		Preconditions.checkNotNull(user, "user == null");
+		Preconditions.checkNotNull(out, "out == null");
+		out.write(user.getName() + " Repositories");
+		out.flush();
+		return new PlainTextSink(out);
+	}
+
+	/**
+	 * Creates a sink that writes newline delimited JSON, one project object
+	 * per line.
+	 *
+	 * @param out
+	 *            the writer to write to, not closed by the sink
+	 * @return the new sink
+	 */
+	public static ProjectSink ndjson(final Writer out) {
+		Preconditions.checkNotNull(out, "out == null");
+		return new NdjsonSink(out);
+	}
+
+	/**
+	 * Creates a sink that writes an HTML list item for each project, for
+	 * inclusion in a page that supplies the enclosing list.
+	 *
+	 * @param out
+	 *            the writer to write to, not closed by the sink
+	 * @return the new sink
+	 */
+	public static ProjectSink htmlFragment(final Writer out) {
+		Preconditions.checkNotNull(out, "out == null");
+		return new HtmlFragmentSink(out);
+	}
+
+	/**
+	 * Creates a sink that writes a JSON array of projects, the output can be
+	 * read back with {@link GitHubProjects#readProjectList(java.io.InputStream)}
+	 * once the sink is closed.
+	 *
+	 * @param out
+	 *            the stream to write to, not closed by the sink
+	 * @return the new sink
+	 * @throws IOException
+	 *             if the start of the array can't be written
+	 */
+	public static ProjectSink jsonArray(final OutputStream out)
+			throws IOException {
+		Preconditions.checkNotNull(out, "out == null");
+		JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+		generator.writeStartArray();
+		return new JsonArraySink(generator);
+	}
+
+	/**
+	 * Creates a sink that passes each project to two other sinks in turn.
+	 *
+	 * @param first
+	 *            the sink called first
+	 * @param second
+	 *            the sink called second
+	 * @return the new sink
+	 */
+	public static ProjectSink tee(final ProjectSink first,
+			final ProjectSink second) {
+		Preconditions.checkNotNull(first, "first == null");
+		Preconditions.checkNotNull(second, "second == null");
+		return new TeeSink(first, second);
+	}
+
+	private static final class PlainTextSink implements ProjectSink {
+		private final Writer out;
+		private int repoCount = 0;
+
+		PlainTextSink(final Writer out) {
+			this.out = out;
+		}
+
+		@Override
+		public void accept(final GitHubProject project) throws IOException {
+			this.out.write(++this.repoCount + ": " + project.name
+					+ ", updated: " + project.updated);
+			if (!project.errors.isEmpty()) {
+				this.out.write(", degraded: "
+						+ Joiner.on("; ").join(project.errors));
+			}
+			this.out.write(project.description);
+			this.out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.flush();
+		}
+	}
+
+	private static final class NdjsonSink implements ProjectSink {
+		private final Writer out;
+
+		NdjsonSink(final Writer out) {
+			this.out = out;
+		}
+
+		@Override
+		public void accept(final GitHubProject project) throws IOException {
+			MAPPER.writeValue(this.out, project);
+			this.out.write(NEWLINE);
+			this.out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.flush();
+		}
+	}
+
+	private static final class HtmlFragmentSink implements ProjectSink {
+		private final Writer out;
+
+		HtmlFragmentSink(final Writer out) {
+			this.out = out;
+		}
+
+		@Override
+		public void accept(final GitHubProject project) throws IOException {
+			this.out.write("<li class=\""
+					+ (project.errors.isEmpty() ? "repo" : "repo degraded")
+					+ "\" data-vendor=\""
+					+ StringUtil.XHTMLEnc(project.metadata.vendor) + "\">");
+			this.out.write("<a href=\"" + StringUtil.XHTMLEnc(project.url)
+					+ "\">" + StringUtil.XHTMLEnc(project.name) + "</a>");
+			this.out.write(" <span class=\"description\">"
+					+ StringUtil.XHTMLEnc(Strings.nullToEmpty(project.description))
+					+ "</span>");
+			this.out.write(" <span class=\"language\">"
+					+ StringUtil.XHTMLEnc(project.language) + "</span>");
+			this.out.write(" <span class=\"updated\">" + project.updated
+					+ "</span>");
+			this.out.write(" <span class=\"issues\">" + project.openIssues
+					+ "</span>");
+			for (String error : project.errors) {
+				this.out.write(" <span class=\"error\">"
+						+ StringUtil.XHTMLEnc(error) + "</span>");
+			}
+			this.out.write("</li>" + NEWLINE);
+			this.out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.flush();
+		}
+	}
+
+	private static final class JsonArraySink implements ProjectSink {
+		private final JsonGenerator generator;
+
+		JsonArraySink(final JsonGenerator generator) {
+			this.generator = generator;
+		}
+
+		@Override
+		public void accept(final GitHubProject project) throws IOException {
+			MAPPER.writeValue(this.generator, project);
+			this.generator.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.generator.writeEndArray();
+			this.generator.close();
+		}
+	}
+
+	private static final class TeeSink implements ProjectSink {
+		private final ProjectSink first;
+		private final ProjectSink second;
+
+		TeeSink(final ProjectSink first, final ProjectSink second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public void accept(final GitHubProject project) throws IOException {
+			this.first.accept(project);
+			this.second.accept(project);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				this.first.close();
+			} finally {
+				this.second.close();
+			}
+		}
+	}
+}
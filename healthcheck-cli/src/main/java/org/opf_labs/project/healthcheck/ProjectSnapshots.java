@@ -0,0 +1,195 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads and writes project lists as compact binary snapshots. A snapshot is
+ * the JSON project list encoded as <a
+ * href="http://wiki.fasterxml.com/SmileFormatSpec">Smile</a>, wrapped in an
+ * object that carries the snapshot format version:
+ * 
+ * <pre>
+ * {"version":2,"projects":[...]}
+ * </pre>
+ * 
+ * Field names and short string values, owner logins, languages, vendors and
+ * the like, are written once and back referenced after that, which keeps the
+ * file small. The reader hands back the String it already read for a back
+ * reference, so a loaded snapshot holds a copy of each value per window of
+ * 1024 distinct values rather than one per project.</p>
+ */
+public final class ProjectSnapshots {
+	/** The snapshot format version written, 2 added the pushed date */
+	public static final int FORMAT_VERSION = 2;
+	/** File extension that selects the snapshot format for a state file */
+	public static final String EXTENSION = ".snapshot";
+
+	private static final String VERSION_FIELD = "version";
+	private static final String PROJECTS_FIELD = "projects";
+	// Every Smile document starts ":)\n"
+	private static final byte[] SMILE_HEADER = { ':', ')', '\n' };
+
+	// Thread safe once configured
+	private static final ObjectMapper MAPPER;
+	static {
+		SmileFactory factory = new SmileFactory();
+		factory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+		MAPPER = new ObjectMapper(factory);
+		// Callers own the streams
+		MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+		MAPPER.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+	}
+
+	private ProjectSnapshots() {
+		throw new AssertionError("In ProjectSnapshots constructor.");
+	}
+
+	/**
+	 * Writes a list of projects as a snapshot.
+	 *
+	 * @param projects
+	 *            the projects to write
+	 * @param out
+	 *            the stream to write to, not closed by this method
+	 * @throws IOException
+	 *             if there's a problem writing the snapshot
+	 */
+	public static void write(final List<GitHubProject> projects,
+			final OutputStream out) throws IOException {
+		Preconditions.checkNotNull(projects, "projects == null");
+		try (ProjectSink sink = sink(out)) {
+			for (GitHubProject project : projects) {
+				sink.accept(project);
+			}
+		}
+	}
+
+	/**
+	 * Creates a sink that writes a snapshot project by project, the snapshot
+	 * is complete once the sink is closed.
+	 *
+	 * @param out
+	 *            the stream to write to, not closed by the sink
+	 * @return the new sink
+	 * @throws IOException
+	 *             if the start of the snapshot can't be written
+	 */
+	public static ProjectSink sink(final OutputStream out) throws IOException {
+		Preconditions.checkNotNull(out, "out == null");
+		final JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+		generator.writeStartObject();
+		generator.writeNumberField(VERSION_FIELD, FORMAT_VERSION);
+		generator.writeArrayFieldStart(PROJECTS_FIELD);
+		return new ProjectSink() {
+			@Override
+			public void accept(final GitHubProject project) throws IOException {
+				MAPPER.writeValue(generator, project);
+			}
+
+			@Override
+			public void close() throws IOException {
+				generator.writeEndArray();
+				generator.writeEndObject();
+				generator.close();
+			}
+		};
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #write(List, OutputStream)}.
+	 *
+	 * @param in
+	 *            the stream to read from, not closed by this method
+	 * @return the projects read
+	 * @throws IOException
+	 *             if the stream isn't a snapshot, is from a later format
+	 *             version or can't be read
+	 */
+	public static List<GitHubProject> read(final InputStream in)
+			throws IOException {
+		Preconditions.checkNotNull(in, "in == null");
+		try (JsonParser parser = MAPPER.getFactory().createParser(in)) {
+			expect(parser, JsonToken.START_OBJECT);
+			expect(parser, JsonToken.FIELD_NAME);
+			expect(parser, JsonToken.VALUE_NUMBER_INT);
+			if (!VERSION_FIELD.equals(parser.getCurrentName())) {
+				throw new IOException("Snapshot doesn't start with its version.");
+			}
+			int version = parser.getIntValue();
+			if (version > FORMAT_VERSION) {
+				throw new IOException("Snapshot format version " + version
+						+ " is newer than the supported version "
+						+ FORMAT_VERSION);
+			}
+			expect(parser, JsonToken.FIELD_NAME);
+			expect(parser, JsonToken.START_ARRAY);
+			List<GitHubProject> projects = new ArrayList<>();
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				projects.add(MAPPER.readValue(parser, GitHubProject.class));
+			}
+			if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+				throw new IOException("Snapshot project list is malformed.");
+			}
+			return projects;
+		}
+	}
+
+	/**
+	 * Checks whether a stream holds a snapshot without consuming any of it.
+	 *
+	 * @param in
+	 *            a stream that supports mark and reset
+	 * @return true if the stream starts like a snapshot
+	 * @throws IOException
+	 *             if the stream can't be read
+	 */
+	public static boolean isSnapshot(final InputStream in) throws IOException {
+		Preconditions.checkNotNull(in, "in == null");
+		Preconditions.checkArgument(in.markSupported(),
+				"in.markSupported() == false");
+		in.mark(SMILE_HEADER.length);
+		try {
+			for (byte expected : SMILE_HEADER) {
+				if (in.read() != expected) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			in.reset();
+		}
+	}
+
+	/**
+	 * @param file
+	 *            a state file
+	 * @return true if the file's name selects the snapshot format
+	 */
+	public static boolean isSnapshotFile(final File file) {
+		return file.getName().endsWith(EXTENSION);
+	}
+
+	private static void expect(final JsonParser parser, final JsonToken token)
+			throws IOException {
+		if (parser.nextToken() != token) {
+			throw new IOException("Malformed snapshot, expected " + token
+					+ " but found " + parser.getCurrentToken());
+		}
+	}
+}
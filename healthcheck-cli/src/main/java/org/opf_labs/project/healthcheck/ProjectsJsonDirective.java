@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Preconditions;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+/**
+ * FreeMarker directive that writes a list of projects as a JSON array straight
+ * to the template output, used as <code>&lt;@projectsJson/&gt;</code>. Each
+ * project is serialised into the output writer as it's reached, so no string
+ * copy of the whole list is ever held in memory and the first projects are
+ * written before the last are serialised.</p>
+ */
+public final class ProjectsJsonDirective implements TemplateDirectiveModel {
+	// Flushing after every project would cost a write per project
+	private static final ObjectWriter PROJECT_WRITER = new ObjectMapper()
+			.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+			.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+	private final Iterable<GitHubProject> projects;
+
+	/**
+	 * @param projects
+	 *            the projects written by the directive
+	 */
+	public ProjectsJsonDirective(final Iterable<GitHubProject> projects) {
+		Preconditions.checkNotNull(projects, "projects == null");
+		this.projects = projects;
+	}
+
+	@Override
+	public void execute(final Environment env,
+			@SuppressWarnings("rawtypes") final Map params,
+			final TemplateModel[] loopVars, final TemplateDirectiveBody body)
+			throws TemplateException, IOException {
+		if (!params.isEmpty() || loopVars.length != 0 || body != null) {
+			throw new TemplateModelException(
+					"The projectsJson directive takes no parameters, loop variables or body.");
+		}
+		try (JsonGenerator generator = PROJECT_WRITER.getFactory()
+				.createGenerator(env.getOut())) {
+			generator.writeStartArray();
+			for (GitHubProject project : this.projects) {
+				PROJECT_WRITER.writeValue(generator, project);
+			}
+			generator.writeEndArray();
+		}
+	}
+}
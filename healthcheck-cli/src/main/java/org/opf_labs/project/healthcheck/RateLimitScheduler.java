@@ -0,0 +1,262 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Schedules GitHub API requests against the rate limit reported in the
+ * <code>X-RateLimit-Remaining</code> and <code>X-RateLimit-Reset</code>
+ * response headers. Rather than failing part way through a scan the scheduler:
+ * <ul>
+ * <li>paces requests across the rest of the reset window once the remaining
+ * quota drops below a low water mark,</li>
+ * <li>holds every request when the quota is exhausted, or a secondary limit
+ * asked us to back off, until the window resets,</li>
+ * <li>reserves the quota needed to finish the repositories already being
+ * scanned, new repositories wait in {@link #admitRepository()} so the calls
+ * for started repositories get priority.</li>
+ * </ul>
+ * All methods are thread safe. Waiting threads park on a lock condition
+ * rather than an object monitor, so a scan on virtual threads doesn't pin a
+ * carrier thread for every repository held until the reset.</p>
+ */
+public final class RateLimitScheduler {
+	/** GitHub header holding the request limit for the window */
+	public static final String HEADER_LIMIT = "X-RateLimit-Limit";
+	/** GitHub header holding the requests remaining in the window */
+	public static final String HEADER_REMAINING = "X-RateLimit-Remaining";
+	/** GitHub header holding the window reset time in epoch seconds */
+	public static final String HEADER_RESET = "X-RateLimit-Reset";
+
+	// Requests reserved for each repository being scanned
+	private static final int REQUESTS_PER_REPO = 3;
+	// Start pacing when less than this fraction of the limit remains
+	private static final int LOW_WATER_DIVISOR = 10;
+	private static final int UNKNOWN = -1;
+
+	private static final Logger LOGGER = Logger
+			.getLogger(RateLimitScheduler.class);
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// Signalled when the quota or the repositories in progress change
+	private final Condition changed = this.lock.newCondition();
+	private int limit = UNKNOWN;
+	private int remaining = UNKNOWN;
+	private long resetAt = 0L;
+	private long backOffUntil = 0L;
+	private long nextSlot = 0L;
+	private int activeRepos = 0;
+
+	/**
+	 * Blocks until a request can be made without exceeding the rate limit,
+	 * then counts the request against the remaining quota.
+	 *
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void beforeRequest() throws InterruptedIOException {
+		this.lock.lock();
+		try {
+			long wait;
+			while ((wait = requestDelay(System.currentTimeMillis())) > 0) {
+				await(wait);
+			}
+			if (this.remaining > 0) {
+				this.remaining--;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Blocks until there's enough quota left to scan another repository on
+	 * top of those already in progress. Every call must be paired with a call
+	 * to {@link #repositoryFinished()}.
+	 *
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void admitRepository() throws InterruptedIOException {
+		this.lock.lock();
+		try {
+			long now;
+			while ((this.remaining != UNKNOWN)
+					&& (this.remaining < (this.activeRepos + 1) * REQUESTS_PER_REPO)
+					&& ((now = System.currentTimeMillis()) < this.resetAt)) {
+				LOGGER.info("Rate limit low, holding new repositories until the reset");
+				await(this.resetAt - now);
+			}
+			this.activeRepos++;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases the quota reserved by {@link #admitRepository()}.
+	 */
+	public void repositoryFinished() {
+		this.lock.lock();
+		try {
+			Preconditions.checkState(this.activeRepos > 0, "activeRepos == 0");
+			this.activeRepos--;
+			this.changed.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Records the rate limit headers of a response.
+	 *
+	 * @param response
+	 *            a connection that has received its response headers
+	 */
+	public void update(final HttpURLConnection response) {
+		long newLimit = parseHeader(response, HEADER_LIMIT);
+		long newRemaining = parseHeader(response, HEADER_REMAINING);
+		long newReset = parseHeader(response, HEADER_RESET);
+		if (newRemaining == UNKNOWN || newReset == UNKNOWN) {
+			return;
+		}
+		update((int) newLimit, (int) newRemaining,
+				TimeUnit.SECONDS.toMillis(newReset));
+	}
+
+	void update(final int newLimit, final int newRemaining,
+			final long newResetAt) {
+		this.lock.lock();
+		try {
+			if (newResetAt > this.resetAt) {
+				// A new window, the header values replace ours
+				this.resetAt = newResetAt;
+				this.remaining = newRemaining;
+			} else {
+				// Responses arrive out of order, keep the lowest count
+				this.remaining = Math.min(this.remaining, newRemaining);
+			}
+			if (newLimit != UNKNOWN) {
+				this.limit = newLimit;
+			}
+			this.changed.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops all requests for a period, used when GitHub signals a secondary
+	 * rate limit with a Retry-After header.
+	 *
+	 * @param millis
+	 *            the number of milliseconds to back off for
+	 */
+	public void backOff(final long millis) {
+		Preconditions.checkArgument(millis >= 0, "millis < 0");
+		LOGGER.warn("GitHub asked us to back off for " + millis + "ms");
+		this.lock.lock();
+		try {
+			this.backOffUntil = Math.max(this.backOffUntil,
+					System.currentTimeMillis() + millis);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops all requests until the current rate limit window resets, used
+	 * when a request is refused because the quota is exhausted.
+	 */
+	public void exhausted() {
+		this.lock.lock();
+		try {
+			this.remaining = 0;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests remaining in the current window, or -1
+	 *         if no response has reported it yet
+	 */
+	public int getRemaining() {
+		this.lock.lock();
+		try {
+			return this.remaining;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the epoch time in milliseconds the current window resets at, 0
+	 *         if no response has reported it yet
+	 */
+	public long getResetAt() {
+		this.lock.lock();
+		try {
+			return this.resetAt;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	private long requestDelay(final long now) {
+		if (now < this.backOffUntil) {
+			return this.backOffUntil - now;
+		}
+		if (this.remaining == UNKNOWN || now >= this.resetAt) {
+			return 0L;
+		}
+		if (this.remaining == 0) {
+			LOGGER.info("Rate limit exhausted, waiting "
+					+ (this.resetAt - now) + "ms for the reset");
+			return this.resetAt - now;
+		}
+		if (this.limit != UNKNOWN
+				&& this.remaining < this.limit / LOW_WATER_DIVISOR) {
+			// Spread what's left evenly over the rest of the window
+			if (now < this.nextSlot) {
+				return this.nextSlot - now;
+			}
+			this.nextSlot = now + (this.resetAt - now) / (this.remaining + 1);
+		}
+		return 0L;
+	}
+
+	private void await(final long millis) throws InterruptedIOException {
+		try {
+			this.changed.await(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted waiting for the GitHub rate limit.");
+		}
+	}
+
+	private static long parseHeader(final HttpURLConnection response,
+			final String name) {
+		String value = response.getHeaderField(name);
+		if (value == null) {
+			return UNKNOWN;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException excep) {
+			LOGGER.debug("Bad " + name + " header: " + value);
+			return UNKNOWN;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.egit.github.core.User;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+/**
+ * Renders the HTML report from the FreeMarker templates. The configuration is
+ * set up and the index template parsed once, when the renderer's created, so
+ * a process rendering many reports, for several organisations or on every
+ * refresh of a server, only pays for template processing. A renderer is
+ * thread safe and can render concurrently.</p>
+ */
+public final class ReportRenderer {
+	/** Name of the organisation report template */
+	public static final String INDEX_TEMPLATE = "index.html";
+	/** Name of the multi-organisation index template */
+	public static final String ORGS_TEMPLATE = "orgs.html";
+
+	private static final String TEMPLATE_DIR = "/"
+			+ ReportRenderer.class.getPackage().getName().replace(".", "/")
+			+ "/templates";
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static ReportRenderer defaultInstance = null;
+
+	private final Configuration cfg;
+	private final Template indexTemplate;
+	private final Template orgsTemplate;
+
+	/**
+	 * Create a renderer for the templates packaged with the healthcheck,
+	 * parsing them straight away.
+	 *
+	 * @throws IOException
+	 *             if a template can't be loaded or has a syntax error
+	 */
+	public ReportRenderer() throws IOException {
+		this.cfg = new Configuration();
+		this.cfg.setOutputEncoding("utf-8");
+		this.cfg.setDefaultEncoding("utf-8");
+		// Templates aren't localised, don't look for index_en_GB.html and so on
+		this.cfg.setLocalizedLookup(false);
+		this.cfg.setClassForTemplateLoading(ReportRenderer.class, TEMPLATE_DIR);
+		this.indexTemplate = this.cfg.getTemplate(INDEX_TEMPLATE);
+		this.orgsTemplate = this.cfg.getTemplate(ORGS_TEMPLATE);
+	}
+
+	/**
+	 * @return the renderer shared by the process, created on first use
+	 * @throws IOException
+	 *             if the templates can't be loaded
+	 */
+	public static synchronized ReportRenderer defaultInstance()
+			throws IOException {
+		if (defaultInstance == null) {
+			defaultInstance = new ReportRenderer();
+		}
+		return defaultInstance;
+	}
+
+	/**
+	 * Render the HTML report for an organisation.
+	 *
+	 * @param user
+	 *            the GitHub user or organisation the report is for
+	 * @param projects
+	 *            the user's projects
+	 * @param out
+	 *            the writer the report's written to, not closed
+	 * @throws IOException
+	 *             if the report can't be written
+	 * @throws TemplateException
+	 *             if the template can't be processed
+	 */
+	public void renderHtml(final User user, final List<GitHubProject> projects,
+			final Writer out) throws IOException, TemplateException {
+		Preconditions.checkNotNull(user, "user == null");
+		Preconditions.checkNotNull(projects, "projects == null");
+		Preconditions.checkNotNull(out, "out == null");
+		Map<String, Object> templateData = new HashMap<>();
+		templateData.put("user", user);
+		templateData.put("userJson", MAPPER.writeValueAsString(user));
+		Set<String> vendors = new TreeSet<>();
+		for (GitHubProject project : projects) {
+			if (project.metadata != ProjectMetadata.defaultInstance()) {
+				vendors.add(project.metadata.vendor);
+			}
+		}
+		// Projects are serialised straight into the output as the template reaches them
+		templateData.put("projectsJson", new ProjectsJsonDirective(projects));
+		templateData.put("vendors", vendors);
+		this.indexTemplate.process(templateData, out);
+	}
+
+	/**
+	 * Render the index page of a multi-organisation batch, linking the
+	 * reports of the organisations.
+	 *
+	 * @param reports
+	 *            the organisation reports to link
+	 * @param out
+	 *            the writer the index is written to, not closed
+	 * @throws IOException
+	 *             if the index can't be written
+	 * @throws TemplateException
+	 *             if the template can't be processed
+	 */
+	public void renderIndex(final List<OrgBatch.OrgReport> reports,
+			final Writer out) throws IOException, TemplateException {
+		Preconditions.checkNotNull(reports, "reports == null");
+		Preconditions.checkNotNull(out, "out == null");
+		Map<String, Object> templateData = new HashMap<>();
+		templateData.put("reports", reports);
+		this.orgsTemplate.process(templateData, out);
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.client.GitHubClient;
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
+import org.eclipse.egit.github.core.client.PageLinks;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Lists an organisation's repositories a page at a time, fetching the pages
+ * after the first in parallel. The first page's Link header gives the number
+ * of the last page, so every other page is requested as soon as the first
+ * arrives rather than each waiting for the one before. Pages are handed out
+ * in listing order as each arrives, the scan can start on the first page's
+ * repositories while later pages are still downloading, and listing a large
+ * organisation takes about two round trips rather than one per page. Pages
+ * are listed in name order, so a repository created since a journaled listing
+ * only shifts the ones sorting after it rather than every page.</p>
+ */
+final class RepositoryPages implements Closeable {
+	/** Repositories per page, GitHub's maximum */
+	static final int PAGE_SIZE = 100;
+	/** Most pages fetched at once */
+	static final int MAX_PAGE_THREADS = 4;
+
+	private static final String PAGE_PARAM = "page";
+	private static final String PER_PAGE_PARAM = "per_page";
+	private static final String SORT_PARAM = "sort";
+	private static final String DIRECTION_PARAM = "direction";
+
+	private static final Logger LOGGER = Logger.getLogger(RepositoryPages.class);
+
+	private final List<List<Repository>> journaledPages;
+	private final List<Repository> firstPage;
+	private final List<Future<List<Repository>>> laterPages = new ArrayList<>();
+	private final ExecutorService executor;
+	private final int pageCount;
+	private int nextPage = 0;
+
+	private RepositoryPages(final GitHubClient ghClient, final String login,
+			final List<List<Repository>> journaledPages,
+			final int journaledPageCount) throws IOException {
+		this.journaledPages = journaledPages;
+		int firstNumber = journaledPages.size() + 1;
+		if (!journaledPages.isEmpty() && firstNumber > journaledPageCount) {
+			// The whole listing was journaled
+			this.firstPage = null;
+			this.executor = null;
+			this.pageCount = journaledPages.size();
+			return;
+		}
+		GitHubResponse first = ghClient.get(pageRequest(login, firstNumber));
+		this.firstPage = new ArrayList<>();
+		if (!journaledPages.isEmpty()) {
+			// Repositories deleted since the journal was written shift later
+			// ones back onto its last page, which is listed again for them
+			this.firstPage.addAll(unjournaled(
+					pageOf(ghClient.get(pageRequest(login, firstNumber - 1))),
+					journaledPages));
+		}
+		this.firstPage.addAll(pageOf(first));
+		int lastPage = lastPage(first, firstNumber);
+		this.pageCount = lastPage;
+		if (lastPage <= firstNumber) {
+			this.executor = null;
+			return;
+		}
+		LOGGER.debug("Fetching " + (lastPage - firstNumber)
+				+ " more listing pages for " + login);
+		this.executor = Executors.newFixedThreadPool(
+				Math.min(MAX_PAGE_THREADS, lastPage - firstNumber),
+				new ThreadFactoryBuilder().setNameFormat("repo-listing-%d")
+						.setDaemon(true).build());
+		for (int page = firstNumber + 1; page <= lastPage; page++) {
+			final GitHubRequest request = pageRequest(login, page);
+			this.laterPages.add(this.executor
+					.submit(new Callable<List<Repository>>() {
+						@Override
+						public List<Repository> call() throws IOException {
+							return pageOf(ghClient.get(request));
+						}
+					}));
+		}
+	}
+
+	/**
+	 * Requests the first page of an organisation's repositories and starts
+	 * fetching the rest.
+	 *
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param login
+	 *            the organisation's login
+	 * @return the listing, close it to stop any page fetches still running
+	 * @throws IOException
+	 *             if the first page can't be fetched
+	 */
+	static RepositoryPages open(final GitHubClient ghClient, final String login)
+			throws IOException {
+		return resume(ghClient, login, Collections.<List<Repository>> emptyList(), 0);
+	}
+
+	/**
+	 * Resumes a listing from the pages a {@link ScanJournal} holds. The
+	 * journaled pages are handed out first and only the pages after them are
+	 * requested, none at all if the journal holds the whole listing. The last
+	 * journaled page is requested again and any repositories on it the journal
+	 * doesn't hold are handed out with the next page, so none are skipped when
+	 * repositories sorting before them were deleted in between. Repositories
+	 * created in between can push journaled ones onto later pages, callers
+	 * should skip repositories they've already been handed.
+	 *
+	 * @param ghClient
+	 *            an EGit GitHub client object, holds credentials for gitHub
+	 *            connection.
+	 * @param login
+	 *            the organisation's login
+	 * @param journaledPages
+	 *            the first pages of the listing, may be empty
+	 * @param journaledPageCount
+	 *            the number of pages in the listing when they were journaled
+	 * @return the listing, close it to stop any page fetches still running
+	 * @throws IOException
+	 *             if the first page after the journaled ones can't be fetched
+	 */
+	static RepositoryPages resume(final GitHubClient ghClient,
+			final String login, final List<List<Repository>> journaledPages,
+			final int journaledPageCount) throws IOException {
+		Preconditions.checkNotNull(ghClient, "ghClient == null");
+		Preconditions.checkNotNull(login, "login == null");
+		Preconditions.checkNotNull(journaledPages, "journaledPages == null");
+		return new RepositoryPages(ghClient, login, journaledPages,
+				journaledPageCount);
+	}
+
+	/**
+	 * @return the next page of repositories in listing order, waiting for it
+	 *         to arrive if need be, or null after the last page
+	 * @throws IOException
+	 *             if the page couldn't be fetched or the wait's interrupted
+	 */
+	List<Repository> next() throws IOException {
+		int page = this.nextPage++;
+		if (page < this.journaledPages.size()) {
+			return this.journaledPages.get(page);
+		}
+		if (page >= this.pageCount) {
+			return null;
+		}
+		if (page == this.journaledPages.size()) {
+			return this.firstPage;
+		}
+		try {
+			return this.laterPages.get(page - this.journaledPages.size() - 1)
+					.get();
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Repository listing interrupted.");
+		} catch (ExecutionException excep) {
+			Throwables.propagateIfPossible(excep.getCause(), IOException.class);
+			throw new IOException(excep.getCause());
+		}
+	}
+
+	/**
+	 * @return the number of pages in the listing
+	 */
+	int getPageCount() {
+		return this.pageCount;
+	}
+
+	@Override
+	public void close() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	private static GitHubRequest pageRequest(final String login, final int page) {
+		Map<String, String> params = new HashMap<>();
+		params.put(PER_PAGE_PARAM, Integer.toString(PAGE_SIZE));
+		params.put(PAGE_PARAM, Integer.toString(page));
+		// The default newest first order shifts with every repository created
+		params.put(SORT_PARAM, "full_name");
+		params.put(DIRECTION_PARAM, "asc");
+		return new GitHubRequest().setUri("/orgs/" + login + "/repos")
+				.setParams(params)
+				.setType(new TypeToken<List<Repository>>() {/** Type token */}
+						.getType());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Repository> pageOf(final GitHubResponse response) {
+		List<Repository> page = (List<Repository>) response.getBody();
+		return (page == null) ? new ArrayList<Repository>() : page;
+	}
+
+	private static List<Repository> unjournaled(final List<Repository> page,
+			final List<List<Repository>> journaledPages) {
+		Set<String> journaled = new HashSet<>();
+		for (List<Repository> journaledPage : journaledPages) {
+			for (Repository repo : journaledPage) {
+				journaled.add(repo.getOwner().getLogin() + "/" + repo.getName());
+			}
+		}
+		List<Repository> unjournaled = new ArrayList<>();
+		for (Repository repo : page) {
+			if (!journaled.contains(repo.getOwner().getLogin() + "/"
+					+ repo.getName())) {
+				unjournaled.add(repo);
+			}
+		}
+		return unjournaled;
+	}
+
+	/**
+	 * Reads the number of the last page from the rel="last" link, GitHub
+	 * leaves it off the last page itself.
+	 */
+	private static int lastPage(final GitHubResponse response,
+			final int page) throws IOException {
+		String last = new PageLinks(response).getLast();
+		if (last == null) {
+			return page;
+		}
+		for (String param : Splitter.on('&').split(
+				last.substring(last.indexOf('?') + 1))) {
+			if (param.startsWith(PAGE_PARAM + "=")) {
+				try {
+					return Integer.parseInt(param.substring(PAGE_PARAM.length() + 1));
+				} catch (NumberFormatException excep) {
+					break;
+				}
+			}
+		}
+		// Guessing would silently drop pages
+		throw new IOException("Malformed last page link " + last);
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Persistent, size bounded, on-disk cache of GitHub API response bodies. Each
+ * entry is held in its own file named from a SHA-1 of the request key and
+ * records the ETag, Last-Modified and Link headers of the response so that
+ * conditional requests can be made and pagination still works when GitHub
+ * answers with a 304 Not Modified.</p>
+ *
+ * When the total size of the entries exceeds the configured maximum the least
+ * recently used entries are removed, usage is tracked through the file
+ * modification time so it survives between runs.</p>
+ */
+public final class ResponseCache {
+	private static final String ENTRY_EXT = ".entry";
+	private static final String TEMP_EXT = ".tmp";
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Logger LOGGER = Logger.getLogger(ResponseCache.class);
+
+	private final File cacheDir;
+	private final long maxBytes;
+	private long currentBytes = 0L;
+
+	/**
+	 * Immutable cached response, the validators and the body bytes.
+	 */
+	public static final class Entry {
+		final String etag;
+		final String lastModified;
+		final String link;
+		final byte[] body;
+
+		Entry(final String etag, final String lastModified, final String link,
+				final byte[] body) {
+			this.etag = Strings.nullToEmpty(etag);
+			this.lastModified = Strings.nullToEmpty(lastModified);
+			this.link = Strings.nullToEmpty(link);
+			this.body = body;
+		}
+	}
+
+	/**
+	 * An entry file with its last modified time and length as they were
+	 * when it was listed.
+	 */
+	private static final class EntryStat {
+		final File file;
+		final long lastModified;
+		final long length;
+
+		EntryStat(final File file) {
+			this.file = file;
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+		}
+	}
+
+	/**
+	 * @param cacheDir
+	 *            the directory to hold the cache entries, created if it
+	 *            doesn't exist
+	 * @param maxBytes
+	 *            the maximum total size of cached entries in bytes
+	 * @throws IOException
+	 *             if the cache directory can't be created
+	 */
+	public ResponseCache(final File cacheDir, final long maxBytes)
+			throws IOException {
+		Preconditions.checkNotNull(cacheDir, "cacheDir == null");
+		Preconditions.checkArgument(maxBytes > 0, "maxBytes < 1");
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			throw new IOException("Couldn't create cache directory "
+					+ cacheDir.getAbsolutePath());
+		}
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+		for (File entryFile : listEntries()) {
+			this.currentBytes += entryFile.length();
+		}
+	}
+
+	/**
+	 * Look up the cached response for a request key.
+	 *
+	 * @param key
+	 *            the request key, typically the request URI and accept type
+	 * @return the cached entry or null if there isn't one
+	 */
+	public Entry get(final String key) {
+		File entryFile = entryFile(key);
+		if (!entryFile.isFile()) {
+			return null;
+		}
+		try (CountingInputStream counter = new CountingInputStream(
+				new BufferedInputStream(new FileInputStream(entryFile)));
+				DataInputStream in = new DataInputStream(counter)) {
+			if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+				return null;
+			}
+			String etag = in.readUTF();
+			String lastModified = in.readUTF();
+			String link = in.readUTF();
+			int length = in.readInt();
+			// A torn or corrupt entry mustn't size the allocation
+			if (length != entryFile.length() - counter.getCount()) {
+				throw new IOException("Body length " + length
+						+ " doesn't match the entry's size");
+			}
+			byte[] body = new byte[length];
+			in.readFully(body);
+			// Touch the entry so it's treated as recently used
+			if (!entryFile.setLastModified(System.currentTimeMillis())) {
+				LOGGER.debug("Couldn't touch cache entry " + entryFile.getName());
+			}
+			return new Entry(etag, lastModified, link, body);
+		} catch (IOException excep) {
+			LOGGER.warn("Discarding unreadable cache entry "
+					+ entryFile.getName() + ": " + excep.getMessage());
+			discard(entryFile);
+			return null;
+		}
+	}
+
+	/**
+	 * Store a response, replacing any existing entry for the key.
+	 *
+	 * @param key
+	 *            the request key, typically the request URI and accept type
+	 * @param entry
+	 *            the response validators and body to cache
+	 */
+	public void put(final String key, final Entry entry) {
+		Preconditions.checkNotNull(key, "key == null");
+		Preconditions.checkNotNull(entry, "entry == null");
+		File entryFile = entryFile(key);
+		File tempFile = new File(this.cacheDir, entryFile.getName() + "."
+				+ Thread.currentThread().getId() + TEMP_EXT);
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(key);
+				out.writeUTF(entry.etag);
+				out.writeUTF(entry.lastModified);
+				out.writeUTF(entry.link);
+				out.writeInt(entry.body.length);
+				out.write(entry.body);
+			}
+			synchronized (this) {
+				long replaced = entryFile.length();
+				Files.move(tempFile.toPath(), entryFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				this.currentBytes += entryFile.length() - replaced;
+				if (this.currentBytes > this.maxBytes) {
+					evict();
+				}
+			}
+		} catch (IOException excep) {
+			LOGGER.warn("Couldn't write cache entry for " + key + ": "
+					+ excep.getMessage());
+			remove(tempFile);
+		}
+	}
+
+	/**
+	 * @return the total size of the cached entries in bytes
+	 */
+	public synchronized long size() {
+		return this.currentBytes;
+	}
+
+	private synchronized void discard(final File entryFile) {
+		long length = entryFile.length();
+		if (remove(entryFile)) {
+			this.currentBytes -= length;
+		}
+	}
+
+	private void evict() {
+		// Read each entry's time and size once, get touches entries without
+		// the lock and a time that changes mid sort breaks the comparator
+		File[] files = listEntries();
+		EntryStat[] entries = new EntryStat[files.length];
+		for (int index = 0; index < files.length; index++) {
+			entries[index] = new EntryStat(files[index]);
+		}
+		Arrays.sort(entries, new Comparator<EntryStat>() {
+			@Override
+			public int compare(final EntryStat first, final EntryStat second) {
+				return Long.compare(first.lastModified, second.lastModified);
+			}
+		});
+		// Trim to three quarters of the limit so we don't evict on every put
+		long target = this.maxBytes - (this.maxBytes / 4);
+		for (EntryStat entry : entries) {
+			if (this.currentBytes <= target) {
+				break;
+			}
+			if (remove(entry.file)) {
+				this.currentBytes -= entry.length;
+			}
+		}
+	}
+
+	private File[] listEntries() {
+		File[] entries = this.cacheDir.listFiles();
+		if (entries == null) {
+			return new File[0];
+		}
+		int count = 0;
+		for (File entry : entries) {
+			if (entry.getName().endsWith(ENTRY_EXT)) {
+				entries[count++] = entry;
+			}
+		}
+		return Arrays.copyOf(entries, count);
+	}
+
+	private File entryFile(final String key) {
+		return new File(this.cacheDir, DigestUtils.sha1Hex(key) + ENTRY_EXT);
+	}
+
+	private static boolean remove(final File file) {
+		if (file.exists() && !file.delete()) {
+			LOGGER.warn("Couldn't delete cache file " + file.getAbsolutePath());
+			return false;
+		}
+		return true;
+	}
+}
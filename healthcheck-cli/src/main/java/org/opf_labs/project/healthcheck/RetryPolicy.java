@@ -0,0 +1,194 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Immutable policy for retrying remote calls that failed for reasons that
+ * may pass, a dropped connection, a timeout or a 5xx from the server. A call
+ * is retried a bounded number of times with exponential back off, each delay
+ * is drawn at random between zero and the exponential bound so the threads of
+ * a scan that failed together don't retry together and fail again.</p>
+ *
+ * A 429 is retried too, after the delay its Retry-After header asks for in
+ * place of the drawn one. A Retry-After longer than the policy's maximum
+ * delay isn't waited for, the call fails rather than hold a thread that
+ * long. GitHub's rate limits are waited out by the
+ * {@link RateLimitScheduler} before this policy's asked.</p>
+ */
+public final class RetryPolicy {
+	/** Default number of retries after the first attempt */
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	/** Default bound on the delay before the first retry in milliseconds */
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 500L;
+	/** Default bound on any delay in milliseconds */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 10000L;
+	/** Header giving the seconds to wait before retrying a refused request */
+	static final String HEADER_RETRY_AFTER = "Retry-After";
+	/** Status of a request refused by a rate limit */
+	static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	private static final RetryPolicy DEFAULT_INSTANCE = new RetryPolicy(
+			DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS,
+			DEFAULT_MAX_DELAY_MILLIS);
+	private static final RetryPolicy NONE = new RetryPolicy(0, 0L, 0L);
+
+	private final int maxRetries;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	/**
+	 * @param maxRetries
+	 *            the number of retries after the first attempt
+	 * @param baseDelayMillis
+	 *            the bound on the delay before the first retry, doubled for
+	 *            each retry after
+	 * @param maxDelayMillis
+	 *            the bound on any delay
+	 */
+	public RetryPolicy(final int maxRetries, final long baseDelayMillis,
+			final long maxDelayMillis) {
+		Preconditions.checkArgument(maxRetries >= 0, "maxRetries < 0");
+		Preconditions.checkArgument(baseDelayMillis >= 0, "baseDelayMillis < 0");
+		Preconditions.checkArgument(maxDelayMillis >= baseDelayMillis,
+				"maxDelayMillis < baseDelayMillis");
+		this.maxRetries = maxRetries;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @return the default policy, three retries starting from a delay of up
+	 *         to half a second
+	 */
+	public static RetryPolicy defaultInstance() {
+		return DEFAULT_INSTANCE;
+	}
+
+	/**
+	 * @return a policy that never retries
+	 */
+	public static RetryPolicy none() {
+		return NONE;
+	}
+
+	/**
+	 * @param attempt
+	 *            the number of the attempt that failed, counting from 0
+	 * @return true if the call should be retried
+	 */
+	public boolean canRetry(final int attempt) {
+		return attempt < this.maxRetries;
+	}
+
+	/**
+	 * @param attempt
+	 *            the number of the attempt that failed, counting from 0
+	 * @param retryAfter
+	 *            the failed response's Retry-After header, may be null
+	 * @return true if the call should be retried, false if it's out of
+	 *         retries or the server asked for a longer wait than the
+	 *         maximum delay
+	 */
+	public boolean canRetry(final int attempt, final String retryAfter) {
+		return canRetry(attempt)
+				&& retryAfterMillis(retryAfter) <= this.maxDelayMillis;
+	}
+
+	/**
+	 * @param attempt
+	 *            the number of the attempt that failed, counting from 0
+	 * @return the delay before the retry in milliseconds, drawn from between
+	 *         zero and the exponential bound for the attempt
+	 */
+	public long delayMillis(final int attempt) {
+		Preconditions.checkArgument(attempt >= 0, "attempt < 0");
+		// Shifting past the bound's width would overflow
+		long bound = (attempt >= Long.SIZE - 2
+				|| this.baseDelayMillis > (this.maxDelayMillis >> attempt))
+				? this.maxDelayMillis : this.baseDelayMillis << attempt;
+		return (bound == 0) ? 0L : ThreadLocalRandom.current().nextLong(
+				bound + 1);
+	}
+
+	/**
+	 * Sleeps for the delay before retrying a failed attempt.
+	 *
+	 * @param attempt
+	 *            the number of the attempt that failed, counting from 0
+	 * @throws InterruptedIOException
+	 *             if interrupted while waiting
+	 */
+	public void backOff(final int attempt) throws InterruptedIOException {
+		sleep(delayMillis(attempt));
+	}
+
+	/**
+	 * Sleeps for the delay before retrying a failed attempt, the delay the
+	 * response's Retry-After header asks for if it has one.
+	 *
+	 * @param attempt
+	 *            the number of the attempt that failed, counting from 0
+	 * @param retryAfter
+	 *            the failed response's Retry-After header, may be null
+	 * @throws InterruptedIOException
+	 *             if interrupted while waiting
+	 */
+	public void backOff(final int attempt, final String retryAfter)
+			throws InterruptedIOException {
+		long delay = retryAfterMillis(retryAfter);
+		sleep((delay < 0) ? delayMillis(attempt) : delay);
+	}
+
+	/**
+	 * @param retryAfter
+	 *            a Retry-After header in seconds, may be null
+	 * @return the header's delay in milliseconds, -1 if there's no header or
+	 *         it can't be read
+	 */
+	static long retryAfterMillis(final String retryAfter) {
+		if (retryAfter == null) {
+			return -1L;
+		}
+		try {
+			long seconds = Long.parseLong(retryAfter.trim());
+			return (seconds < 0) ? -1L : TimeUnit.SECONDS.toMillis(seconds);
+		} catch (NumberFormatException excep) {
+			// An HTTP date, GitHub and Travis only send seconds
+			return -1L;
+		}
+	}
+
+	private static void sleep(final long delay) throws InterruptedIOException {
+		if (delay == 0) {
+			return;
+		}
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting to retry.");
+		}
+	}
+
+	/**
+	 * @param status
+	 *            an HTTP response status
+	 * @return true if the status is a server error or rate limit that may
+	 *         pass
+	 */
+	public static boolean isRetryable(final int status) {
+		return status == HTTP_TOO_MANY_REQUESTS
+				|| status == HttpURLConnection.HTTP_INTERNAL_ERROR
+				|| status == HttpURLConnection.HTTP_BAD_GATEWAY
+				|| status == HttpURLConnection.HTTP_UNAVAILABLE
+				|| status == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+	}
+}
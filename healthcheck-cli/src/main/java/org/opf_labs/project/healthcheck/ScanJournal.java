@@ -0,0 +1,328 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.eclipse.egit.github.core.Repository;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+/**
+ * Checkpoint journal of an organisation scan, so a scan that's killed part
+ * way through, by a deploy or a rate limit it can't wait out, resumes where
+ * it stopped rather than starting again. The journal records the repository
+ * listing pages the scan has worked through, the listing cursor, and every
+ * project it's finished. A resumed scan takes the journaled pages and
+ * projects in place of the requests that fetched them.</p>
+ *
+ * The journal's a file of JSON lines, a header naming the owner and one line
+ * per listing page or project. Each line's forced to disk before the append
+ * returns, so after a crash the journal holds everything the scan recorded
+ * but a torn last line, which is dropped when the journal's opened. A
+ * journal for another owner, in another format or older than
+ * {@link #MAX_AGE_MILLIS} is discarded and the scan starts afresh. A scan
+ * that completes deletes its journal.</p>
+ */
+final class ScanJournal implements Closeable {
+	/** Oldest journal a scan resumes from, the listing's likely moved on */
+	static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(24L);
+
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".journal";
+	private static final String LOGIN_FIELD = "login";
+	private static final String VERSION_FIELD = "version";
+	private static final String STARTED_FIELD = "started";
+	private static final String PAGE_FIELD = "page";
+	private static final String PAGE_COUNT_FIELD = "pageCount";
+	private static final String REPOS_FIELD = "repos";
+	private static final String PROJECT_FIELD = "project";
+
+	// One entry per line
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	static {
+		MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+	}
+
+	private static final Logger LOGGER = Logger.getLogger(ScanJournal.class);
+
+	private final File file;
+	private final RandomAccessFile journal;
+	private final List<List<Repository>> listedPages = new ArrayList<>();
+	private final Map<String, GitHubProject> completed = new HashMap<>();
+	private int pageCount = 0;
+	// Pages are only journaled while the cursor's unbroken
+	private boolean listingBroken = false;
+
+	private ScanJournal(final File file, final String login) throws IOException {
+		this.file = file;
+		this.journal = new RandomAccessFile(file, "rw");
+		long valid = load(login);
+		if (valid == 0L) {
+			this.journal.setLength(0L);
+			ObjectNode header = MAPPER.createObjectNode();
+			header.put(LOGIN_FIELD, login);
+			header.put(VERSION_FIELD, VERSION);
+			header.put(STARTED_FIELD, System.currentTimeMillis());
+			append(header);
+		} else {
+			if (valid > this.journal.length()) {
+				// The last entry's whole but for its newline
+				append(null);
+			} else {
+				this.journal.setLength(valid);
+			}
+			LOGGER.info("Resuming scan of " + login + " from "
+					+ this.listedPages.size() + " of " + this.pageCount
+					+ " listing pages and " + this.completed.size()
+					+ " scanned projects");
+		}
+	}
+
+	/**
+	 * Opens the journal for an owner's scan, creating the directory and the
+	 * journal if need be.
+	 *
+	 * @param dir
+	 *            the directory holding the journals
+	 * @param login
+	 *            the GitHub login of the owner being scanned
+	 * @return the open journal, holding the pages and projects to resume from
+	 * @throws IOException
+	 *             if the directory can't be created or the journal opened
+	 */
+	static ScanJournal open(final File dir, final String login)
+			throws IOException {
+		Preconditions.checkNotNull(dir, "dir == null");
+		Preconditions.checkNotNull(login, "login == null");
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can't create journal directory "
+					+ dir.getAbsolutePath());
+		}
+		return new ScanJournal(new File(dir, login + SUFFIX), login);
+	}
+
+	/**
+	 * @return the journaled listing pages in listing order, their private
+	 *         repositories left out
+	 */
+	synchronized List<List<Repository>> getListedPages() {
+		return Collections.unmodifiableList(new ArrayList<>(this.listedPages));
+	}
+
+	/**
+	 * @return the number of pages in the listing when the last page was
+	 *         journaled, 0 if none were
+	 */
+	synchronized int getPageCount() {
+		return this.pageCount;
+	}
+
+	/**
+	 * @param owner
+	 *            the login of the repository owner
+	 * @param name
+	 *            the repository name
+	 * @return the journaled project for the repository, or null if it wasn't
+	 *         finished
+	 */
+	synchronized GitHubProject getCompleted(final String owner,
+			final String name) {
+		return this.completed.get(owner + "/" + name);
+	}
+
+	/**
+	 * Journals a listing page the scan's worked through. Pages already
+	 * journaled are ignored, as is every page after one that couldn't be
+	 * listed.
+	 *
+	 * @param pageNumber
+	 *            the number of the page, counting from 1
+	 * @param pages
+	 *            the number of pages in the listing
+	 * @param page
+	 *            the page's repositories, null if the page couldn't be listed
+	 * @throws IOException
+	 *             if the page can't be journaled
+	 */
+	synchronized void pageListed(final int pageNumber, final int pages,
+			final List<Repository> page) throws IOException {
+		if (pageNumber <= this.listedPages.size() || this.listingBroken) {
+			return;
+		}
+		if (page == null || pageNumber != this.listedPages.size() + 1) {
+			this.listingBroken = true;
+			return;
+		}
+		List<Repository> listed = new ArrayList<>();
+		ArrayNode repos = MAPPER.createArrayNode();
+		for (Repository repo : page) {
+			if (repo.isPrivate()) {
+				continue;
+			}
+			listed.add(repo);
+			repos.add(MAPPER.valueToTree(GitHubProjects.listedProject(repo)));
+		}
+		ObjectNode entry = MAPPER.createObjectNode();
+		entry.put(PAGE_FIELD, pageNumber);
+		entry.put(PAGE_COUNT_FIELD, pages);
+		entry.put(REPOS_FIELD, repos);
+		append(entry);
+		this.listedPages.add(listed);
+		this.pageCount = pages;
+	}
+
+	/**
+	 * Journals a finished project.
+	 *
+	 * @param project
+	 *            the project
+	 * @throws IOException
+	 *             if the project can't be journaled
+	 */
+	synchronized void projectDone(final GitHubProject project)
+			throws IOException {
+		ObjectNode entry = MAPPER.createObjectNode();
+		entry.put(PROJECT_FIELD, MAPPER.valueToTree(project));
+		append(entry);
+		this.completed.put(project.ownerLogin + "/" + project.name, project);
+	}
+
+	/**
+	 * Closes and deletes the journal once the scan's complete, there's
+	 * nothing left to resume.
+	 *
+	 * @throws IOException
+	 *             if the journal can't be deleted
+	 */
+	synchronized void finish() throws IOException {
+		close();
+		if (!this.file.delete() && this.file.exists()) {
+			throw new IOException("Can't delete journal "
+					+ this.file.getAbsolutePath());
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.journal.close();
+	}
+
+	/**
+	 * Appends an entry as a line and forces it to disk, a null entry appends
+	 * just the newline.
+	 */
+	private void append(final JsonNode entry) throws IOException {
+		String text = (entry == null) ? "" : MAPPER.writeValueAsString(entry);
+		ByteBuffer line = ByteBuffer.wrap((text + "\n").getBytes(Charsets.UTF_8));
+		FileChannel channel = this.journal.getChannel();
+		long position = channel.size();
+		while (line.hasRemaining()) {
+			position += channel.write(line, position);
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Reads the journal, returning the length of its readable lines with
+	 * their newlines or 0 if there's nothing to resume from.
+	 */
+	private long load(final String login) throws IOException {
+		long valid = 0L;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(this.file), Charsets.UTF_8))) {
+			String line = reader.readLine();
+			if (line == null || !isCurrent(line, login)) {
+				return 0L;
+			}
+			valid = line.getBytes(Charsets.UTF_8).length + 1;
+			while ((line = reader.readLine()) != null) {
+				try {
+					readEntry(MAPPER.readTree(line));
+				} catch (IOException excep) {
+					// A torn last line or an entry that can't be mapped back,
+					// nothing after it's trusted
+					LOGGER.debug("Dropping journal entry: " + excep.getMessage());
+					break;
+				}
+				valid += line.getBytes(Charsets.UTF_8).length + 1;
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Records a page or project entry read from the journal, mapping the
+	 * whole entry before recording any of it.
+	 */
+	private void readEntry(final JsonNode entry) throws IOException {
+		if (entry == null) {
+			throw new IOException("Empty journal entry");
+		}
+		if (entry.has(PROJECT_FIELD)) {
+			GitHubProject project = toProject(entry.get(PROJECT_FIELD));
+			this.completed.put(project.ownerLogin + "/" + project.name, project);
+		} else if (entry.has(PAGE_FIELD)) {
+			JsonNode pages = entry.get(PAGE_COUNT_FIELD);
+			JsonNode repos = entry.get(REPOS_FIELD);
+			if (pages == null || !pages.isInt() || repos == null
+					|| !repos.isArray()) {
+				throw new IOException("Malformed journal page entry " + entry);
+			}
+			List<Repository> listed = new ArrayList<>();
+			for (JsonNode repo : repos) {
+				listed.add(GitHubProjects.toRepository(toProject(repo)));
+			}
+			this.listedPages.add(listed);
+			this.pageCount = pages.asInt();
+		}
+	}
+
+	private static GitHubProject toProject(final JsonNode node)
+			throws IOException {
+		// Jackson wraps a creator's failed checks in a mapping exception
+		GitHubProject project = MAPPER.treeToValue(node, GitHubProject.class);
+		if (project == null) {
+			throw new IOException("Null journal project");
+		}
+		return project;
+	}
+
+	private static boolean isCurrent(final String header, final String login) {
+		try {
+			JsonNode node = MAPPER.readTree(header);
+			if (node != null && login.equals(node.path(LOGIN_FIELD).asText())
+					&& node.path(VERSION_FIELD).asInt() == VERSION
+					&& System.currentTimeMillis()
+							- node.path(STARTED_FIELD).asLong() <= MAX_AGE_MILLIS) {
+				return true;
+			}
+		} catch (IOException excep) {
+			LOGGER.debug("Unreadable journal header: " + excep.getMessage());
+		}
+		LOGGER.info("Discarding journal " + header + ", starting afresh");
+		return false;
+	}
+}
@@ -0,0 +1,418 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Preconditions;
+
+/**
+ * Counts and times the remote calls made during a scan so a slow run can be
+ * traced to the calls responsible. Calls are grouped by type, for each type
+ * the metrics hold the number of calls and failures, a latency histogram,
+ * the response bytes read and, for GitHub calls answered from the response
+ * cache, the cache hits and misses. The lowest and latest GitHub rate limit
+ * remaining are kept too.</p>
+ *
+ * Latencies are bucketed on fixed boundaries from 1ms to 60s so recording
+ * is a few atomic increments and the percentiles reported are the upper
+ * bound of the bucket they fall in. All methods are thread safe.</p>
+ */
+public final class ScanMetrics {
+	/** GitHub user or organisation lookups */
+	public static final String GITHUB_USER = "github.user";
+	/** GitHub repository listing pages */
+	public static final String GITHUB_LISTING = "github.listing";
+	/** GitHub single repository lookups */
+	public static final String GITHUB_REPOSITORY = "github.repository";
+	/** GitHub contents lookups, root listings and metadata files */
+	public static final String GITHUB_CONTENTS = "github.contents";
+	/** GitHub git tree lookups */
+	public static final String GITHUB_TREE = "github.tree";
+	/** GitHub commit lookups */
+	public static final String GITHUB_COMMITS = "github.commits";
+	/** GitHub GraphQL queries */
+	public static final String GITHUB_GRAPHQL = "github.graphql";
+	/** Any other GitHub call */
+	public static final String GITHUB_OTHER = "github.other";
+	/** Travis CI repository lookups */
+	public static final String TRAVIS_REPO = "travis.repo";
+
+	// Upper bounds of the latency buckets in milliseconds, the last bucket's unbounded
+	private static final long[] BUCKET_MILLIS = { 1L, 2L, 5L, 10L, 20L, 50L,
+			100L, 200L, 500L, 1000L, 2000L, 5000L, 10000L, 30000L, 60000L };
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+	private static final int UNKNOWN = -1;
+
+	private static final Pattern USER_PATH = Pattern
+			.compile("/(users|orgs)/[^/]+");
+	private static final Pattern LISTING_PATH = Pattern
+			.compile("/(users|orgs)/[^/]+/repos");
+	private static final Pattern REPOSITORY_PATH = Pattern
+			.compile("/repos/[^/]+/[^/]+");
+	private static final Pattern CONTENTS_PATH = Pattern
+			.compile("/repos/[^/]+/[^/]+/contents(/.*)?");
+	private static final Pattern TREE_PATH = Pattern
+			.compile("/repos/[^/]+/[^/]+/git/trees/.*");
+	private static final Pattern COMMITS_PATH = Pattern
+			.compile("/repos/[^/]+/[^/]+/commits(/.*)?");
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	static {
+		MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+		MAPPER.enable(SerializationFeature.INDENT_OUTPUT);
+	}
+
+	private final ConcurrentMap<String, CallStats> calls = new ConcurrentHashMap<>();
+	private final long startNanos = System.nanoTime();
+	private final AtomicInteger rateLimitRemaining = new AtomicInteger(UNKNOWN);
+	private final AtomicInteger rateLimitLowest = new AtomicInteger(UNKNOWN);
+
+	/**
+	 * Records a completed call.
+	 *
+	 * @param call
+	 *            the call type, one of the constants of this class
+	 * @param nanos
+	 *            the time the call took in nanoseconds
+	 * @param bytes
+	 *            the response bytes read, negative if unknown
+	 * @param failed
+	 *            true if the call failed
+	 */
+	public void record(final String call, final long nanos, final long bytes,
+			final boolean failed) {
+		getOrCreate(call).record(nanos, bytes, failed);
+	}
+
+	/**
+	 * Records a call answered from the response cache.
+	 *
+	 * @param call
+	 *            the call type
+	 */
+	public void cacheHit(final String call) {
+		getOrCreate(call).cacheHits.incrementAndGet();
+	}
+
+	/**
+	 * Records a cacheable call whose response had changed.
+	 *
+	 * @param call
+	 *            the call type
+	 */
+	public void cacheMiss(final String call) {
+		getOrCreate(call).cacheMisses.incrementAndGet();
+	}
+
+	/**
+	 * Records the rate limit remaining reported by a GitHub response.
+	 *
+	 * @param remaining
+	 *            the requests remaining in the window
+	 */
+	public void rateLimit(final int remaining) {
+		this.rateLimitRemaining.set(remaining);
+		int lowest;
+		do {
+			lowest = this.rateLimitLowest.get();
+		} while ((lowest == UNKNOWN || remaining < lowest)
+				&& !this.rateLimitLowest.compareAndSet(lowest, remaining));
+	}
+
+	/**
+	 * @param call
+	 *            the call type
+	 * @return the statistics for the call type, or null if none were made
+	 */
+	public CallStats getCall(final String call) {
+		return this.calls.get(call);
+	}
+
+	/**
+	 * @return the latest rate limit remaining, -1 if unknown
+	 */
+	public int getRateLimitRemaining() {
+		return this.rateLimitRemaining.get();
+	}
+
+	/**
+	 * @return the lowest rate limit remaining seen, -1 if unknown
+	 */
+	public int getRateLimitLowest() {
+		return this.rateLimitLowest.get();
+	}
+
+	/**
+	 * Classifies a GitHub API request by its path.
+	 *
+	 * @param uri
+	 *            the request URI, query string and API prefix are ignored
+	 * @return the call type
+	 */
+	public static String classifyGitHub(final String uri) {
+		Preconditions.checkNotNull(uri, "uri == null");
+		String path = uri;
+		int query = path.indexOf('?');
+		if (query >= 0) {
+			path = path.substring(0, query);
+		}
+		if (path.startsWith("/api/v3/")) {
+			path = path.substring("/api/v3".length());
+		}
+		if (CONTENTS_PATH.matcher(path).matches()) {
+			return GITHUB_CONTENTS;
+		} else if (LISTING_PATH.matcher(path).matches()) {
+			return GITHUB_LISTING;
+		} else if (REPOSITORY_PATH.matcher(path).matches()) {
+			return GITHUB_REPOSITORY;
+		} else if (USER_PATH.matcher(path).matches()) {
+			return GITHUB_USER;
+		} else if (TREE_PATH.matcher(path).matches()) {
+			return GITHUB_TREE;
+		} else if (COMMITS_PATH.matcher(path).matches()) {
+			return GITHUB_COMMITS;
+		}
+		return GITHUB_OTHER;
+	}
+
+	/**
+	 * Prints a table of the calls made, one line per call type.
+	 *
+	 * @param out
+	 *            the stream to print to
+	 */
+	public void printSummary(final PrintStream out) {
+		Preconditions.checkNotNull(out, "out == null");
+		double seconds = elapsedMillis() / 1000.0;
+		out.println(String.format("Remote calls over %.1fs:", Double.valueOf(seconds)));
+		out.println(String.format("%-18s %7s %6s %8s %8s %8s %8s %10s %6s %6s",
+				"call", "count", "errors", "calls/s", "p50 ms", "p90 ms",
+				"p99 ms", "KB", "hits", "misses"));
+		for (Map.Entry<String, CallStats> entry : sortedCalls().entrySet()) {
+			CallStats stats = entry.getValue();
+			out.println(String.format(
+					"%-18s %7d %6d %8.1f %8d %8d %8d %10.1f %6d %6d",
+					entry.getKey(), Long.valueOf(stats.getCount()),
+					Long.valueOf(stats.getErrors()),
+					Double.valueOf(stats.getCount() / Math.max(seconds, 0.001)),
+					Long.valueOf(stats.percentileMillis(0.5)),
+					Long.valueOf(stats.percentileMillis(0.9)),
+					Long.valueOf(stats.percentileMillis(0.99)),
+					Double.valueOf(stats.getBytes() / 1024.0),
+					Long.valueOf(stats.getCacheHits()),
+					Long.valueOf(stats.getCacheMisses())));
+		}
+		if (getRateLimitRemaining() != UNKNOWN) {
+			out.println("GitHub rate limit remaining: "
+					+ getRateLimitRemaining() + ", lowest "
+					+ getRateLimitLowest());
+		}
+	}
+
+	/**
+	 * Writes the metrics as a JSON object.
+	 *
+	 * @param out
+	 *            the stream to write to, not closed by this method
+	 * @throws IOException
+	 *             if the metrics can't be written
+	 */
+	public void writeJson(final OutputStream out) throws IOException {
+		Preconditions.checkNotNull(out, "out == null");
+		Map<String, Object> root = new LinkedHashMap<>();
+		root.put("elapsedMillis", Long.valueOf(elapsedMillis()));
+		root.put("rateLimitRemaining", Integer.valueOf(getRateLimitRemaining()));
+		root.put("rateLimitLowest", Integer.valueOf(getRateLimitLowest()));
+		Map<String, Object> callsJson = new LinkedHashMap<>();
+		for (Map.Entry<String, CallStats> entry : sortedCalls().entrySet()) {
+			callsJson.put(entry.getKey(), entry.getValue().toJson());
+		}
+		root.put("calls", callsJson);
+		MAPPER.writeValue(out, root);
+	}
+
+	private long elapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- this.startNanos);
+	}
+
+	private SortedMap<String, CallStats> sortedCalls() {
+		return new TreeMap<>(this.calls);
+	}
+
+	private CallStats getOrCreate(final String call) {
+		Preconditions.checkNotNull(call, "call == null");
+		CallStats stats = this.calls.get(call);
+		if (stats == null) {
+			CallStats created = new CallStats();
+			stats = this.calls.putIfAbsent(call, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * The statistics for one type of call.
+	 */
+	public static final class CallStats {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong cacheHits = new AtomicLong();
+		final AtomicLong cacheMisses = new AtomicLong();
+		final AtomicLong totalNanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		final AtomicLongArray buckets = new AtomicLongArray(
+				BUCKET_MILLIS.length + 1);
+
+		CallStats() {
+			// Counters start at zero
+		}
+
+		void record(final long nanos, final long bytesRead,
+				final boolean failed) {
+			this.count.incrementAndGet();
+			if (failed) {
+				this.errors.incrementAndGet();
+			}
+			if (bytesRead > 0) {
+				this.bytes.addAndGet(bytesRead);
+			}
+			this.totalNanos.addAndGet(nanos);
+			long max;
+			do {
+				max = this.maxNanos.get();
+			} while (nanos > max && !this.maxNanos.compareAndSet(max, nanos));
+			this.buckets.incrementAndGet(bucket(nanos));
+		}
+
+		private static int bucket(final long nanos) {
+			long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			for (int index = 0; index < BUCKET_MILLIS.length; index++) {
+				if (millis < BUCKET_MILLIS[index]) {
+					return index;
+				}
+			}
+			return BUCKET_MILLIS.length;
+		}
+
+		/**
+		 * @return the number of calls made
+		 */
+		public long getCount() {
+			return this.count.get();
+		}
+
+		/**
+		 * @return the number of calls that failed
+		 */
+		public long getErrors() {
+			return this.errors.get();
+		}
+
+		/**
+		 * @return the response bytes read
+		 */
+		public long getBytes() {
+			return this.bytes.get();
+		}
+
+		/**
+		 * @return the number of calls answered from the response cache
+		 */
+		public long getCacheHits() {
+			return this.cacheHits.get();
+		}
+
+		/**
+		 * @return the number of cacheable calls whose response had changed
+		 */
+		public long getCacheMisses() {
+			return this.cacheMisses.get();
+		}
+
+		/**
+		 * @return the mean latency in milliseconds
+		 */
+		public double getMeanMillis() {
+			long calls = getCount();
+			return (calls == 0) ? 0.0 : this.totalNanos.get() / 1000000.0
+					/ calls;
+		}
+
+		/**
+		 * @return the longest latency in milliseconds
+		 */
+		public long getMaxMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(this.maxNanos.get());
+		}
+
+		/**
+		 * @param percentile
+		 *            the percentile wanted, between 0 and 1
+		 * @return the upper bound in milliseconds of the latency bucket the
+		 *         percentile falls in, the longest latency for the last
+		 *         bucket
+		 */
+		public long percentileMillis(final double percentile) {
+			Preconditions.checkArgument(percentile > 0 && percentile <= 1,
+					"percentile not in (0, 1]");
+			long rank = (long) Math.ceil(percentile * getCount());
+			long seen = 0L;
+			for (int index = 0; index < BUCKET_MILLIS.length; index++) {
+				seen += this.buckets.get(index);
+				if (seen >= rank && seen > 0) {
+					return BUCKET_MILLIS[index];
+				}
+			}
+			return getMaxMillis();
+		}
+
+		Map<String, Object> toJson() {
+			Map<String, Object> json = new LinkedHashMap<>();
+			json.put("count", Long.valueOf(getCount()));
+			json.put("errors", Long.valueOf(getErrors()));
+			json.put("bytes", Long.valueOf(getBytes()));
+			json.put("cacheHits", Long.valueOf(getCacheHits()));
+			json.put("cacheMisses", Long.valueOf(getCacheMisses()));
+			json.put("meanMillis", Double.valueOf(getMeanMillis()));
+			json.put("maxMillis", Long.valueOf(getMaxMillis()));
+			for (double percentile : PERCENTILES) {
+				json.put("p" + Math.round(percentile * 100) + "Millis",
+						Long.valueOf(percentileMillis(percentile)));
+			}
+			List<Map<String, Object>> histogram = new ArrayList<>();
+			for (int index = 0; index <= BUCKET_MILLIS.length; index++) {
+				Map<String, Object> bucket = new LinkedHashMap<>();
+				bucket.put("ltMillis", (index < BUCKET_MILLIS.length) ? Long
+						.valueOf(BUCKET_MILLIS[index]) : null);
+				bucket.put("count", Long.valueOf(this.buckets.get(index)));
+				histogram.add(bucket);
+			}
+			json.put("histogram", histogram);
+			return json;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.File;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Immutable settings for an organisation scan, see
+ * {@link GitHubProjects#createProjectList(org.eclipse.egit.github.core.client.GitHubClient, String, ScanOptions, java.util.Collection)}.
+ */
+public final class ScanOptions {
+	private static final ScanOptions DEFAULT_INSTANCE = new Builder().build();
+
+	final int threads;
+	final boolean reuseTree;
+	final boolean graphQL;
+	final boolean lazy;
+	final File journalDir;
+	final boolean virtualThreads;
+	final TravisClient travisClient;
+
+	private ScanOptions(final Builder builder) {
+		this.threads = builder.threads;
+		this.reuseTree = builder.reuseTree;
+		this.graphQL = builder.graphQL;
+		this.lazy = builder.lazy;
+		this.journalDir = builder.journalDir;
+		this.virtualThreads = builder.virtualThreads;
+		this.travisClient = builder.travisClient;
+	}
+
+	/**
+	 * @return the default options, a single worker thread with every lookup
+	 *         made for every repository
+	 */
+	public static ScanOptions defaultInstance() {
+		return DEFAULT_INSTANCE;
+	}
+
+	/**
+	 * Builder class for creating ScanOptions instances
+	 */
+	public static final class Builder {
+		private int threads = 1;
+		private boolean reuseTree = false;
+		private boolean graphQL = false;
+		private boolean lazy = false;
+		private File journalDir = null;
+		private boolean virtualThreads = false;
+		private TravisClient travisClient = TravisClient.defaultInstance();
+
+		/**
+		 * @param threads
+		 *            the maximum number of repositories scanned concurrently
+		 * @return the builder instance for chaining
+		 */
+		public Builder threads(final int threads) {
+			Preconditions.checkArgument(threads > 0, "threads < 1");
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * @param reuseTree
+		 *            if true the root listing used for the health indicators
+		 *            decides whether the .opf.yml file is requested, saving a
+		 *            request for every repository without one at the cost of
+		 *            running the two lookups in sequence
+		 * @return the builder instance for chaining
+		 */
+		public Builder reuseTree(final boolean reuseTree) {
+			this.reuseTree = reuseTree;
+			return this;
+		}
+
+		/**
+		 * @param graphQL
+		 *            if true the repositories, their root listings and
+		 *            metadata are fetched a page at a time with GraphQL
+		 *            queries rather than per repository with REST
+		 * @return the builder instance for chaining
+		 */
+		public Builder graphQL(final boolean graphQL) {
+			this.graphQL = graphQL;
+			return this;
+		}
+
+		/**
+		 * @param lazy
+		 *            if true only the repository listing is requested, each
+		 *            project not copied forward is built from the listing
+		 *            alone and marked pending, its metadata, indicators and CI
+		 *            info left for {@link GitHubProjects#resolveProject}. A
+		 *            GraphQL scan gets those with the listing and ignores this.
+		 * @return the builder instance for chaining
+		 */
+		public Builder lazy(final boolean lazy) {
+			this.lazy = lazy;
+			return this;
+		}
+
+		/**
+		 * @param journalDir
+		 *            the directory for the scan's checkpoint journal, a scan
+		 *            that's stopped part way resumes from its journal without
+		 *            repeating the requests it made, or null for no journal.
+		 *            Lazy and GraphQL scans ignore this.
+		 * @return the builder instance for chaining
+		 */
+		public Builder journalDir(final File journalDir) {
+			this.journalDir = journalDir;
+			return this;
+		}
+
+		/**
+		 * @param virtualThreads
+		 *            if true and the JVM has virtual threads each repository
+		 *            and each of its lookups runs on a virtual thread, the
+		 *            thread count still bounds the repositories scanned at
+		 *            once but costs no platform threads, so it can be set in
+		 *            the thousands. Without virtual threads the scan uses
+		 *            platform thread pools as usual.
+		 * @return the builder instance for chaining
+		 */
+		public Builder virtualThreads(final boolean virtualThreads) {
+			this.virtualThreads = virtualThreads;
+			return this;
+		}
+
+		/**
+		 * @param travisClient
+		 *            the shared client used for Travis CI lookups
+		 * @return the builder instance for chaining
+		 */
+		public Builder travisClient(final TravisClient travisClient) {
+			Preconditions.checkNotNull(travisClient, "travisClient == null");
+			this.travisClient = travisClient;
+			return this;
+		}
+
+		/**
+		 * @return a ScanOptions instance with the values of the builder
+		 */
+		@SuppressWarnings("synthetic-access")
+		public ScanOptions build() {
+			return new ScanOptions(this);
+		}
+	}
+}
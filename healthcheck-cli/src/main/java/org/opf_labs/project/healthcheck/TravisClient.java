@@ -0,0 +1,216 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.log4j.Logger;
+import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.google.common.base.Preconditions;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+
+/**
+ * Long lived client for the Travis CI REST API. The underlying Jersey client,
+ * and its Jackson provider, is created once and shared by all threads. Every
+ * response is closed once read so the JDK can return the connection to its
+ * keep-alive pool, the size of the pool is set by the
+ * <code>http.maxConnections</code> system property.</p>
+ *
+ * A lookup that fails with an I/O error, a 5xx or a 429 is retried under the
+ * client's {@link RetryPolicy}, any other refusal fails the lookup rather
+ * than being read as a repository without a build. The Travis host is
+ * guarded by its own {@link CircuitBreaker}, so Travis being down fails the
+ * CI lookups quickly without holding up the GitHub ones.</p>
+ *
+ * If the client's created with {@link ScanMetrics} each lookup's latency and
+ * response size are recorded.</p>
+ */
+public final class TravisClient {
+	/** The root URL of the public Travis API */
+	public static final String DEFAULT_ROOT = "https://api.travis-ci.org/";
+	/** Default connection timeout in milliseconds */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	/** Default read timeout in milliseconds */
+	public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+	private static final String REPOS = "repos/";
+	private static final TravisClient DEFAULT_INSTANCE = new TravisClient(
+			DEFAULT_ROOT, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+
+	private static final Logger LOGGER = Logger.getLogger(TravisClient.class);
+
+	private final Client restClient;
+	private final String repoRoot;
+	private final ScanMetrics metrics;
+	private final RetryPolicy retryPolicy;
+	private final CircuitBreaker breaker;
+
+	/**
+	 * @param root
+	 *            the root URL of the Travis API, with a trailing slash
+	 * @param connectTimeout
+	 *            the connection timeout in milliseconds
+	 * @param readTimeout
+	 *            the read timeout in milliseconds
+	 */
+	public TravisClient(final String root, final int connectTimeout,
+			final int readTimeout) {
+		this(root, connectTimeout, readTimeout, null);
+	}
+
+	/**
+	 * @param root
+	 *            the root URL of the Travis API, with a trailing slash
+	 * @param connectTimeout
+	 *            the connection timeout in milliseconds
+	 * @param readTimeout
+	 *            the read timeout in milliseconds
+	 * @param metrics
+	 *            the metrics each lookup is recorded in, may be null
+	 */
+	public TravisClient(final String root, final int connectTimeout,
+			final int readTimeout, final ScanMetrics metrics) {
+		this(root, connectTimeout, readTimeout, metrics, RetryPolicy
+				.defaultInstance());
+	}
+
+	/**
+	 * @param root
+	 *            the root URL of the Travis API, with a trailing slash
+	 * @param connectTimeout
+	 *            the connection timeout in milliseconds
+	 * @param readTimeout
+	 *            the read timeout in milliseconds
+	 * @param metrics
+	 *            the metrics each lookup is recorded in, may be null
+	 * @param retryPolicy
+	 *            the policy for retrying failed lookups
+	 */
+	public TravisClient(final String root, final int connectTimeout,
+			final int readTimeout, final ScanMetrics metrics,
+			final RetryPolicy retryPolicy) {
+		Preconditions.checkNotNull(root, "root == null");
+		Preconditions.checkArgument(root.endsWith("/"), "root doesn't end with /");
+		Preconditions.checkArgument(connectTimeout >= 0, "connectTimeout < 0");
+		Preconditions.checkArgument(readTimeout >= 0, "readTimeout < 0");
+		Preconditions.checkNotNull(retryPolicy, "retryPolicy == null");
+		ClientConfig cc = new DefaultClientConfig();
+		cc.getClasses().add(JacksonJsonProvider.class);
+		this.restClient = Client.create(cc);
+		this.restClient.setConnectTimeout(Integer.valueOf(connectTimeout));
+		this.restClient.setReadTimeout(Integer.valueOf(readTimeout));
+		this.repoRoot = root + REPOS;
+		this.metrics = metrics;
+		this.retryPolicy = retryPolicy;
+		this.breaker = new CircuitBreaker(URI.create(root).getHost());
+	}
+
+	/**
+	 * @return the shared client for the public Travis API with default
+	 *         timeouts
+	 */
+	public static TravisClient defaultInstance() {
+		return DEFAULT_INSTANCE;
+	}
+
+	/**
+	 * @return the circuit breaker guarding the Travis host
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return this.breaker;
+	}
+
+	/**
+	 * Retrieves the Travis Continuous Integration information for a software
+	 * project.
+	 *
+	 * @param ownerLogin
+	 *            the GitHub login (id) of the repository
+	 * @param repoName
+	 *            the name of the repository
+	 *
+	 * @return the Travis CI Information for the project.
+	 * @throws IOException
+	 *             if the lookup still fails after its retries, or the
+	 *             breaker's open
+	 */
+	public CiInfo getCiInfo(final String ownerLogin, final String repoName)
+			throws IOException {
+		String uri = this.repoRoot + ownerLogin + "/" + repoName;
+		for (int attempt = 0;; attempt++) {
+			this.breaker.beforeCall();
+			long start = System.nanoTime();
+			boolean failed = true;
+			ClientResponse response = null;
+			try {
+				response = this.restClient.resource(uri)
+						.accept(MediaType.APPLICATION_JSON)
+						.get(ClientResponse.class);
+				int status = response.getStatus();
+				// Any answer short of a server error means the host is up
+				if (status >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+					this.breaker.failure();
+				} else {
+					this.breaker.success();
+				}
+				if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+					// A repository without a build is an answer, not a failure
+					failed = false;
+					LOGGER.info("Not Travis-CI build for repo " + repoName);
+					return CiInfo.fromValues(false);
+				}
+				if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+					String retryAfter = response.getHeaders().getFirst(
+							RetryPolicy.HEADER_RETRY_AFTER);
+					if (RetryPolicy.isRetryable(status)
+							&& this.retryPolicy.canRetry(attempt, retryAfter)) {
+						LOGGER.info("Retrying " + uri + " after a " + status);
+						this.retryPolicy.backOff(attempt, retryAfter);
+						continue;
+					}
+					// Refused, not an answer about the build
+					throw new IOException("Travis lookup of " + ownerLogin + "/"
+							+ repoName + " failed with a " + status);
+				}
+				failed = false;
+				TravisRepo entity = response.getEntity(TravisRepo.class);
+				LOGGER.info("Last build for repo " + repoName + " id "
+						+ entity.lastBuildId);
+				return CiInfo.fromValues(entity.lastBuildId != 0);
+			} catch (ClientHandlerException excep) {
+				// Jersey's wrapper for connection and read failures
+				failed = true;
+				this.breaker.failure();
+				if (this.retryPolicy.canRetry(attempt)) {
+					LOGGER.info("Retrying " + uri + " after "
+							+ excep.getMessage());
+					this.retryPolicy.backOff(attempt);
+					continue;
+				}
+				throw new IOException("Travis lookup of " + ownerLogin + "/"
+						+ repoName + " failed", excep);
+			} finally {
+				if (this.metrics != null) {
+					this.metrics.record(ScanMetrics.TRAVIS_REPO, System.nanoTime()
+							- start, (response == null) ? -1L : response.getLength(),
+							failed);
+				}
+				// Release the connection back to the keep-alive pool
+				if (response != null) {
+					response.close();
+				}
+			}
+		}
+	}
+}
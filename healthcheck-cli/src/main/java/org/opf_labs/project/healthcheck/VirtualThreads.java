@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Creates executors that start a virtual thread for every task, when the
+ * JVM has them. A virtual thread blocked on a socket read parks and gives
+ * up its carrier thread, so a scan can have thousands of requests in flight
+ * on a handful of platform threads and a small heap, where a pool of
+ * platform threads that size would need a stack for each.</p>
+ *
+ * Virtual threads arrived in Java 21 and the project builds for older
+ * releases, so the API's looked up by reflection once and
+ * {@link #isAvailable()} reports whether it was found. Executors from this
+ * class have no bound on their threads, callers bound the work in flight
+ * themselves.</p>
+ */
+final class VirtualThreads {
+	private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class);
+
+	// Null if the JVM has no virtual threads
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+	private static final Method NEW_PER_TASK_EXECUTOR;
+	static {
+		Method ofVirtual = null, name = null, factory = null, newExecutor = null;
+		try {
+			// The builder interface is public, its implementations aren't
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+					ThreadFactory.class);
+		} catch (ClassNotFoundException | NoSuchMethodException excep) {
+			LOGGER.debug("No virtual threads: " + excep.getMessage());
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+		NEW_PER_TASK_EXECUTOR = newExecutor;
+	}
+
+	private VirtualThreads() {
+		throw new AssertionError("In VirtualThreads constructor.");
+	}
+
+	/**
+	 * @return true if the JVM has virtual threads
+	 */
+	static boolean isAvailable() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates an executor that runs each task on a new virtual thread.
+	 *
+	 * @param namePrefix
+	 *            the prefix of the thread names, a counter from 0 follows it
+	 * @return the executor
+	 * @throws UnsupportedOperationException
+	 *             if the JVM has no virtual threads
+	 */
+	static ExecutorService newThreadPerTaskExecutor(final String namePrefix) {
+		Preconditions.checkNotNull(namePrefix, "namePrefix == null");
+		if (!isAvailable()) {
+			throw new UnsupportedOperationException(
+					"Virtual threads need Java 21 or later.");
+		}
+		try {
+			Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix,
+					Long.valueOf(0L));
+			return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null,
+					FACTORY.invoke(builder));
+		} catch (IllegalAccessException | InvocationTargetException excep) {
+			throw new IllegalStateException(
+					"Couldn't create a virtual thread executor", excep);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ */
+package org.opf_labs.project.healthcheck;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+
+/**
+ * Reads the repository a GitHub or Travis CI webhook notification is about.
+ * Only the repository's identity is read, everything else in the payload is
+ * ignored and the repository is rescanned, so the payload formats only need
+ * to agree on where the owner and name live.</p>
+ */
+final class WebHooks {
+	/** GitHub's header naming the event type */
+	static final String GITHUB_EVENT_HEADER = "X-GitHub-Event";
+	/** GitHub's header carrying the HMAC of the payload */
+	static final String GITHUB_SIGNATURE_HEADER = "X-Hub-Signature-256";
+	private static final String SIGNATURE_PREFIX = "sha256=";
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	// Sent when a hook's created, not about a change
+	private static final String GITHUB_PING = "ping";
+	// Travis posts a form with the JSON in this field
+	private static final String TRAVIS_PAYLOAD_FIELD = "payload";
+	private static final String FORM_TYPE = "application/x-www-form-urlencoded";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private WebHooks() {
+		throw new AssertionError("In WebHooks constructor.");
+	}
+
+	/**
+	 * Reads the repository from a GitHub webhook payload, any event that
+	 * carries a repository can change what the report shows.
+	 *
+	 * @param event
+	 *            the value of the X-GitHub-Event header, may be null
+	 * @param body
+	 *            the JSON payload
+	 * @return the repository the event's about, or null for events that
+	 *         aren't about a repository change
+	 * @throws IOException
+	 *             if the payload isn't JSON or names no repository owner
+	 */
+	static RepoRef fromGitHub(final String event, final byte[] body)
+			throws IOException {
+		Preconditions.checkNotNull(body, "body == null");
+		if (GITHUB_PING.equals(event)) {
+			return null;
+		}
+		JsonNode repo = MAPPER.readTree(body).path("repository");
+		if (repo.isMissingNode()) {
+			return null;
+		}
+		String fullName = repo.path("full_name").asText();
+		int slash = fullName.indexOf('/');
+		if (slash > 0) {
+			return RepoRef.checked(fullName.substring(0, slash),
+					fullName.substring(slash + 1));
+		}
+		// Older push payloads give the owner's login as its name
+		JsonNode owner = repo.path("owner");
+		String login = owner.has("login") ? owner.path("login").asText()
+				: owner.path("name").asText();
+		return RepoRef.checked(login, repo.path("name").asText());
+	}
+
+	/**
+	 * Checks a GitHub webhook's signature, the hex HMAC-SHA256 of the payload
+	 * keyed with the hook's secret.
+	 *
+	 * @param secret
+	 *            the secret the hook was created with
+	 * @param signature
+	 *            the value of the X-Hub-Signature-256 header, may be null
+	 * @param body
+	 *            the payload as posted
+	 * @return true if the payload was signed with the secret
+	 */
+	static boolean isSignedBy(final String secret, final String signature,
+			final byte[] body) {
+		Preconditions.checkNotNull(secret, "secret == null");
+		Preconditions.checkNotNull(body, "body == null");
+		if (signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+			return false;
+		}
+		byte[] expected;
+		try {
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8),
+					HMAC_ALGORITHM));
+			expected = mac.doFinal(body);
+		} catch (GeneralSecurityException excep) {
+			// Every JRE has HmacSHA256
+			throw new IllegalStateException(excep);
+		}
+		byte[] given;
+		try {
+			given = Hex.decodeHex(signature.substring(SIGNATURE_PREFIX.length())
+					.toCharArray());
+		} catch (DecoderException excep) {
+			return false;
+		}
+		// Compared in constant time so the signature can't be guessed a byte at a time
+		return MessageDigest.isEqual(expected, given);
+	}
+
+	/**
+	 * Reads the repository from a Travis CI build notification, which is
+	 * either posted as a form with the JSON in its payload field or as the
+	 * JSON itself.
+	 *
+	 * @param contentType
+	 *            the request's Content-Type header, may be null
+	 * @param body
+	 *            the request body
+	 * @return the repository that was built
+	 * @throws IOException
+	 *             if the payload can't be read or names no repository
+	 */
+	static RepoRef fromTravis(final String contentType, final byte[] body)
+			throws IOException {
+		Preconditions.checkNotNull(body, "body == null");
+		String json = new String(body, Charsets.UTF_8);
+		if (contentType != null && contentType.startsWith(FORM_TYPE)) {
+			json = null;
+			for (String field : Splitter.on('&').split(
+					new String(body, Charsets.US_ASCII))) {
+				if (field.startsWith(TRAVIS_PAYLOAD_FIELD + "=")) {
+					json = URLDecoder.decode(
+							field.substring(TRAVIS_PAYLOAD_FIELD.length() + 1),
+							Charsets.UTF_8.name());
+				}
+			}
+			if (json == null) {
+				throw new IOException("No payload field in Travis notification.");
+			}
+		}
+		JsonNode repo = MAPPER.readTree(json).path("repository");
+		return RepoRef.checked(repo.path("owner_name").asText(),
+				repo.path("name").asText());
+	}
+
+	/**
+	 * The owner and name of a repository named by a webhook.
+	 */
+	static final class RepoRef {
+		final String owner;
+		final String name;
+
+		RepoRef(final String owner, final String name) {
+			this.owner = owner;
+			this.name = name;
+		}
+
+		static RepoRef checked(final String owner, final String name)
+				throws IOException {
+			if (owner.isEmpty() || name.isEmpty()) {
+				throw new IOException("Webhook payload doesn't name a repository.");
+			}
+			return new RepoRef(owner, name);
+		}
+
+		@Override
+		public String toString() {
+			return this.owner + "/" + this.name;
+		}
+	}
+}
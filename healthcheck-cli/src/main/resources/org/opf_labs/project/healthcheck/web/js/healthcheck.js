@@ -15,6 +15,12 @@ var projectList = {
     projects : [],
     // Current project
     currentProject : null,
+    // Most pending project lookups the page makes at once
+    maxLookups : 4,
+    // Number of pending project lookups in progress
+    lookups : 0,
+    // Milliseconds before asking again for a project that's still pending
+    retryMillis : 2000,
     /**
      * @function init
      * 
@@ -52,6 +58,8 @@ var projectList = {
                 projectList.updateProjectList();
             });
         });
+        // Look up pending projects as they're scrolled into view
+        $(window).scroll(projectList.resolveVisible);
         // Finally draw the list
         projectList.updateProjectList();
     },
@@ -75,6 +83,78 @@ var projectList = {
             return (proj.metadata.vendor === projectList.filter);
         }), projectList.addProjectToList);
         $("ul.proj-info > li").addClass("pull-left");
+        projectList.resolveVisible();
+    },
+    /**
+     * @function resolveVisible
+     * 
+     * Asks the server for the details of pending projects whose rows are in
+     * or near the window, a few at a time. Each project's row is redrawn as
+     * its details arrive. A static report has no pending projects.
+     */
+    resolveVisible : function () {
+        var bottom = $(window).scrollTop() + 2 * $(window).height();
+        $('#repos > li.pending').each(function (index, element) {
+            var item = $(element);
+            if (projectList.lookups >= projectList.maxLookups) {
+                return false;
+            }
+            if (item.offset().top > bottom) {
+                return false;
+            }
+            if (item.hasClass("requested")) {
+                return true;
+            }
+            item.addClass("requested");
+            projectList.resolveProject(item, item.data("project"));
+            return true;
+        });
+    },
+    /**
+     * @function resolveProject
+     * 
+     * Fetches a pending project from the server and redraws its row. The
+     * server answers with the project still pending while it's looked up,
+     * the project's asked for again a little later and keeps its place in
+     * the lookups until it's resolved.
+     * 
+     * @param item
+     *            the project's list item
+     * @param proj
+     *            the pending project
+     */
+    resolveProject : function (item, proj) {
+        var url = "api/projects/" + encodeURIComponent(proj.ownerLogin) +
+                "/" + encodeURIComponent(proj.name);
+        var finished = function () {
+            projectList.lookups--;
+            projectList.resolveVisible();
+        };
+        var poll = function () {
+            $.getJSON(url).done(function (resolved) {
+                if (resolved.pending) {
+                    setTimeout(poll, projectList.retryMillis);
+                    return;
+                }
+                var index = $.inArray(proj, projectList.projects);
+                if (index >= 0) {
+                    projectList.projects[index] = resolved;
+                }
+                if (projectList.filter === "All" ||
+                        resolved.metadata.vendor === projectList.filter) {
+                    item.replaceWith(projectList.createProjectItem(resolved));
+                    $("ul.proj-info > li").addClass("pull-left");
+                } else {
+                    item.remove();
+                }
+                finished();
+            }).fail(function () {
+                // A failed lookup isn't retried until the page is redrawn
+                finished();
+            });
+        };
+        projectList.lookups++;
+        poll();
     },
     /**
      * @function addProjectToList
@@ -87,6 +167,18 @@ var projectList = {
      *            the project to be added to the list
      */
     addProjectToList : function (index, proj) {
+        projectList.createProjectItem(proj).appendTo('#repos');
+        $("[data-toggle='tooltip']").tooltip();
+    },
+    /**
+     * @function createProjectItem
+     * 
+     * Creates the HTML list item for a project
+     * 
+     * @param proj
+     *            the project to create the item for
+     */
+    createProjectItem : function (proj) {
         // Set current project member, avoid param passing
         projectList.currentProject = proj;
         // Create the row div
@@ -97,13 +189,13 @@ var projectList = {
         projectList.getProjectDetails().appendTo(div);
         projectList.getProjectInfo().appendTo(div);
         projectList.getProjectCI().appendTo(div);
-        // Finally create a list item and append the div
+        // Finally create a list item holding the div
         var container = $('<li>').attr({
-            "class" : "repoItem"
+            "class" : proj.pending ? "repoItem pending" : "repoItem"
         });
+        container.data("project", proj);
         div.appendTo(container);
-        container.appendTo('#repos');
-        $("[data-toggle='tooltip']").tooltip();
+        return container;
     },
     getProjectDetails : function () {
         var container = $('<div>').attr({
@@ -141,10 +233,30 @@ var projectList = {
                 projectList.currentProject.openIssues,
                 (projectList.currentProject.openIssues > 0) ?
                         "success" : "warning"));
+        if (projectList.currentProject.errors &&
+                projectList.currentProject.errors.length > 0) {
+            list.append(projectList.getDegraded());
+        }
         div.append(list);
 
         return div;
     },
+    /**
+     * @function getDegraded
+     * 
+     * Marks a project some of whose details couldn't be checked, the
+     * tooltip lists the failed lookups.
+     */
+    getDegraded : function () {
+        var item = bootstrapUtils.listPebble("warning-sign", "degraded",
+                "warning");
+        item.children(":first").attr({
+            "data-toggle" : "tooltip",
+            title : "Not checked, last known shown: " +
+                projectList.currentProject.errors.join("; ")
+        });
+        return item;
+    },
     getActivity : function () {
         var updatedAt = new Date(projectList.currentProject.updated);
         var status = "success";
@@ -166,6 +278,10 @@ var projectList = {
     },
     getIndicators : function () {
         var container = $('<ul>');
+        if (projectList.currentProject.pending) {
+            container.append(bootstrapUtils.listPebble("time", "checking"));
+            return container;
+        }
         var pebble = bootstrapUtils.listPebble("book", "readme",
                 projectList.currentProject.indicators.readMeUrl ?
                     "success" : "important",
@@ -191,6 +307,9 @@ var projectList = {
         return div;
     },
     getTravisAnchor : function () {
+        if (projectList.currentProject.pending) {
+            return bootstrapUtils.listPebble("wrench", "Checking Travis");
+        }
         if (!projectList.currentProject.ci.hasTravis) {
             return bootstrapUtils.listPebble("wrench", "No Travis Build",
                     "important");
@@ -17,7 +17,11 @@ import org.junit.runners.Suite.SuiteClasses;
  *          Created 10 Jul 2013:15:07:22
  */
 @RunWith(Suite.class)
-@SuiteClasses({ ProjectMetadataTest.class })
+@SuiteClasses({ CircuitBreakerTest.class, GitHubProjectsTest.class, HealthCheckServerTest.class, HealthHistoryTest.class,
+		OrgBatchTest.class, ProjectMetadataTest.class,
+		ProjectSinksTest.class, ProjectSnapshotsTest.class, RateLimitSchedulerTest.class,
+		ReportRendererTest.class, ResponseCacheTest.class,
+		ScanMetricsTest.class })
 public class AllTests {
 	/** Root test */
 	private final static String TEST_ROOT = "org/opf_labs/project/healthcheck";
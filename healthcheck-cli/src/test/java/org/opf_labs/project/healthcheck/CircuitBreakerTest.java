@@ -0,0 +1,116 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.opf_labs.project.healthcheck.CircuitBreaker.State;
+
+/**
+ * Tests for the CircuitBreaker and the RetryPolicy's back off.
+ */
+@SuppressWarnings("static-method")
+public class CircuitBreakerTest {
+	private static final long OPEN_MILLIS = 50L;
+
+	/**
+	 * Test that the breaker opens after the threshold of consecutive
+	 * failures, a success in between starting the count again.
+	 *
+	 * @throws IOException
+	 *             if a call's refused while the breaker should be closed
+	 */
+	@Test
+	public void testOpensAfterThreshold() throws IOException {
+		CircuitBreaker breaker = new CircuitBreaker("api.example.org", 3,
+				OPEN_MILLIS);
+		breaker.failure();
+		breaker.failure();
+		breaker.success();
+		breaker.failure();
+		breaker.failure();
+		breaker.beforeCall();
+		assertEquals(State.CLOSED, breaker.getState());
+		breaker.failure();
+		assertEquals(State.OPEN, breaker.getState());
+		try {
+			breaker.beforeCall();
+			fail("Call allowed through an open breaker");
+		} catch (CircuitBreaker.OpenException excep) {
+			assertTrue(excep.getMessage().contains("api.example.org"));
+		}
+	}
+
+	/**
+	 * Test that once the open time's passed a single trial call is let
+	 * through, a failed trial opens the breaker again and a successful one
+	 * closes it.
+	 *
+	 * @throws IOException
+	 *             if the trial call's refused
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the breaker
+	 */
+	@Test
+	public void testHalfOpenTrial() throws IOException, InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker("api.example.org", 1,
+				OPEN_MILLIS);
+		breaker.failure();
+		Thread.sleep(OPEN_MILLIS + 10L);
+		breaker.beforeCall();
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		try {
+			breaker.beforeCall();
+			fail("Second call allowed through a half open breaker");
+		} catch (CircuitBreaker.OpenException excep) {
+			// Only the one trial
+		}
+		breaker.failure();
+		assertEquals(State.OPEN, breaker.getState());
+		Thread.sleep(OPEN_MILLIS + 10L);
+		breaker.beforeCall();
+		breaker.success();
+		assertEquals(State.CLOSED, breaker.getState());
+		breaker.beforeCall();
+	}
+
+	/**
+	 * Test that retry delays stay within the doubling bound and the maximum.
+	 */
+	@Test
+	public void testRetryDelays() {
+		RetryPolicy policy = new RetryPolicy(3, 100L, 1000L);
+		assertTrue(policy.canRetry(2));
+		assertTrue(!policy.canRetry(3));
+		for (int i = 0; i < 100; i++) {
+			assertTrue(policy.delayMillis(0) <= 100L);
+			assertTrue(policy.delayMillis(2) <= 400L);
+			assertTrue(policy.delayMillis(10) <= 1000L);
+			assertTrue(policy.delayMillis(100) <= 1000L);
+		}
+		assertEquals(0L, RetryPolicy.none().delayMillis(0));
+		assertTrue(!RetryPolicy.none().canRetry(0));
+	}
+
+	/**
+	 * Test that a Retry-After within the maximum delay is waited for in
+	 * place of the drawn delay and a longer one isn't retried.
+	 */
+	@Test
+	public void testRetryAfter() {
+		RetryPolicy policy = new RetryPolicy(3, 100L, 2000L);
+		assertTrue(RetryPolicy.isRetryable(RetryPolicy.HTTP_TOO_MANY_REQUESTS));
+		assertTrue(!RetryPolicy.isRetryable(403));
+		assertEquals(2000L, RetryPolicy.retryAfterMillis(" 2 "));
+		assertEquals(-1L, RetryPolicy.retryAfterMillis(null));
+		assertEquals(-1L, RetryPolicy.retryAfterMillis(
+				"Wed, 21 Oct 2026 07:28:00 GMT"));
+		assertTrue(policy.canRetry(0, null));
+		assertTrue(policy.canRetry(0, "2"));
+		assertTrue(!policy.canRetry(0, "3"));
+		assertTrue(!policy.canRetry(3, "1"));
+	}
+}
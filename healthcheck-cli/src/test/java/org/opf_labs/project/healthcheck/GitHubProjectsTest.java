@@ -0,0 +1,641 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.User;
+import org.eclipse.egit.github.core.client.RequestException;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
+import org.opf_labs.project.healthcheck.GitHubProject.Indicators;
+
+/**
+ * Unit tests for the GitHubProjects utility class.
+ */
+@SuppressWarnings("static-method")
+public class GitHubProjectsTest {
+	private static final String LOGIN = "openplanets";
+
+	/** Folder for the fixtures */
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	/**
+	 * Round trip test for
+	 * {@link org.opf_labs.project.healthcheck.GitHubProjects#writeProjectList(List, java.io.OutputStream)}
+	 * and
+	 * {@link org.opf_labs.project.healthcheck.GitHubProjects#readProjectList(java.io.InputStream)}
+	 *
+	 * @throws IOException
+	 *             if the list can't be written or read
+	 */
+	@Test
+	public void testProjectListRoundTrip() throws IOException {
+		GitHubProject withMetadata = GitHubProject.fromValues("jpylyzer",
+				"JP2 validator", "openplanets",
+				"https://github.com/openplanets/jpylyzer", new Date(1373454000000L),
+				"Python", 3, ProjectMetadata.fromValues("jpylyzer", "Open Planets Foundation"),
+				Indicators.fromValues("https://github.com/openplanets/jpylyzer#readme", "", ""),
+				CiInfo.fromValues(true));
+		GitHubProject withoutMetadata = GitHubProject.fromValues("scape",
+				"", "openplanets", "https://github.com/openplanets/scape",
+				new Date(1373540400000L), null, 0, ProjectMetadata.defaultInstance(),
+				Indicators.fromValues("", "", ""), CiInfo.fromValues(false));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GitHubProjects.writeProjectList(Arrays.asList(withMetadata, withoutMetadata), out);
+
+		List<GitHubProject> projects = GitHubProjects
+				.readProjectList(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(2, projects.size());
+		GitHubProject project = projects.get(0);
+		assertEquals("jpylyzer", project.name);
+		assertEquals(withMetadata.updated, project.updated);
+		assertEquals(3, project.openIssues);
+		assertEquals("OPF", project.metadata.vendor);
+		assertEquals(withMetadata.indicators.readMeUrl, project.indicators.readMeUrl);
+		assertEquals(true, project.ci.hasTravis);
+		project = projects.get(1);
+		assertEquals(GitHubProjects.UNKNOWN, project.language);
+		assertSame(ProjectMetadata.defaultInstance(), project.metadata);
+	}
+
+	/**
+	 * Test a scan of a synthetic organisation big enough to need several
+	 * listing pages, end to end against the stub APIs.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListSynthetic() throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(250)
+				.latency(1L).build();
+		try {
+			ScanOptions options = new ScanOptions.Builder().threads(8)
+					.travisClient(stub.createTravisClient()).build();
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN, options,
+					Collections.<GitHubProject> emptyList());
+			assertEquals(250, projects.size());
+			assertEquals(3, stub.getRequestCount(StubApiServer.GITHUB_ROOT
+					+ "orgs/" + LOGIN + "/repos"));
+			// Listing order, every fifth repo has metadata, every fourth a build
+			GitHubProject first = projects.get(0);
+			assertEquals("repo-00000", first.name);
+			assertEquals("OPF", first.metadata.vendor);
+			assertTrue(first.ci.hasTravis);
+			assertTrue(!first.indicators.readMeUrl.isEmpty());
+			GitHubProject second = projects.get(1);
+			assertSame(ProjectMetadata.defaultInstance(), second.metadata);
+			assertEquals(false, second.ci.hasTravis);
+			assertTrue(second.indicators.readMeUrl.isEmpty());
+			assertEquals("SCAPE", projects.get(5).metadata.vendor);
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that a repository is copied forward only when both its updated
+	 * and pushed timestamps are unchanged, a push that adds a README moves
+	 * only the pushed timestamp.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListPushed() throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(4)
+				.build();
+		try {
+			ScanOptions options = new ScanOptions.Builder().threads(2)
+					.travisClient(stub.createTravisClient()).build();
+			List<GitHubProject> scanned = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN, options,
+					Collections.<GitHubProject> emptyList());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			GitHubProjects.writeProjectList(scanned, out);
+			assertEquals(scanned.get(0).pushed, GitHubProjects.readProjectList(
+					new ByteArrayInputStream(out.toByteArray())).get(0).pushed);
+			// Stale indicators, repo-00002 last seen before its latest push
+			List<GitHubProject> previous = new ArrayList<>();
+			for (GitHubProject project : scanned) {
+				previous.add(new GitHubProject.Builder(project)
+						.pushed("repo-00002".equals(project.name) ? new Date(0L)
+								: project.pushed)
+						.openIssues(project.openIssues)
+						.metadata(project.metadata)
+						.indicators(GitHubProjects.NO_INDICATORS)
+						.ci(project.ci).build());
+			}
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN, options, previous);
+			assertEquals(previous.get(2).updated, projects.get(2).updated);
+			assertTrue(!projects.get(2).indicators.readMeUrl.isEmpty());
+			assertTrue(projects.get(0).indicators.readMeUrl.isEmpty());
+			assertEquals(scanned.get(2).pushed, projects.get(2).pushed);
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that a scan on virtual threads builds the same projects, skipped
+	 * on a JVM without them as the scan would fall back to platform threads.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListVirtualThreads() throws IOException {
+		Assume.assumeTrue(VirtualThreads.isAvailable());
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(250)
+				.latency(1L).build();
+		try {
+			ScanOptions options = new ScanOptions.Builder().threads(64)
+					.virtualThreads(true)
+					.travisClient(stub.createTravisClient()).build();
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN, options,
+					Collections.<GitHubProject> emptyList());
+			assertEquals(250, projects.size());
+			for (int i = 0; i < projects.size(); i++) {
+				GitHubProject project = projects.get(i);
+				assertEquals(String.format("repo-%05d", Integer.valueOf(i)),
+						project.name);
+				assertEquals(0, project.errors.size());
+				assertEquals(i % 4 == 0, project.ci.hasTravis);
+			}
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that the listing pages after the first are fetched in parallel
+	 * and handed out in listing order.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the listing fails
+	 */
+	@Test
+	public void testRepositoryPages() throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(1050)
+				.latency(100L).build();
+		try {
+			int index = 0;
+			try (RepositoryPages listing = RepositoryPages.open(
+					stub.createGitHubClient(), LOGIN)) {
+				assertEquals(11, listing.getPageCount());
+				for (List<Repository> page = listing.next(); page != null; page = listing
+						.next()) {
+					for (Repository repo : page) {
+						assertEquals(String.format("repo-%05d",
+								Integer.valueOf(index++)), repo.getName());
+					}
+				}
+			}
+			assertEquals(1050, index);
+			// Fetched one after another no two pages would overlap
+			assertTrue(stub.getPeakConcurrency(StubApiServer.GITHUB_ROOT
+					+ "orgs/" + LOGIN + "/repos") > 1);
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that a GraphQL scan builds the same projects as a REST scan with
+	 * a query per page of repositories rather than requests per repository.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListGraphQL() throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(250)
+				.build();
+		try {
+			ScanOptions.Builder builder = new ScanOptions.Builder().threads(8)
+					.travisClient(stub.createTravisClient());
+			List<GitHubProject> rest = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN, builder.build(),
+					Collections.<GitHubProject> emptyList());
+			String contentsPath = StubApiServer.GITHUB_ROOT + "repos/" + LOGIN
+					+ "/repo-00000/contents";
+			int contents = stub.getRequestCount(contentsPath);
+			List<GitHubProject> graphQL = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN, builder.graphQL(true)
+							.build(), Collections.<GitHubProject> emptyList());
+			assertEquals(3, stub.getRequestCount(StubApiServer.GRAPHQL_PATH));
+			assertEquals(contents, stub.getRequestCount(contentsPath));
+			assertEquals(rest.size(), graphQL.size());
+			for (int i = 0; i < rest.size(); i++) {
+				GitHubProject expected = rest.get(i);
+				GitHubProject actual = graphQL.get(i);
+				assertEquals(expected.name, actual.name);
+				assertEquals(expected.url, actual.url);
+				assertEquals(expected.updated, actual.updated);
+				assertEquals(expected.language, actual.language);
+				assertEquals(expected.openIssues, actual.openIssues);
+				assertEquals(expected.metadata.vendor, actual.metadata.vendor);
+				assertEquals(expected.indicators.readMeUrl,
+						actual.indicators.readMeUrl);
+				assertEquals(expected.indicators.licenseUrl,
+						actual.indicators.licenseUrl);
+				assertEquals(expected.indicators.metadataUrl,
+						actual.indicators.metadataUrl);
+				assertEquals(expected.ci.hasTravis, actual.ci.hasTravis);
+			}
+			// Unchanged repositories need no Travis lookup either
+			String travisPath = StubApiServer.TRAVIS_ROOT + "repos/" + LOGIN
+					+ "/repo-00000";
+			int travis = stub.getRequestCount(travisPath);
+			assertEquals(250, GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN, builder.build(), graphQL)
+					.size());
+			assertEquals(travis, stub.getRequestCount(travisPath));
+			assertEquals(6, stub.getRequestCount(StubApiServer.GRAPHQL_PATH));
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that a repository with a malformed .opf.yml in a GraphQL scan
+	 * loses only its metadata, recorded as a metadata error, and keeps its
+	 * indicators and CI info as it would in a REST scan.
+	 *
+	 * @throws IOException
+	 *             if the fixtures can't be written or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListGraphQLBadMetadata() throws IOException {
+		File fixtures = this.temp.newFolder("fixtures");
+		File query = new File(fixtures, "github/graphql.json");
+		File travis = new File(fixtures, "travis/repos/kb/recorded.json");
+		assertTrue(query.getParentFile().mkdirs());
+		assertTrue(travis.getParentFile().mkdirs());
+		// The metadata has a vendor but no name
+		Files.write(query.toPath(), ("{\"data\":{\"repositoryOwner\":{\"repositories\":"
+				+ "{\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":\"1\"},\"nodes\":[{"
+				+ "\"name\":\"recorded\",\"owner\":{\"login\":\"kb\"},"
+				+ "\"url\":\"https://github.com/kb/recorded\",\"description\":\"\","
+				+ "\"isPrivate\":false,\"updatedAt\":\"2013-07-10T12:00:00Z\","
+				+ "\"primaryLanguage\":null,\"issues\":{\"totalCount\":0},"
+				+ "\"pullRequests\":{\"totalCount\":0},\"tree\":{\"entries\":["
+				+ "{\"name\":\"README.md\",\"type\":\"blob\"},"
+				+ "{\"name\":\".opf.yml\",\"type\":\"blob\"}]},"
+				+ "\"opfYaml\":{\"text\":\"vendor: Open Planets Foundation\\n\"}}]}}}}")
+				.getBytes("UTF-8"));
+		Files.write(travis.toPath(), "{\"id\":1,\"slug\":\"kb/recorded\",\"last_build_id\":7}"
+				.getBytes("UTF-8"));
+		StubApiServer stub = new StubApiServer.Builder().fixtures(fixtures).build();
+		try {
+			ScanOptions options = new ScanOptions.Builder().graphQL(true)
+					.travisClient(stub.createTravisClient()).build();
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), "kb", options,
+					Collections.<GitHubProject> emptyList());
+			assertEquals(1, projects.size());
+			GitHubProject project = projects.get(0);
+			assertEquals(1, project.errors.size());
+			assertTrue(project.errors.get(0).startsWith(
+					GitHubProjects.METADATA_STAGE));
+			assertSame(ProjectMetadata.defaultInstance(), project.metadata);
+			assertTrue(!project.indicators.readMeUrl.isEmpty());
+			assertTrue(project.ci.hasTravis);
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that injected errors are retried rather than losing the
+	 * repositories whose lookups failed.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListErrors() throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(40)
+				.errorRate(0.1).build();
+		try {
+			ScanMetrics metrics = new ScanMetrics();
+			ScanOptions options = new ScanOptions.Builder().threads(4)
+					.travisClient(stub.createTravisClient()).build();
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					stub.createGitHubClient().setMetrics(metrics), LOGIN,
+					options, Collections.<GitHubProject> emptyList());
+			assertTrue(metrics.getCall(ScanMetrics.GITHUB_CONTENTS)
+					.getErrors() > 0);
+			assertEquals(40, projects.size());
+			for (GitHubProject project : projects) {
+				assertEquals(project.name, 0, project.errors.size());
+			}
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that with Travis down the scan still completes, each project
+	 * marked degraded with its last known CI info, and that the breaker
+	 * stops the lookups once it's open.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListTravisDown() throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(40)
+				.build();
+		StubApiServer down = new StubApiServer.Builder().syntheticRepos(40)
+				.failing(StubApiServer.TRAVIS_ROOT).build();
+		try {
+			ScanOptions.Builder builder = new ScanOptions.Builder().threads(4);
+			List<GitHubProject> previous = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN,
+					builder.travisClient(stub.createTravisClient()).build(),
+					Collections.<GitHubProject> emptyList());
+			// Changed since the previous scan so every repository's scanned
+			List<GitHubProject> stale = new ArrayList<>();
+			for (GitHubProject project : previous) {
+				stale.add(new GitHubProject.Builder(project)
+						.updated(new Date(0L)).openIssues(project.openIssues)
+						.metadata(project.metadata)
+						.indicators(project.indicators).ci(project.ci).build());
+			}
+			TravisClient travis = down.createTravisClient();
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					down.createGitHubClient(), LOGIN,
+					builder.travisClient(travis).build(), stale);
+			assertEquals(40, projects.size());
+			for (int i = 0; i < projects.size(); i++) {
+				GitHubProject project = projects.get(i);
+				assertEquals(1, project.errors.size());
+				assertTrue(project.errors.get(0).startsWith(
+						GitHubProjects.TRAVIS_STAGE));
+				assertEquals(previous.get(i).ci.hasTravis, project.ci.hasTravis);
+				assertEquals(previous.get(i).indicators.readMeUrl,
+						project.indicators.readMeUrl);
+			}
+			assertEquals(CircuitBreaker.State.OPEN, travis.getCircuitBreaker()
+					.getState());
+			int travisRequests = 0;
+			for (GitHubProject project : projects) {
+				travisRequests += down.getRequestCount(StubApiServer.TRAVIS_ROOT
+						+ "repos/" + LOGIN + "/" + project.name);
+			}
+			assertTrue(travisRequests < 40);
+			// Degraded projects are scanned again next time
+			assertTrue(!GitHubProjects.isUnchanged(projects.get(0),
+					new Repository().setUpdatedAt(projects.get(0).updated)));
+		} finally {
+			stub.stop();
+			down.stop();
+		}
+	}
+
+	/**
+	 * Test that a refused lookup fails rather than passing for a missing
+	 * file or build, only a 404 meaning there's none, and that a 429 is
+	 * retried.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started
+	 */
+	@Test
+	public void testRefusedLookups() throws IOException {
+		String repos = "repos/" + LOGIN + "/";
+		StubApiServer stub = new StubApiServer.Builder()
+				.syntheticRepos(5)
+				.refusing(403, StubApiServer.GITHUB_ROOT + repos
+						+ "repo-00000/contents/.opf.yml",
+						StubApiServer.TRAVIS_ROOT + repos + "repo-00000")
+				.refusing(429, StubApiServer.TRAVIS_ROOT + repos + "repo-00004")
+				.build();
+		try {
+			HealthCheckGitHubClient ghClient = stub.createGitHubClient();
+			try {
+				GitHubProjects.getMetadata(ghClient, new Repository()
+						.setName("repo-00000")
+						.setOwner(new User().setLogin(LOGIN)));
+				fail("Refused metadata lookup passed for no metadata");
+			} catch (RequestException excep) {
+				assertEquals(403, excep.getStatus());
+			}
+			assertSame(ProjectMetadata.defaultInstance(),
+					GitHubProjects.getMetadata(ghClient, new Repository()
+							.setName("repo-00001")
+							.setOwner(new User().setLogin(LOGIN))));
+
+			TravisClient travis = stub.createTravisClient();
+			assertTrue(!travis.getCiInfo(LOGIN, "repo-00001").hasTravis);
+			try {
+				travis.getCiInfo(LOGIN, "repo-00000");
+				fail("Refused Travis lookup passed for no build");
+			} catch (IOException excep) {
+				assertEquals(1, stub.getRequestCount(StubApiServer.TRAVIS_ROOT
+						+ repos + "repo-00000"));
+			}
+			try {
+				travis.getCiInfo(LOGIN, "repo-00004");
+				fail("Rate limited Travis lookup passed for no build");
+			} catch (IOException excep) {
+				assertEquals(RetryPolicy.DEFAULT_MAX_RETRIES + 1,
+						stub.getRequestCount(StubApiServer.TRAVIS_ROOT + repos
+								+ "repo-00004"));
+			}
+			// Refusals aren't the host being down
+			assertEquals(CircuitBreaker.State.CLOSED, travis
+					.getCircuitBreaker().getState());
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that a scan stopped part way resumes from its journal, without
+	 * listing the repositories again or scanning the projects it finished,
+	 * and that a torn last journal entry, or one that can't be mapped back to
+	 * a page or project, is dropped.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListResume() throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(250)
+				.build();
+		try {
+			File journalDir = this.temp.newFolder("journal");
+			ScanOptions options = new ScanOptions.Builder().threads(4)
+					.journalDir(journalDir)
+					.travisClient(stub.createTravisClient()).build();
+			final List<String> finished = new ArrayList<>();
+			try {
+				GitHubProjects.scanProjects(stub.createGitHubClient(), LOGIN,
+						options, Collections.<GitHubProject> emptyList(),
+						new ProjectSink() {
+							@Override
+							public void accept(final GitHubProject project)
+									throws IOException {
+								if (finished.size() == 100) {
+									throw new IOException("Killed");
+								}
+								finished.add(project.name);
+							}
+
+							@Override
+							public void close() {
+								// Nothing to finish
+							}
+						});
+				fail("Scan wasn't stopped");
+			} catch (IOException excep) {
+				assertEquals("Killed", excep.getMessage());
+			}
+			File journal = new File(journalDir, LOGIN + ".journal");
+			assertTrue(journal.isFile());
+			// Entries that read as JSON but don't map back, then a torn line
+			Files.write(journal.toPath(), ("{\"page\":4}\n"
+					+ "{\"project\":{\"name\":\"repo-00000\"}}\n"
+					+ "{\"project\":{\"na").getBytes(),
+					StandardOpenOption.APPEND);
+			String listingPath = StubApiServer.GITHUB_ROOT + "orgs/" + LOGIN
+					+ "/repos";
+			assertEquals(3, stub.getRequestCount(listingPath));
+
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), LOGIN, options,
+					Collections.<GitHubProject> emptyList());
+			assertEquals(250, projects.size());
+			assertEquals("repo-00000", projects.get(0).name);
+			assertEquals(3, stub.getRequestCount(listingPath));
+			for (String name : finished) {
+				assertEquals(name, 1, stub.getRequestCount(StubApiServer.TRAVIS_ROOT
+						+ "repos/" + LOGIN + "/" + name));
+			}
+			// A completed scan leaves nothing to resume
+			assertTrue(!journal.exists());
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that a resumed listing neither skips nor scans twice repositories
+	 * shifted between pages by ones deleted or created since it was journaled.
+	 *
+	 * @throws IOException
+	 *             if the listing can't be journaled or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListResumeShifted() throws IOException {
+		List<String> names = new ArrayList<>();
+		for (int index = 0; index < 250; index++) {
+			names.add(String.format("repo-%05d", Integer.valueOf(index)));
+		}
+		// Deleted from the first page, shifting two back onto the second
+		List<String> deleted = new ArrayList<>(names);
+		deleted.removeAll(Arrays.asList("repo-00010", "repo-00020"));
+		// Created on the first page, shifting two forward onto the third
+		List<String> created = new ArrayList<>(names);
+		created.addAll(6, Arrays.asList("repo-00005a", "repo-00005b"));
+		for (List<String> shifted : Arrays.asList(deleted, created)) {
+			File journalDir = this.temp.newFolder("journal-" + shifted.size());
+			journalListing(journalDir, 2);
+			StubApiServer stub = new StubApiServer.Builder().repos(
+					shifted.toArray(new String[shifted.size()])).build();
+			try {
+				ScanOptions options = new ScanOptions.Builder().threads(4)
+						.journalDir(journalDir)
+						.travisClient(stub.createTravisClient()).build();
+				List<GitHubProject> projects = GitHubProjects.createProjectList(
+						stub.createGitHubClient(), LOGIN, options,
+						Collections.<GitHubProject> emptyList());
+				List<String> scanned = new ArrayList<>();
+				for (GitHubProject project : projects) {
+					scanned.add(project.name);
+				}
+				Collections.sort(scanned);
+				assertEquals(names, scanned);
+				// The last journaled page and the one after it
+				assertEquals(2, stub.getRequestCount(StubApiServer.GITHUB_ROOT
+						+ "orgs/" + LOGIN + "/repos"));
+			} finally {
+				stub.stop();
+			}
+		}
+	}
+
+	private static void journalListing(final File journalDir, final int pages)
+			throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(250)
+				.build();
+		try (ScanJournal journal = ScanJournal.open(journalDir, LOGIN);
+				RepositoryPages listing = RepositoryPages.open(
+						stub.createGitHubClient(), LOGIN)) {
+			for (int pageNumber = 1; pageNumber <= pages; pageNumber++) {
+				journal.pageListed(pageNumber, listing.getPageCount(),
+						listing.next());
+			}
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Test that recorded fixtures are replayed in place of the generated
+	 * responses.
+	 *
+	 * @throws IOException
+	 *             if the fixtures can't be written or the scan fails
+	 */
+	@Test
+	public void testCreateProjectListFixtures() throws IOException {
+		File fixtures = this.temp.newFolder("fixtures");
+		File listing = new File(fixtures, "github/orgs/kb/repos.json");
+		File travis = new File(fixtures, "travis/repos/kb/recorded.json");
+		assertTrue(listing.getParentFile().mkdirs());
+		assertTrue(travis.getParentFile().mkdirs());
+		Files.write(listing.toPath(), ("[{\"name\":\"recorded\",\"owner\":{\"login\":\"kb\"},"
+				+ "\"html_url\":\"https://github.com/kb/recorded\",\"description\":\"From a fixture\","
+				+ "\"updated_at\":\"2013-07-10T12:00:00Z\",\"private\":false}]").getBytes("UTF-8"));
+		Files.write(travis.toPath(), "{\"id\":1,\"slug\":\"kb/recorded\",\"last_build_id\":7}"
+				.getBytes("UTF-8"));
+		StubApiServer stub = new StubApiServer.Builder().fixtures(fixtures).build();
+		try {
+			ScanOptions options = new ScanOptions.Builder().travisClient(
+					stub.createTravisClient()).build();
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					stub.createGitHubClient(), "kb", options,
+					Collections.<GitHubProject> emptyList());
+			assertEquals(1, projects.size());
+			assertEquals("From a fixture", projects.get(0).description);
+			assertTrue(projects.get(0).ci.hasTravis);
+		} finally {
+			stub.stop();
+		}
+	}
+}
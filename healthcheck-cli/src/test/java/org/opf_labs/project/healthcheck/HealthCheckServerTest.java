@@ -0,0 +1,481 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests for the HealthCheckServer, scanning a local stub of the GitHub and
+ * Travis APIs.
+ */
+public class HealthCheckServerTest {
+	private static final String HOOKS_ROOT = "/org/opf_labs/project/healthcheck/hooks/";
+	private static final String LISTING_PATH = StubApiServer.GITHUB_ROOT
+			+ "orgs/openplanets/repos";
+	private static final long HOOK_WAIT_MILLIS = 5000L;
+	private StubApiServer stub;
+	private HealthCheckServer server;
+
+	/**
+	 * Start the stub, then scan and start the server.
+	 *
+	 * @throws IOException
+	 *             if a server can't be started or the scan fails
+	 */
+	@Before
+	public void startServers() throws IOException {
+		this.stub = new StubApiServer();
+		ScanOptions options = new ScanOptions.Builder().travisClient(
+				this.stub.createTravisClient()).build();
+		this.server = new HealthCheckServer(this.stub.createGitHubClient(),
+				"openplanets", options, ReportRenderer.defaultInstance(), 1L,
+				TimeUnit.HOURS);
+		this.server.refresh();
+		this.server.start(0);
+	}
+
+	/**
+	 * Stop the servers.
+	 */
+	@After
+	public void stopServers() {
+		this.server.stop();
+		this.stub.stop();
+	}
+
+	/**
+	 * Test that the projects API is served gzipped to clients that accept it.
+	 *
+	 * @throws IOException
+	 *             if the request fails
+	 */
+	@Test
+	public void testProjectsApiGzip() throws IOException {
+		HttpURLConnection conn = open(HealthCheckServer.API_PROJECTS);
+		conn.setRequestProperty("Accept-Encoding", "gzip");
+		assertEquals(200, conn.getResponseCode());
+		assertEquals("gzip", conn.getHeaderField("Content-Encoding"));
+		try (InputStream in = new GZIPInputStream(conn.getInputStream())) {
+			List<GitHubProject> projects = GitHubProjects.readProjectList(in);
+			assertEquals(2, projects.size());
+			assertEquals("alpha", projects.get(0).name);
+		}
+	}
+
+	/**
+	 * Test that the report is served and a repeat request with its ETag gets
+	 * a bodiless 304.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 */
+	@Test
+	public void testIndexConditional() throws IOException {
+		HttpURLConnection conn = open("/");
+		assertEquals(200, conn.getResponseCode());
+		String etag = conn.getHeaderField("ETag");
+		assertNotNull(etag);
+		try (InputStream in = conn.getInputStream()) {
+			assertTrue(new String(ByteStreams.toByteArray(in), Charsets.UTF_8)
+					.contains("<title>Org openplanets GitHub Project Health Check</title>"));
+		}
+		conn = open("/index.html");
+		conn.setRequestProperty("If-None-Match", etag);
+		assertEquals(304, conn.getResponseCode());
+	}
+
+	/**
+	 * Test that the web assets are served and other paths aren't.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 */
+	@Test
+	public void testAssets() throws IOException {
+		HttpURLConnection conn = open("/js/healthcheck.js");
+		assertEquals(200, conn.getResponseCode());
+		assertTrue(conn.getContentType().startsWith("application/javascript"));
+		conn.getInputStream().close();
+		assertEquals(404, open("/js/../templates/index.html").getResponseCode());
+		assertEquals(404, open("/missing").getResponseCode());
+		conn = open("/");
+		conn.setRequestMethod("POST");
+		assertEquals(405, conn.getResponseCode());
+	}
+
+	/**
+	 * Test that a lazy server serves the report from the listing alone and
+	 * looks up a project's details once, when it's asked for or when the
+	 * background filler gets to it.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the filler
+	 */
+	@Test
+	public void testLazyProjects() throws IOException, InterruptedException {
+		String contentsPath = StubApiServer.GITHUB_ROOT
+				+ "repos/openplanets/alpha/contents";
+		int contents = this.stub.getRequestCount(contentsPath);
+		ScanOptions options = new ScanOptions.Builder()
+				.travisClient(this.stub.createTravisClient()).lazy(true)
+				.build();
+		HealthCheckServer lazy = new HealthCheckServer(
+				this.stub.createGitHubClient(), "openplanets", options,
+				ReportRenderer.defaultInstance(), 1L, TimeUnit.HOURS);
+		lazy.refresh();
+		try {
+			assertEquals(contents, this.stub.getRequestCount(contentsPath));
+			assertEquals(2, lazy.getProjects().size());
+			assertTrue(lazy.getProjects().get(0).pending);
+			assertTrue(lazy.getProjects().get(0).indicators.readMeUrl.isEmpty());
+			lazy.start(0);
+			// Answered 202 until the lookup's done
+			URL alpha = new URL("http://localhost:" + lazy.getPort()
+					+ HealthCheckServer.API_PROJECTS + "/openplanets/alpha");
+			long deadline = System.currentTimeMillis() + HOOK_WAIT_MILLIS;
+			HttpURLConnection conn = (HttpURLConnection) alpha.openConnection();
+			while (conn.getResponseCode() == 202
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10L);
+				conn = (HttpURLConnection) alpha.openConnection();
+			}
+			assertEquals(200, conn.getResponseCode());
+			try (InputStream in = conn.getInputStream()) {
+				assertTrue(new String(ByteStreams.toByteArray(in),
+						Charsets.UTF_8).contains("\"pending\":false"));
+			}
+			while ((lazy.getProjects().get(0).pending || lazy.getProjects()
+					.get(1).pending) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10L);
+			}
+			assertTrue(!lazy.getProjects().get(1).pending);
+			// Resolved once however it was asked for
+			assertEquals(contents + 1, this.stub.getRequestCount(contentsPath));
+			assertEquals("alpha", lazy.resolveProject("openplanets", "alpha").name);
+			assertEquals(contents + 1, this.stub.getRequestCount(contentsPath));
+			assertEquals(null, lazy.resolveProject("openplanets", "missing"));
+		} finally {
+			lazy.stop();
+		}
+	}
+
+	/**
+	 * Test that a request for a project that's being looked up is answered
+	 * 202 straight away with the project still pending, and that the lookup
+	 * goes on and is swapped in without being made again.
+	 *
+	 * @throws IOException
+	 *             if a stub can't be started or a request fails
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the lookup
+	 */
+	@Test
+	public void testSlowLookup() throws IOException, InterruptedException {
+		String contentsPath = StubApiServer.GITHUB_ROOT
+				+ "repos/openplanets/alpha/contents";
+		StubApiServer slow = new StubApiServer.Builder().repos("alpha")
+				.latency(300L).build();
+		HealthCheckServer lazy = new HealthCheckServer(
+				slow.createGitHubClient(), "openplanets",
+				new ScanOptions.Builder().travisClient(slow.createTravisClient())
+						.lazy(true).build(), ReportRenderer.defaultInstance(),
+				1L, TimeUnit.HOURS);
+		try {
+			lazy.refresh();
+			lazy.start(0);
+			HttpURLConnection conn = (HttpURLConnection) new URL(
+					"http://localhost:" + lazy.getPort()
+							+ HealthCheckServer.API_PROJECTS
+							+ "/openplanets/alpha").openConnection();
+			assertEquals(202, conn.getResponseCode());
+			assertNotNull(conn.getHeaderField("Retry-After"));
+			try (InputStream in = conn.getInputStream()) {
+				assertTrue(new String(ByteStreams.toByteArray(in),
+						Charsets.UTF_8).contains("\"pending\":true"));
+			}
+			long deadline = System.currentTimeMillis() + HOOK_WAIT_MILLIS;
+			while (lazy.getProjects().get(0).pending
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10L);
+			}
+			assertTrue(!lazy.getProjects().get(0).pending);
+			conn = (HttpURLConnection) new URL("http://localhost:"
+					+ lazy.getPort() + HealthCheckServer.API_PROJECTS
+					+ "/openplanets/alpha").openConnection();
+			assertEquals(200, conn.getResponseCode());
+			assertEquals(1, slow.getRequestCount(contentsPath));
+		} finally {
+			lazy.stop();
+			slow.stop();
+		}
+	}
+
+	/**
+	 * Test that a recorded GitHub push for a repository that isn't in the
+	 * report yet adds it without another listing of the organisation.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the update
+	 */
+	@Test
+	public void testGitHubPushHook() throws IOException, InterruptedException {
+		int listings = this.stub.getRequestCount(LISTING_PATH);
+		assertEquals(202, postHook(HealthCheckServer.HOOK_GITHUB, "push",
+				"application/json", readPayload("github-push.json")));
+		awaitProjectCount(3);
+		assertEquals("gamma", this.server.getProjects().get(2).name);
+		assertEquals(listings, this.stub.getRequestCount(LISTING_PATH));
+	}
+
+	/**
+	 * Test that a recorded GitHub repository deletion drops the project.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the update
+	 */
+	@Test
+	public void testGitHubDeletedHook() throws IOException,
+			InterruptedException {
+		assertEquals(202, postHook(HealthCheckServer.HOOK_GITHUB, "repository",
+				"application/json", readPayload("github-repository-deleted.json")));
+		awaitProjectCount(1);
+		assertEquals("alpha", this.server.getProjects().get(0).name);
+	}
+
+	/**
+	 * Test that with a secret set, GitHub hooks that are unsigned or signed
+	 * with another secret are refused and a signed one is taken.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the update
+	 */
+	@Test
+	public void testSignedGitHubHook() throws IOException,
+			InterruptedException {
+		byte[] payload = readPayload("github-push.json");
+		this.server.setHookSecret("It's a Secret to Everybody");
+		assertEquals(403, postHook(HealthCheckServer.HOOK_GITHUB, "push",
+				"application/json", payload));
+		assertEquals(403, postHook(HealthCheckServer.HOOK_GITHUB, "push",
+				"application/json", payload,
+				sign("Not the secret", payload)));
+		assertEquals(2, this.server.getProjects().size());
+		assertEquals(202, postHook(HealthCheckServer.HOOK_GITHUB, "push",
+				"application/json", payload,
+				sign("It's a Secret to Everybody", payload)));
+		awaitProjectCount(3);
+	}
+
+	/**
+	 * Test that with a refresh period of 0 the server scans once at start.
+	 *
+	 * @throws IOException
+	 *             if the server can't be started
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the scan
+	 */
+	@Test
+	public void testScanOnlyAtStart() throws IOException, InterruptedException {
+		int listings = this.stub.getRequestCount(LISTING_PATH);
+		HealthCheckServer hooked = new HealthCheckServer(
+				this.stub.createGitHubClient(), "openplanets",
+				new ScanOptions.Builder().travisClient(
+						this.stub.createTravisClient()).build(),
+				ReportRenderer.defaultInstance(), 0L, TimeUnit.MINUTES);
+		try {
+			hooked.start(0);
+			long deadline = System.currentTimeMillis() + HOOK_WAIT_MILLIS;
+			while (hooked.getProjects().isEmpty()
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10L);
+			}
+			assertEquals(2, hooked.getProjects().size());
+			assertEquals(listings + 1, this.stub.getRequestCount(LISTING_PATH));
+		} finally {
+			hooked.stop();
+		}
+	}
+
+	/**
+	 * Test that a recorded Travis notification, posted as a form the way
+	 * Travis sends it, rescans just the built repository.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the update
+	 */
+	@Test
+	public void testTravisHook() throws IOException, InterruptedException {
+		byte[] form = ("payload=" + URLEncoder.encode(new String(
+				readPayload("travis-build.json"), Charsets.UTF_8), "UTF-8"))
+				.getBytes(Charsets.US_ASCII);
+		String repoPath = StubApiServer.GITHUB_ROOT + "repos/openplanets/alpha";
+		int listings = this.stub.getRequestCount(LISTING_PATH);
+		assertEquals(202, postHook(HealthCheckServer.HOOK_TRAVIS, null,
+				"application/x-www-form-urlencoded", form));
+		long deadline = System.currentTimeMillis() + HOOK_WAIT_MILLIS;
+		while (this.stub.getRequestCount(repoPath) == 0
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		assertEquals(1, this.stub.getRequestCount(repoPath));
+		assertEquals(listings, this.stub.getRequestCount(LISTING_PATH));
+		assertEquals(2, this.server.getProjects().size());
+	}
+
+	/**
+	 * Test that pings, other owners' repositories and unreadable payloads
+	 * don't trigger a rescan.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 */
+	@Test
+	public void testIgnoredHooks() throws IOException {
+		assertEquals(204, postHook(HealthCheckServer.HOOK_GITHUB, "ping",
+				"application/json", readPayload("github-ping.json")));
+		assertEquals(204, postHook(HealthCheckServer.HOOK_TRAVIS, null,
+				"application/json",
+				"{\"repository\":{\"name\":\"alpha\",\"owner_name\":\"someone\"}}"
+						.getBytes(Charsets.UTF_8)));
+		assertEquals(400, postHook(HealthCheckServer.HOOK_GITHUB, "push",
+				"application/json", "not json".getBytes(Charsets.UTF_8)));
+		assertEquals(405, open(HealthCheckServer.HOOK_GITHUB).getResponseCode());
+		assertEquals(2, this.server.getProjects().size());
+	}
+
+	/**
+	 * Test that an oversized payload is refused, that Travis notifications
+	 * are only taken for served repositories, and that notifications for a
+	 * repository rescanned within the hook interval are held and coalesced.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the rescans
+	 */
+	@Test
+	public void testHookLimits() throws IOException, InterruptedException {
+		assertEquals(413, postHook(HealthCheckServer.HOOK_GITHUB, "push",
+				"application/json",
+				new byte[HealthCheckServer.MAX_HOOK_BYTES + 1]));
+		assertEquals(204, postHook(HealthCheckServer.HOOK_TRAVIS, null,
+				"application/json",
+				"{\"repository\":{\"name\":\"gamma\",\"owner_name\":\"openplanets\"}}"
+						.getBytes(Charsets.UTF_8)));
+		this.server.setHookInterval(1L, TimeUnit.SECONDS);
+		String repoPath = StubApiServer.GITHUB_ROOT + "repos/openplanets/alpha";
+		byte[] build = readPayload("travis-build.json");
+		assertEquals(202, postHook(HealthCheckServer.HOOK_TRAVIS, null,
+				"application/json", build));
+		awaitRequestCount(repoPath, 1);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(202, postHook(HealthCheckServer.HOOK_TRAVIS, null,
+					"application/json", build));
+		}
+		Thread.sleep(200L);
+		assertEquals(1, this.stub.getRequestCount(repoPath));
+		awaitRequestCount(repoPath, 2);
+		Thread.sleep(200L);
+		assertEquals(2, this.stub.getRequestCount(repoPath));
+	}
+
+	private int postHook(final String path, final String event,
+			final String contentType, final byte[] body) throws IOException {
+		return postHook(path, event, contentType, body, null);
+	}
+
+	private int postHook(final String path, final String event,
+			final String contentType, final byte[] body, final String signature)
+			throws IOException {
+		HttpURLConnection conn = open(path);
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setRequestProperty("Content-Type", contentType);
+		if (event != null) {
+			conn.setRequestProperty("X-GitHub-Event", event);
+		}
+		if (signature != null) {
+			conn.setRequestProperty("X-Hub-Signature-256", signature);
+		}
+		try (OutputStream out = conn.getOutputStream()) {
+			out.write(body);
+		}
+		return conn.getResponseCode();
+	}
+
+	private void awaitProjectCount(final int count)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + HOOK_WAIT_MILLIS;
+		while (this.server.getProjects().size() != count
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		assertEquals(count, this.server.getProjects().size());
+	}
+
+	private void awaitRequestCount(final String path, final int count)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + HOOK_WAIT_MILLIS;
+		while (this.stub.getRequestCount(path) < count
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		assertEquals(count, this.stub.getRequestCount(path));
+	}
+
+	private static String sign(final String secret, final byte[] body) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8),
+					"HmacSHA256"));
+			return "sha256=" + Hex.encodeHexString(mac.doFinal(body));
+		} catch (GeneralSecurityException excep) {
+			throw new IllegalStateException(excep);
+		}
+	}
+
+	private static byte[] readPayload(final String name) throws IOException {
+		try (InputStream in = HealthCheckServerTest.class
+				.getResourceAsStream(HOOKS_ROOT + name)) {
+			assertNotNull(name, in);
+			return ByteStreams.toByteArray(in);
+		}
+	}
+
+	private HttpURLConnection open(final String path) throws IOException {
+		return (HttpURLConnection) new URL("http://localhost:"
+				+ this.server.getPort() + path).openConnection();
+	}
+}
@@ -0,0 +1,187 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
+import org.opf_labs.project.healthcheck.GitHubProject.Indicators;
+import org.opf_labs.project.healthcheck.HealthHistory.Coverage;
+import org.opf_labs.project.healthcheck.HealthHistory.Indicator;
+import org.opf_labs.project.healthcheck.HealthHistory.Sample;
+
+/**
+ * Unit tests for the HealthHistory time series store.
+ */
+public class HealthHistoryTest {
+	private static final long HOUR = 60L * 60L * 1000L;
+	private static final long START = 1373454000000L;
+	private static final int REPOS = 20;
+	private static final int RUNS = 48;
+
+	/** Temporary folder for the store */
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	/**
+	 * Test that a repo's history follows its indicators and issues run by
+	 * run, across segments and after the store's reopened.
+	 *
+	 * @throws IOException
+	 *             if the store can't be written or read
+	 */
+	@Test
+	public void testHistory() throws IOException {
+		File dir = this.temp.newFolder("history");
+		// Small segments so the runs span several
+		try (HealthHistory history = HealthHistory.open(dir, 1024L)) {
+			appendRuns(history);
+			assertEquals(RUNS, history.getRunCount());
+			assertHistory(history);
+		}
+		assertTrue(new File(dir, "segment-00002").isFile());
+		try (HealthHistory history = HealthHistory.open(dir)) {
+			assertEquals(RUNS, history.getRunCount());
+			assertEquals(START + (RUNS - 1) * HOUR,
+					history.getRunTime(RUNS - 1));
+			assertHistory(history);
+		}
+	}
+
+	/**
+	 * Test that coverage counts the projects with an indicator at each of
+	 * the latest runs, for everyone or for one owner.
+	 *
+	 * @throws IOException
+	 *             if the store can't be written or read
+	 */
+	@Test
+	public void testCoverage() throws IOException {
+		try (HealthHistory history = HealthHistory.open(this.temp
+				.newFolder("history"))) {
+			appendRuns(history);
+			List<Coverage> coverage = history.coverage(null,
+					Indicator.LICENSE, 5);
+			assertEquals(5, coverage.size());
+			Coverage last = coverage.get(4);
+			assertEquals(START + (RUNS - 1) * HOUR, last.getTime());
+			assertEquals(projects(RUNS - 1).size(), last.getProjects());
+			assertEquals(1.0d, last.getFraction(), 0d);
+			// Repo i gets its licence at run i
+			Coverage early = history.coverage(null, Indicator.LICENSE, RUNS)
+					.get(5);
+			assertEquals(START + 5 * HOUR, early.getTime());
+			assertEquals(REPOS + 1, early.getProjects());
+			assertEquals(7, early.getCovered());
+			List<Coverage> owned = history.coverage("scape",
+					Indicator.LICENSE, 1);
+			assertEquals(1, owned.get(0).getProjects());
+			assertEquals(1, owned.get(0).getCovered());
+			assertEquals(RUNS, history.coverage("openplanets",
+					Indicator.README, RUNS + 10).size());
+		}
+	}
+
+	/**
+	 * Test that a run index entry torn by a crash is dropped and the store
+	 * still appends after the last whole run.
+	 *
+	 * @throws IOException
+	 *             if the store can't be written or read
+	 */
+	@Test
+	public void testTornRunDropped() throws IOException {
+		File dir = this.temp.newFolder("history");
+		try (HealthHistory history = HealthHistory.open(dir)) {
+			history.append(START, projects(0));
+			history.append(START + HOUR, projects(1));
+		}
+		try (RandomAccessFile runs = new RandomAccessFile(
+				new File(dir, "runs"), "rw")) {
+			runs.setLength(runs.length() - 5);
+		}
+		try (HealthHistory history = HealthHistory.open(dir)) {
+			assertEquals(1, history.getRunCount());
+			history.append(START + 2 * HOUR, projects(2));
+			List<Sample> samples = history.history("openplanets", "repo-3",
+					0L, Long.MAX_VALUE);
+			assertEquals(2, samples.size());
+			assertEquals(START + 2 * HOUR, samples.get(1).getTime());
+			assertEquals(5, samples.get(1).getOpenIssues());
+		}
+	}
+
+	/**
+	 * Test that runs can only be appended in time order.
+	 *
+	 * @throws IOException
+	 *             if the store can't be written
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testRunsInOrder() throws IOException {
+		try (HealthHistory history = HealthHistory.open(this.temp
+				.newFolder("history"))) {
+			history.append(START, projects(0));
+			history.append(START, projects(1));
+		}
+	}
+
+	private static void appendRuns(final HealthHistory history)
+			throws IOException {
+		for (int run = 0; run < RUNS; run++) {
+			history.append(START + run * HOUR, projects(run));
+		}
+	}
+
+	private static void assertHistory(final HealthHistory history)
+			throws IOException {
+		List<Sample> samples = history.history("openplanets", "repo-3",
+				START + 10 * HOUR, START + 19 * HOUR);
+		assertEquals(10, samples.size());
+		for (int i = 0; i < samples.size(); i++) {
+			int run = 10 + i;
+			Sample sample = samples.get(i);
+			assertEquals(START + run * HOUR, sample.getTime());
+			assertEquals(run + 3, sample.getOpenIssues());
+			assertEquals(run >= 3, sample.has(Indicator.LICENSE));
+			assertTrue(sample.has(Indicator.README));
+			assertFalse(sample.has(Indicator.TRAVIS));
+		}
+		// Only in the runs after it was created
+		assertEquals(RUNS - 30, history.history("openplanets", "repo-30",
+				0L, Long.MAX_VALUE).size());
+		assertTrue(history.history("openplanets", "missing", 0L,
+				Long.MAX_VALUE).isEmpty());
+	}
+
+	private static List<GitHubProject> projects(final int run) {
+		List<GitHubProject> projects = new ArrayList<>();
+		for (int i = 0; i < REPOS + run / 30 * 11; i++) {
+			projects.add(project("openplanets", "repo-" + i, run + i,
+					i <= run, i % 4 == 1));
+		}
+		projects.add(project("scape", "scape", 0, true, true));
+		return projects;
+	}
+
+	private static GitHubProject project(final String owner,
+			final String name, final int openIssues, final boolean licensed,
+			final boolean travis) {
+		String url = "https://github.com/" + owner + "/" + name;
+		return GitHubProject.fromValues(name, "", owner, url, new Date(START),
+				"Java", openIssues, ProjectMetadata.defaultInstance(),
+				Indicators.fromValues(url + "#readme", licensed ? url
+						+ "/blob/master/LICENSE" : "", ""), CiInfo
+						.fromValues(travis));
+	}
+}
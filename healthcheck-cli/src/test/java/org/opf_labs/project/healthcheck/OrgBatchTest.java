@@ -0,0 +1,77 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Tests for OrgBatch, run against a local stub server standing in for both
+ * the GitHub and Travis APIs.
+ */
+public class OrgBatchTest {
+	/** Temporary output directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private StubApiServer stub;
+
+	/**
+	 * Start the stub server.
+	 *
+	 * @throws IOException
+	 *             if the server can't be started
+	 */
+	@Before
+	public void startServer() throws IOException {
+		this.stub = new StubApiServer();
+	}
+
+	/**
+	 * Stop the stub server.
+	 */
+	@After
+	public void stopServer() {
+		this.stub.stop();
+	}
+
+	/**
+	 * Test that a batch writes a report and state file for each organisation
+	 * and an index linking the reports.
+	 *
+	 * @throws IOException
+	 *             if the batch fails
+	 */
+	@Test
+	public void testRunWritesReportsAndIndex() throws IOException {
+		ScanOptions options = new ScanOptions.Builder().threads(2)
+				.travisClient(this.stub.createTravisClient()).build();
+		File outDir = this.folder.newFolder("reports");
+		OrgBatch batch = new OrgBatch(this.stub.createGitHubClient(), options,
+				ReportRenderer.defaultInstance(), 2);
+
+		List<OrgBatch.OrgReport> reports = batch.run(Arrays.asList("openplanets", "scape"), outDir);
+		assertEquals(2, reports.size());
+		assertEquals("openplanets", reports.get(0).getUser().getLogin());
+		assertEquals(2, reports.get(0).getProjectCount());
+		String index = Files.toString(new File(outDir, OrgBatch.REPORT_FILE), Charsets.UTF_8);
+		assertTrue(index.contains("href=\"openplanets/index.html\""));
+		assertTrue(index.contains("href=\"scape/index.html\""));
+		assertTrue(new File(outDir, "scape/" + OrgBatch.REPORT_FILE).isFile());
+		List<GitHubProject> projects = GitHubProjects.readPreviousProjects(new File(outDir, "scape/"
+				+ OrgBatch.STATE_FILE));
+		assertEquals(2, projects.size());
+	}
+}
@@ -6,10 +6,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URISyntaxException;
 
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+
 /**
  * Unit tests for ProjectMetadata class.
  * 
@@ -21,6 +25,10 @@ import org.junit.Test;
  */
 @SuppressWarnings("static-method")
 public class ProjectMetadataTest {
+	private static final String TAB_YAML = "name: OPF Project Healthcheck\n"
+			+ "vendor: Open Planets Foundation\n" + "maintainer:\n"
+			+ "\tname: Carl Wilson\n"
+			+ "\temail: carl( AT )openplanetsfoundation( DOT )org\n";
 
 	/**
 	 * Null name test for
@@ -102,4 +110,48 @@ public class ProjectMetadataTest {
 			ProjectMetadata.fromYamlStream(fis);
 		}
 	}
+
+	/**
+	 * Test that tab indented YAML is parsed by
+	 * {@link org.opf_labs.project.healthcheck.ProjectMetadata#fromYamlString(String)}
+	 */
+	@Test
+	public void testGetInstanceStringTabs() {
+		ProjectMetadata pmd = ProjectMetadata.fromYamlString(TAB_YAML);
+		assertEquals("OPF Project Healthcheck", pmd.name);
+		assertEquals("OPF", pmd.vendor);
+	}
+
+	/**
+	 * Test for
+	 * {@link org.opf_labs.project.healthcheck.ProjectMetadata#fromYamlBytes(byte[])}
+	 */
+	@Test
+	public void testGetInstanceBytes() {
+		ProjectMetadata pmd = ProjectMetadata.fromYamlBytes(TAB_YAML
+				.getBytes(Charsets.UTF_8));
+		assertEquals("OPF Project Healthcheck", pmd.name);
+		assertEquals("OPF", pmd.vendor);
+	}
+
+	/**
+	 * Test that the tab expanding reader carries the second space of a tab
+	 * over to the next read when the caller's buffer is full.
+	 * 
+	 * @throws IOException
+	 *             if the reader fails
+	 */
+	@Test
+	public void testTabExpandingReaderSmallReads() throws IOException {
+		try (Reader reader = new ProjectMetadata.TabExpandingReader(
+				new StringReader("a\t\tb"))) {
+			StringBuilder expanded = new StringBuilder();
+			char[] cbuf = new char[1];
+			int read;
+			while ((read = reader.read(cbuf, 0, cbuf.length)) >= 0) {
+				expanded.append(cbuf, 0, read);
+			}
+			assertEquals("a    b", expanded.toString());
+		}
+	}
 }
@@ -0,0 +1,89 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
+import org.opf_labs.project.healthcheck.GitHubProject.Indicators;
+
+/**
+ * Unit tests for the ProjectSinks output formats.
+ */
+@SuppressWarnings("static-method")
+public class ProjectSinksTest {
+	private static final GitHubProject JPYLYZER = GitHubProject.fromValues(
+			"jpylyzer", "JP2 <validator>", "openplanets",
+			"https://github.com/openplanets/jpylyzer", new Date(1373454000000L),
+			"Python", 3, ProjectMetadata.fromValues("jpylyzer", "Open Planets Foundation"),
+			Indicators.fromValues("https://github.com/openplanets/jpylyzer#readme", "", ""),
+			CiInfo.fromValues(true));
+	private static final GitHubProject SCAPE = GitHubProject.fromValues("scape",
+			"", "openplanets", "https://github.com/openplanets/scape",
+			new Date(1373540400000L), null, 0, ProjectMetadata.defaultInstance(),
+			Indicators.fromValues("", "", ""), CiInfo.fromValues(false));
+
+	/**
+	 * Test that the NDJSON sink writes one project per line as each arrives.
+	 *
+	 * @throws IOException
+	 *             if a project can't be written
+	 */
+	@Test
+	public void testNdjson() throws IOException {
+		StringWriter out = new StringWriter();
+		try (ProjectSink sink = ProjectSinks.ndjson(out)) {
+			sink.accept(JPYLYZER);
+			assertTrue(out.toString().endsWith("\n"));
+			sink.accept(SCAPE);
+		}
+		String[] lines = out.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].startsWith("{\"name\":\"jpylyzer\""));
+		assertTrue(lines[1].startsWith("{\"name\":\"scape\""));
+	}
+
+	/**
+	 * Test that the JSON array sink's output can be read back as a project
+	 * list.
+	 *
+	 * @throws IOException
+	 *             if the list can't be written or read
+	 */
+	@Test
+	public void testJsonArrayRoundTrip() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ProjectSink sink = ProjectSinks.jsonArray(out)) {
+			sink.accept(JPYLYZER);
+			sink.accept(SCAPE);
+		}
+		List<GitHubProject> projects = GitHubProjects
+				.readProjectList(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(2, projects.size());
+		assertEquals("jpylyzer", projects.get(0).name);
+		assertEquals("scape", projects.get(1).name);
+	}
+
+	/**
+	 * Test that the HTML fragment sink escapes project values.
+	 *
+	 * @throws IOException
+	 *             if a project can't be written
+	 */
+	@Test
+	public void testHtmlFragmentEscapes() throws IOException {
+		StringWriter out = new StringWriter();
+		try (ProjectSink sink = ProjectSinks.htmlFragment(out)) {
+			sink.accept(JPYLYZER);
+		}
+		assertTrue(out.toString().startsWith("<li class=\"repo\" data-vendor=\"OPF\">"));
+		assertTrue(out.toString().contains("JP2 &lt;validator&gt;"));
+	}
+}
@@ -0,0 +1,223 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
+import org.opf_labs.project.healthcheck.GitHubProject.Indicators;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Unit tests for the ProjectSnapshots binary format.
+ */
+@SuppressWarnings("static-method")
+public class ProjectSnapshotsTest {
+	private static final int PROJECT_COUNT = 500;
+
+	/** Temporary folder for state files */
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	/**
+	 * Test that a snapshot reads back as the projects written.
+	 *
+	 * @throws IOException
+	 *             if the snapshot can't be written or read
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		List<GitHubProject> projects = projects(PROJECT_COUNT);
+		List<GitHubProject> read = ProjectSnapshots.read(new ByteArrayInputStream(
+				snapshot(projects)));
+		assertEquals(PROJECT_COUNT, read.size());
+		for (int i = 0; i < PROJECT_COUNT; i++) {
+			GitHubProject expected = projects.get(i);
+			GitHubProject actual = read.get(i);
+			assertEquals(expected.name, actual.name);
+			assertEquals(expected.description, actual.description);
+			assertEquals(expected.url, actual.url);
+			assertEquals(expected.updated, actual.updated);
+			assertEquals(expected.language, actual.language);
+			assertEquals(expected.openIssues, actual.openIssues);
+			assertEquals(expected.metadata.vendor, actual.metadata.vendor);
+			assertEquals(expected.indicators.readMeUrl,
+					actual.indicators.readMeUrl);
+			assertEquals(expected.ci.hasTravis, actual.ci.hasTravis);
+		}
+	}
+
+	/**
+	 * Test that repeated values are read back as shared instances, Smile
+	 * starts a new copy each time its back reference table fills.
+	 *
+	 * @throws IOException
+	 *             if the snapshot can't be written or read
+	 */
+	@Test
+	public void testSharedStrings() throws IOException {
+		List<GitHubProject> read = ProjectSnapshots.read(new ByteArrayInputStream(
+				snapshot(projects(PROJECT_COUNT))));
+		assertSame(read.get(0).ownerLogin, read.get(1).ownerLogin);
+		assertSame(read.get(0).language, read.get(2).language);
+		Set<String> owners = Collections.newSetFromMap(
+				new IdentityHashMap<String, Boolean>());
+		for (GitHubProject project : read) {
+			owners.add(project.ownerLogin);
+		}
+		assertTrue(owners.size() < PROJECT_COUNT / 50);
+	}
+
+	/**
+	 * Test that a snapshot is smaller than the same list as JSON.
+	 *
+	 * @throws IOException
+	 *             if the list can't be written
+	 */
+	@Test
+	public void testSmallerThanJson() throws IOException {
+		List<GitHubProject> projects = projects(PROJECT_COUNT);
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		GitHubProjects.writeProjectList(projects, json);
+		assertTrue(snapshot(projects).length < json.size() / 2);
+	}
+
+	/**
+	 * Test that a snapshot from a later format version is refused rather
+	 * than misread.
+	 *
+	 * @throws IOException
+	 *             if the test snapshot can't be written
+	 */
+	@Test
+	public void testNewerVersionRejected() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonGenerator generator = new SmileFactory().createGenerator(out)) {
+			generator.writeStartObject();
+			generator.writeNumberField("version",
+					ProjectSnapshots.FORMAT_VERSION + 1);
+			generator.writeArrayFieldStart("projects");
+			generator.writeEndArray();
+			generator.writeEndObject();
+		}
+		try {
+			ProjectSnapshots.read(new ByteArrayInputStream(out.toByteArray()));
+			fail("Read a snapshot from a later format version.");
+		} catch (IOException excep) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Test that snapshots are told apart from JSON without consuming the
+	 * stream.
+	 *
+	 * @throws IOException
+	 *             if the streams can't be read
+	 */
+	@Test
+	public void testIsSnapshot() throws IOException {
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream(
+				snapshot(projects(1))));
+		assertTrue(ProjectSnapshots.isSnapshot(in));
+		assertEquals(1, ProjectSnapshots.read(in).size());
+		assertFalse(ProjectSnapshots.isSnapshot(new BufferedInputStream(
+				new ByteArrayInputStream("[]".getBytes("UTF-8")))));
+	}
+
+	/**
+	 * Test that state files are written in the format their name selects and
+	 * read back whatever the format.
+	 *
+	 * @throws IOException
+	 *             if the state files can't be written
+	 */
+	@Test
+	public void testStateFileFormats() throws IOException {
+		List<GitHubProject> projects = projects(10);
+		File json = new File(this.temp.getRoot(), "state.json");
+		File snapshot = new File(this.temp.getRoot(), "state"
+				+ ProjectSnapshots.EXTENSION);
+		GitHubProjects.writeProjectFile(projects, json);
+		GitHubProjects.writeProjectFile(projects, snapshot);
+		assertTrue(snapshot.length() < json.length());
+		assertEquals(10, GitHubProjects.readPreviousProjects(json).size());
+		assertEquals(10, GitHubProjects.readPreviousProjects(snapshot).size());
+		// A misnamed file is still read by its content
+		File renamed = new File(this.temp.getRoot(), "renamed.json");
+		assertTrue(snapshot.renameTo(renamed));
+		assertEquals(10, GitHubProjects.readPreviousProjects(renamed).size());
+	}
+
+	/**
+	 * Test that a state file that can't be written leaves the previous file
+	 * intact and no temporary file behind.
+	 *
+	 * @throws IOException
+	 *             if the state file can't be written
+	 */
+	@Test
+	public void testStateFileFailedWrite() throws IOException {
+		File json = new File(this.temp.getRoot(), "state.json");
+		GitHubProjects.writeProjectFile(projects(10), json);
+		try {
+			GitHubProjects.replaceFile(json, new GitHubProjects.FileContents() {
+				@Override
+				public void write(final OutputStream out) throws IOException {
+					out.write('[');
+					throw new IOException("Scan failed");
+				}
+			});
+			fail("Failed write wasn't reported");
+		} catch (IOException excep) {
+			assertEquals("Scan failed", excep.getMessage());
+		}
+		assertEquals(10, GitHubProjects.readPreviousProjects(json).size());
+		assertFalse(new File(this.temp.getRoot(), "state.json.tmp").exists());
+	}
+
+	private static byte[] snapshot(final List<GitHubProject> projects)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProjectSnapshots.write(projects, out);
+		return out.toByteArray();
+	}
+
+	private static List<GitHubProject> projects(final int count) {
+		List<GitHubProject> projects = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String name = String.format("repo-%05d", Integer.valueOf(i));
+			String url = "https://github.com/openplanets/" + name;
+			projects.add(GitHubProject.fromValues(name, "Project " + i,
+					"openplanets", url, new Date(1373454000000L + i * 60000L),
+					(i % 2 == 0) ? "Java" : "Python", i % 7,
+					(i % 5 == 0) ? ProjectMetadata.fromValues(name,
+							"Open Planets Foundation") : ProjectMetadata
+							.defaultInstance(), Indicators.fromValues(
+							(i % 2 == 0) ? url + "#readme" : "", "", ""),
+					CiInfo.fromValues(i % 4 == 0)));
+		}
+		return projects;
+	}
+}
@@ -0,0 +1,175 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.egit.github.core.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the RateLimitScheduler, run against a local stub server that
+ * returns GitHub's rate limit headers.
+ */
+public class RateLimitSchedulerTest {
+	private static final String USER_JSON = "{\"login\":\"openplanets\",\"name\":\"Open Planets\"}";
+	private static final long RESET_DELAY_MILLIS = 1000L;
+
+	private HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile StubResponse stub;
+
+	private interface StubResponse {
+		void respond(HttpExchange exchange, int request) throws IOException;
+	}
+
+	/**
+	 * Start the stub server on an ephemeral port.
+	 *
+	 * @throws IOException
+	 *             if the server can't be started
+	 */
+	@Before
+	public void startServer() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/", new HttpHandler() {
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				RateLimitSchedulerTest.this.stub.respond(exchange,
+						RateLimitSchedulerTest.this.requests.incrementAndGet());
+			}
+		});
+		this.server.start();
+	}
+
+	/**
+	 * Stop the stub server.
+	 */
+	@After
+	public void stopServer() {
+		this.server.stop(0);
+	}
+
+	/**
+	 * Test that requests are held once the quota is exhausted until the
+	 * window resets.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 */
+	@Test
+	public void testWaitsForReset() throws IOException {
+		final long resetSeconds = TimeUnit.MILLISECONDS.toSeconds(System
+				.currentTimeMillis() + RESET_DELAY_MILLIS) + 1;
+		this.stub = new StubResponse() {
+			@Override
+			public void respond(final HttpExchange exchange, final int request)
+					throws IOException {
+				// The first response exhausts the window, the second is in the next
+				exchange.getResponseHeaders().add(RateLimitScheduler.HEADER_LIMIT, "60");
+				exchange.getResponseHeaders().add(RateLimitScheduler.HEADER_REMAINING,
+						(request == 1) ? "0" : "59");
+				exchange.getResponseHeaders().add(RateLimitScheduler.HEADER_RESET,
+						String.valueOf((request == 1) ? resetSeconds : resetSeconds + 60));
+				sendJson(exchange, 200, USER_JSON);
+			}
+		};
+		HealthCheckGitHubClient client = createClient();
+		GitHubProjects.getUser(client, "openplanets");
+		assertEquals(0, client.getScheduler().getRemaining());
+		User user = GitHubProjects.getUser(client, "openplanets");
+		assertEquals("openplanets", user.getLogin());
+		assertTrue(System.currentTimeMillis() >= TimeUnit.SECONDS.toMillis(resetSeconds));
+		assertEquals(59, client.getScheduler().getRemaining());
+	}
+
+	/**
+	 * Test that a request refused by a secondary rate limit is retried after
+	 * the Retry-After period.
+	 *
+	 * @throws IOException
+	 *             if a request fails
+	 */
+	@Test
+	public void testSecondaryLimitRetry() throws IOException {
+		this.stub = new StubResponse() {
+			@Override
+			public void respond(final HttpExchange exchange, final int request)
+					throws IOException {
+				if (request == 1) {
+					exchange.getResponseHeaders().add("Retry-After", "1");
+					sendJson(exchange, 403, "{\"message\":\"You have exceeded a secondary rate limit.\"}");
+				} else {
+					sendJson(exchange, 200, USER_JSON);
+				}
+			}
+		};
+		HealthCheckGitHubClient client = createClient();
+		long start = System.currentTimeMillis();
+		User user = GitHubProjects.getUser(client, "openplanets");
+		assertEquals("openplanets", user.getLogin());
+		assertEquals(2, this.requests.get());
+		assertTrue(System.currentTimeMillis() - start >= RESET_DELAY_MILLIS);
+	}
+
+	/**
+	 * Test that a new repository is held while the quota is reserved for
+	 * those already started.
+	 *
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testAdmissionReservesQuota() throws InterruptedException {
+		final RateLimitScheduler scheduler = new RateLimitScheduler();
+		scheduler.update(5000, 4, System.currentTimeMillis() + RESET_DELAY_MILLIS);
+		final long[] admitted = new long[1];
+		Thread second = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scheduler.admitRepository();
+					admitted[0] = System.currentTimeMillis();
+				} catch (IOException excep) {
+					throw new AssertionError(excep);
+				}
+			}
+		});
+		long start = System.currentTimeMillis();
+		try {
+			scheduler.admitRepository();
+		} catch (IOException excep) {
+			throw new AssertionError(excep);
+		}
+		second.start();
+		second.join();
+		assertTrue(admitted[0] - start >= RESET_DELAY_MILLIS - 100L);
+	}
+
+	private HealthCheckGitHubClient createClient() {
+		return new HealthCheckGitHubClient("localhost", this.server.getAddress()
+				.getPort(), "http");
+	}
+
+	static void sendJson(final HttpExchange exchange, final int status,
+			final String json) throws IOException {
+		byte[] body = json.getBytes("UTF-8");
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.eclipse.egit.github.core.User;
+import org.junit.Test;
+import org.opf_labs.project.healthcheck.GitHubProject.CiInfo;
+import org.opf_labs.project.healthcheck.GitHubProject.Indicators;
+
+import freemarker.template.TemplateException;
+
+/**
+ * Unit tests for the ReportRenderer. Creating a renderer parses the packaged
+ * templates so a template syntax error fails the build rather than a run.
+ */
+@SuppressWarnings("static-method")
+public class ReportRendererTest {
+
+	/**
+	 * Test that the default renderer is created once and reused.
+	 *
+	 * @throws IOException
+	 *             if the templates can't be parsed
+	 */
+	@Test
+	public void testDefaultInstanceReused() throws IOException {
+		assertSame(ReportRenderer.defaultInstance(),
+				ReportRenderer.defaultInstance());
+	}
+
+	/**
+	 * Test that a renderer can render more than one report.
+	 *
+	 * @throws IOException
+	 *             if the templates can't be parsed or the report written
+	 * @throws TemplateException
+	 *             if the template can't be processed
+	 */
+	@Test
+	public void testRenderHtmlRepeatedly() throws IOException,
+			TemplateException {
+		User user = new User().setLogin("openplanets")
+				.setName("Open Planets Foundation")
+				.setAvatarUrl("https://github.com/openplanets.png")
+				.setHtmlUrl("https://github.com/openplanets");
+		GitHubProject project = GitHubProject.fromValues("jpylyzer",
+				"JP2 validator", "openplanets",
+				"https://github.com/openplanets/jpylyzer", new Date(1373454000000L),
+				"Python", 3, ProjectMetadata.fromValues("jpylyzer", "Open Planets Foundation"),
+				Indicators.fromValues("", "", ""), CiInfo.fromValues(true));
+		ReportRenderer renderer = new ReportRenderer();
+		for (int render = 0; render < 2; render++) {
+			StringWriter out = new StringWriter();
+			renderer.renderHtml(user, Arrays.asList(project), out);
+			String html = out.toString();
+			assertTrue(html.contains("<title>Open Planets Foundation GitHub Project Health Check</title>"));
+			assertTrue(html.contains("[{\"name\":\"jpylyzer\""));
+			assertTrue(html.contains("rel=\"OPF\""));
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.service.RepositoryService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the ResponseCache class.
+ */
+public class ResponseCacheTest {
+	/** Temporary cache directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test that a stored entry is returned with its validators.
+	 *
+	 * @throws IOException
+	 *             if the cache directory can't be created
+	 */
+	@Test
+	public void testPutGet() throws IOException {
+		ResponseCache cache = new ResponseCache(this.folder.getRoot(), 1024L);
+		byte[] body = "{\"name\":\"project-healthcheck\"}".getBytes("UTF-8");
+		cache.put("/repos/openplanets/project-healthcheck",
+				new ResponseCache.Entry("\"abc\"", "", "<next>; rel=\"next\"", body));
+		ResponseCache.Entry entry = cache.get("/repos/openplanets/project-healthcheck");
+		assertNotNull(entry);
+		assertEquals("\"abc\"", entry.etag);
+		assertEquals("", entry.lastModified);
+		assertEquals("<next>; rel=\"next\"", entry.link);
+		assertArrayEquals(body, entry.body);
+	}
+
+	/**
+	 * Test that an unknown key isn't found.
+	 *
+	 * @throws IOException
+	 *             if the cache directory can't be created
+	 */
+	@Test
+	public void testGetMissing() throws IOException {
+		ResponseCache cache = new ResponseCache(this.folder.getRoot(), 1024L);
+		assertNull(cache.get("/repos/openplanets/missing"));
+	}
+
+	/**
+	 * Test that the least recently used entries are evicted once the cache
+	 * grows beyond its maximum size, and that the size is recovered when the
+	 * cache is reopened.
+	 *
+	 * @throws IOException
+	 *             if the cache directory can't be created
+	 */
+	@Test
+	public void testEviction() throws IOException {
+		File cacheDir = this.folder.getRoot();
+		ResponseCache cache = new ResponseCache(cacheDir, 1024L);
+		byte[] body = new byte[300];
+		for (int index = 0; index < 3; index++) {
+			cache.put("key" + index, new ResponseCache.Entry("etag", "", "", body));
+			// Age the entries so key0 is the least recently used
+			assertTrue(new File(cacheDir, DigestUtils.sha1Hex("key" + index)
+					+ ".entry").setLastModified(index * 1000L));
+		}
+		cache.put("key3", new ResponseCache.Entry("etag", "", "", body));
+		assertTrue(cache.size() <= 1024L);
+		assertNull(cache.get("key0"));
+		assertNull(cache.get("key1"));
+		assertNotNull(cache.get("key2"));
+		assertNotNull(cache.get("key3"));
+		assertEquals(cache.size(), new ResponseCache(cacheDir, 1024L).size());
+	}
+
+	/**
+	 * Test that an entry whose body length doesn't match its file is a miss
+	 * and is deleted, rather than sizing an allocation from a torn file.
+	 *
+	 * @throws IOException
+	 *             if the cache directory can't be created or the entry
+	 *             truncated
+	 */
+	@Test
+	public void testTornEntry() throws IOException {
+		ResponseCache cache = new ResponseCache(this.folder.getRoot(), 1024L);
+		cache.put("key", new ResponseCache.Entry("etag", "", "", new byte[300]));
+		File entryFile = new File(this.folder.getRoot(),
+				DigestUtils.sha1Hex("key") + ".entry");
+		try (RandomAccessFile file = new RandomAccessFile(entryFile, "rw")) {
+			file.setLength(file.length() - 100L);
+		}
+		assertNull(cache.get("key"));
+		assertTrue(!entryFile.exists());
+	}
+
+	/**
+	 * Test that a cached listing is requested with If-None-Match, that the
+	 * 304s are answered from the cache, paging with the cached Link headers,
+	 * and that the hits are counted in the scan metrics.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the listing fails
+	 */
+	@Test
+	public void testConditionalRequests() throws IOException {
+		StubApiServer stub = new StubApiServer.Builder().syntheticRepos(250)
+				.build();
+		try {
+			File cacheDir = this.folder.newFolder("cache");
+			List<Repository> listed = new RepositoryService(stub
+					.createGitHubClient().setResponseCache(
+							new ResponseCache(cacheDir, 1024L * 1024L)))
+					.getOrgRepositories("openplanets");
+			assertEquals(250, listed.size());
+			assertEquals(0, stub.getNotModifiedCount());
+
+			ScanMetrics metrics = new ScanMetrics();
+			List<Repository> relisted = new RepositoryService(stub
+					.createGitHubClient()
+					.setResponseCache(new ResponseCache(cacheDir, 1024L * 1024L))
+					.setMetrics(metrics)).getOrgRepositories("openplanets");
+			assertEquals(250, relisted.size());
+			assertEquals(listed.get(249).getName(), relisted.get(249).getName());
+			// Three pages of 100, the last two found through cached links
+			assertEquals(3, stub.getNotModifiedCount());
+			assertEquals(3L, metrics.getCall(ScanMetrics.GITHUB_LISTING)
+					.getCacheHits());
+			assertEquals(0L, metrics.getCall(ScanMetrics.GITHUB_LISTING)
+					.getCacheMisses());
+		} finally {
+			stub.stop();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.opf_labs.project.healthcheck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for ScanMetrics, the call classification and statistics and the
+ * recording of a scan against the stub APIs.
+ */
+public class ScanMetricsTest {
+
+	/**
+	 * Test the GitHub request paths are classified by call type.
+	 */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testClassifyGitHub() {
+		assertEquals(ScanMetrics.GITHUB_USER,
+				ScanMetrics.classifyGitHub("/users/openplanets"));
+		assertEquals(ScanMetrics.GITHUB_LISTING,
+				ScanMetrics.classifyGitHub("/orgs/openplanets/repos?per_page=100&page=2"));
+		assertEquals(ScanMetrics.GITHUB_REPOSITORY,
+				ScanMetrics.classifyGitHub("/api/v3/repos/openplanets/jpylyzer"));
+		assertEquals(ScanMetrics.GITHUB_CONTENTS,
+				ScanMetrics.classifyGitHub("/repos/openplanets/jpylyzer/contents"));
+		assertEquals(ScanMetrics.GITHUB_CONTENTS,
+				ScanMetrics.classifyGitHub("/repos/openplanets/jpylyzer/contents/.opf.yml"));
+		assertEquals(ScanMetrics.GITHUB_TREE,
+				ScanMetrics.classifyGitHub("/repos/openplanets/jpylyzer/git/trees/master"));
+		assertEquals(ScanMetrics.GITHUB_COMMITS,
+				ScanMetrics.classifyGitHub("/repos/openplanets/jpylyzer/commits"));
+		assertEquals(ScanMetrics.GITHUB_OTHER,
+				ScanMetrics.classifyGitHub("/rate_limit"));
+	}
+
+	/**
+	 * Test the counts, bytes, percentiles and rate limit of recorded calls.
+	 */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testRecord() {
+		ScanMetrics metrics = new ScanMetrics();
+		assertNull(metrics.getCall(ScanMetrics.GITHUB_CONTENTS));
+		for (int call = 0; call < 98; call++) {
+			metrics.record(ScanMetrics.GITHUB_CONTENTS,
+					TimeUnit.MILLISECONDS.toNanos(3L), 100L, false);
+		}
+		metrics.record(ScanMetrics.GITHUB_CONTENTS,
+				TimeUnit.MILLISECONDS.toNanos(150L), -1L, true);
+		metrics.record(ScanMetrics.GITHUB_CONTENTS,
+				TimeUnit.SECONDS.toNanos(90L), 0L, true);
+		metrics.cacheHit(ScanMetrics.GITHUB_CONTENTS);
+		metrics.cacheMiss(ScanMetrics.GITHUB_CONTENTS);
+		metrics.cacheMiss(ScanMetrics.GITHUB_CONTENTS);
+		ScanMetrics.CallStats stats = metrics.getCall(ScanMetrics.GITHUB_CONTENTS);
+		assertEquals(100L, stats.getCount());
+		assertEquals(2L, stats.getErrors());
+		assertEquals(9800L, stats.getBytes());
+		assertEquals(1L, stats.getCacheHits());
+		assertEquals(2L, stats.getCacheMisses());
+		assertEquals(5L, stats.percentileMillis(0.5));
+		assertEquals(200L, stats.percentileMillis(0.99));
+		assertEquals(90000L, stats.percentileMillis(1.0));
+		assertEquals(90000L, stats.getMaxMillis());
+
+		assertEquals(-1, metrics.getRateLimitRemaining());
+		metrics.rateLimit(4000);
+		metrics.rateLimit(3000);
+		metrics.rateLimit(4999);
+		assertEquals(4999, metrics.getRateLimitRemaining());
+		assertEquals(3000, metrics.getRateLimitLowest());
+	}
+
+	/**
+	 * Test a scan of the stub APIs records every call and the JSON output
+	 * reads back.
+	 *
+	 * @throws IOException
+	 *             if the stub can't be started or the scan fails
+	 */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testScanMetrics() throws IOException {
+		StubApiServer stub = new StubApiServer();
+		try {
+			ScanMetrics metrics = new ScanMetrics();
+			HealthCheckGitHubClient ghClient = stub.createGitHubClient()
+					.setMetrics(metrics);
+			ScanOptions options = new ScanOptions.Builder().threads(2)
+					.travisClient(stub.createTravisClient(metrics)).build();
+			List<GitHubProject> projects = GitHubProjects.createProjectList(
+					ghClient, "openplanets", options,
+					Collections.<GitHubProject> emptyList());
+			assertEquals(2, projects.size());
+			assertEquals(1L, metrics.getCall(ScanMetrics.GITHUB_LISTING).getCount());
+			assertTrue(metrics.getCall(ScanMetrics.GITHUB_LISTING).getBytes() > 0);
+			// Root listing and metadata file for each repository, all 404s
+			assertEquals(4L, metrics.getCall(ScanMetrics.GITHUB_CONTENTS).getCount());
+			assertEquals(0L, metrics.getCall(ScanMetrics.GITHUB_CONTENTS).getErrors());
+			assertEquals(2L, metrics.getCall(ScanMetrics.TRAVIS_REPO).getCount());
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			metrics.writeJson(out);
+			JsonNode json = new ObjectMapper().readTree(new ByteArrayInputStream(
+					out.toByteArray()));
+			assertEquals(4, json.path("calls").path(ScanMetrics.GITHUB_CONTENTS)
+					.path("count").asInt());
+			assertEquals(16, json.path("calls").path(ScanMetrics.TRAVIS_REPO)
+					.path("histogram").size());
+		} finally {
+			stub.stop();
+		}
+	}
+}
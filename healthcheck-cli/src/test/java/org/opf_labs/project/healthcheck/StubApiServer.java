@@ -0,0 +1,746 @@
+package org.opf_labs.project.healthcheck;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stub server that stands in for both the GitHub and Travis APIs, so
+ * scans can be tested and benchmarked offline without using any quota.
+ * Every user is an organisation and the repositories are set up with the
+ * {@link Builder}:
+ * <ul>
+ * <li>named repositories have no contents or Travis build,</li>
+ * <li>synthetic repositories vary like a real organisation's, some have a
+ * README, licence, .opf.yml metadata or Travis build and some don't,</li>
+ * <li>unlisted repositories can be fetched by name but aren't in the
+ * listing, as if just created,</li>
+ * <li>deleted repositories are listed but can't be fetched by name.</li>
+ * </ul>
+ * The listing is paged with Link headers the way GitHub's is, and generated
+ * GitHub responses carry an ETag that a conditional request is answered
+ * with a 304 for. GraphQL
+ * queries are answered at GitHub Enterprise's endpoint whatever the query
+ * text, with a page of repositories for the query's login, first and after
+ * variables in the shape {@link GraphQLProjects} asks for. Recorded
+ * responses in a fixtures directory take precedence over the generated
+ * ones, a request for <code>/api/v3/orgs/openplanets/repos?page=2</code> is
+ * answered from <code>github/orgs/openplanets/repos_page=2.json</code>, or
+ * <code>github/orgs/openplanets/repos.json</code> if there's no file for
+ * the query, and Travis requests from the <code>travis</code> directory.
+ * Every response can be delayed and a share of them failed with a 500, the
+ * same requests fail in every run, or every request under a path failed as
+ * if that API were down or refused with a 4xx. The stub counts the requests
+ * for each path. The
+ * clients it creates retry with a short back off so tests don't wait on
+ * retries.</p>
+ *
+ * The no argument constructor gives the stub the tests share, listing alpha
+ * and beta, with gamma unlisted and beta deleted.</p>
+ */
+public final class StubApiServer {
+	/** Root of the GitHub API on the stub, where EGit expects it */
+	public static final String GITHUB_ROOT = "/api/v3/";
+	/** GraphQL endpoint on the stub, where GitHub Enterprise has it */
+	public static final String GRAPHQL_PATH = "/api/graphql";
+	/** Root of the Travis API on the stub */
+	public static final String TRAVIS_ROOT = "/travis/";
+	private static final int TIMEOUT_MILLIS = 10000;
+	// GitHub's default and maximum page sizes
+	private static final int DEFAULT_PAGE_SIZE = 30;
+	private static final int MAX_PAGE_SIZE = 100;
+	// Mixed into the error draws
+	private static final long ERROR_SEED = 20131018L;
+	private static final String NOT_FOUND = "{\"message\":\"Not Found\"}";
+	private static final String JSON_TYPE = "application/json; charset=utf-8";
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final RetryPolicy RETRY_POLICY = new RetryPolicy(
+			RetryPolicy.DEFAULT_MAX_RETRIES, 10L, 100L);
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final List<StubRepo> listed;
+	private final Map<String, StubRepo> byName;
+	private final File fixtures;
+	private final long latencyMillis;
+	private final double errorRate;
+	private final List<String> failing;
+	private final Map<String, Integer> refused;
+	private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+	private final AtomicInteger notModified = new AtomicInteger();
+	private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, AtomicInteger> peakInFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Start the stub server the tests share on an ephemeral port.
+	 *
+	 * @throws IOException
+	 *             if the server can't be started
+	 */
+	public StubApiServer() throws IOException {
+		this(new Builder().repos("alpha", "beta").unlisted("gamma")
+				.deleted("beta"));
+	}
+
+	private StubApiServer(final Builder builder) throws IOException {
+		this.listed = builder.listed;
+		this.byName = new LinkedHashMap<>();
+		for (StubRepo repo : builder.listed) {
+			if (!builder.deleted.contains(repo.name)) {
+				this.byName.put(repo.name, repo);
+			}
+		}
+		for (StubRepo repo : builder.unlisted) {
+			this.byName.put(repo.name, repo);
+		}
+		this.fixtures = builder.fixtures;
+		this.latencyMillis = builder.latencyMillis;
+		this.errorRate = builder.errorRate;
+		this.failing = builder.failing;
+		this.refused = builder.refused;
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext(GITHUB_ROOT, new HttpHandler() {
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				if (beforeResponse(exchange, "github", GITHUB_ROOT)) {
+					handleGitHub(exchange);
+				}
+			}
+		});
+		this.server.createContext(GRAPHQL_PATH, new HttpHandler() {
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				if (beforeResponse(exchange, "github", "/api/")) {
+					handleGraphQL(exchange);
+				}
+			}
+		});
+		this.server.createContext(TRAVIS_ROOT, new HttpHandler() {
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				if (beforeResponse(exchange, "travis", TRAVIS_ROOT)) {
+					handleTravis(exchange);
+				}
+			}
+		});
+		// Requests are answered concurrently, like the real APIs
+		this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+				.setNameFormat("stub-api-%d").setDaemon(true).build());
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * Stop the stub server.
+	 */
+	public void stop() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * @param path
+	 *            the request path, including the API root
+	 * @return the number of requests made for the path
+	 */
+	public int getRequestCount(final String path) {
+		AtomicInteger count = this.requestCounts.get(path);
+		return (count == null) ? 0 : count.get();
+	}
+
+	/**
+	 * @param path
+	 *            the request path, including the API root
+	 * @return the most requests for the path delayed at once, 0 if the stub
+	 *         has no latency
+	 */
+	public int getPeakConcurrency(final String path) {
+		AtomicInteger peak = this.peakInFlight.get(path);
+		return (peak == null) ? 0 : peak.get();
+	}
+
+	/**
+	 * @return the number of conditional GitHub requests answered with a 304
+	 */
+	public int getNotModifiedCount() {
+		return this.notModified.get();
+	}
+
+	/**
+	 * @return the root URL of the stub's GitHub API
+	 */
+	public String getGitHubUrl() {
+		return "http://localhost:" + getPort();
+	}
+
+	/**
+	 * @return the root URL of the stub's Travis API
+	 */
+	public String getTravisUrl() {
+		return "http://localhost:" + getPort() + TRAVIS_ROOT;
+	}
+
+	/**
+	 * @return a GitHub client that calls the stub
+	 */
+	public HealthCheckGitHubClient createGitHubClient() {
+		return HealthCheckGitHubClient.fromUrl(getGitHubUrl()).setRetryPolicy(
+				RETRY_POLICY);
+	}
+
+	/**
+	 * @return a Travis client that calls the stub
+	 */
+	public TravisClient createTravisClient() {
+		return createTravisClient(null);
+	}
+
+	/**
+	 * @param metrics
+	 *            the metrics the client records its lookups in
+	 * @return a Travis client that calls the stub
+	 */
+	public TravisClient createTravisClient(final ScanMetrics metrics) {
+		return new TravisClient(getTravisUrl(), TIMEOUT_MILLIS, TIMEOUT_MILLIS,
+				metrics, RETRY_POLICY);
+	}
+
+	private int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * Counts the request, delays it, refuses it or fails it if its number's
+	 * up, or answers it from a fixture.
+	 *
+	 * @return true if the request still needs a generated response
+	 */
+	private boolean beforeResponse(final HttpExchange exchange,
+			final String fixtureDir, final String root) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		this.requestCounts.putIfAbsent(path, new AtomicInteger());
+		int attempt = this.requestCounts.get(path).incrementAndGet();
+		if (this.latencyMillis > 0) {
+			delay(path);
+		}
+		Integer refusal = findRefusal(path);
+		if (refusal != null) {
+			if (refusal.intValue() == RetryPolicy.HTTP_TOO_MANY_REQUESTS) {
+				exchange.getResponseHeaders().add(RetryPolicy.HEADER_RETRY_AFTER,
+						"0");
+			}
+			sendJson(exchange, refusal.intValue(), "{\"message\":\"Refused\"}");
+			return false;
+		}
+		if (isFailing(path)
+				|| injectError(exchange.getRequestURI().toString(), attempt)) {
+			sendJson(exchange, 500, "{\"message\":\"Injected error\"}");
+			return false;
+		}
+		File fixture = findFixture(fixtureDir, path.substring(root.length()),
+				exchange.getRequestURI().getRawQuery());
+		if (fixture != null) {
+			sendJson(exchange, 200, new String(Files.readAllBytes(fixture
+					.toPath()), Charsets.UTF_8));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Holds the request for the latency, tracking the most requests for the
+	 * path held at once.
+	 */
+	private void delay(final String path) {
+		this.inFlight.putIfAbsent(path, new AtomicInteger());
+		this.peakInFlight.putIfAbsent(path, new AtomicInteger());
+		AtomicInteger held = this.inFlight.get(path);
+		AtomicInteger peak = this.peakInFlight.get(path);
+		int now = held.incrementAndGet();
+		int seen = peak.get();
+		while (now > seen && !peak.compareAndSet(seen, now)) {
+			seen = peak.get();
+		}
+		try {
+			Thread.sleep(this.latencyMillis);
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+		} finally {
+			held.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Draws from the request and attempt so the same requests fail in every
+	 * run, whatever order concurrent requests arrive in, and a retry gets a
+	 * fresh draw. The attempt's spread across the seed as Random's first
+	 * draws from neighbouring seeds are close, retries would fail together.
+	 */
+	private boolean injectError(final String uri, final int attempt) {
+		return this.errorRate > 0
+				&& new Random(ERROR_SEED ^ (31L * uri.hashCode() + attempt
+						* 0x9E3779B97F4A7C15L))
+						.nextDouble() < this.errorRate;
+	}
+
+	private boolean isFailing(final String path) {
+		for (String root : this.failing) {
+			if (path.startsWith(root)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Integer findRefusal(final String path) {
+		for (Map.Entry<String, Integer> refusal : this.refused.entrySet()) {
+			if (path.startsWith(refusal.getKey())) {
+				return refusal.getValue();
+			}
+		}
+		return null;
+	}
+
+	private File findFixture(final String fixtureDir, final String path,
+			final String query) {
+		if (this.fixtures == null) {
+			return null;
+		}
+		File base = new File(new File(this.fixtures, fixtureDir), path);
+		if (query != null) {
+			File forQuery = new File(base.getPath() + "_"
+					+ query.replaceAll("[^A-Za-z0-9=_-]", "_") + ".json");
+			if (forQuery.isFile()) {
+				return forQuery;
+			}
+		}
+		File forPath = new File(base.getPath() + ".json");
+		return forPath.isFile() ? forPath : null;
+	}
+
+	private void handleGitHub(final HttpExchange exchange) throws IOException {
+		String[] path = exchange.getRequestURI().getPath()
+				.substring(GITHUB_ROOT.length()).split("/");
+		if (path.length == 2 && path[0].matches("users|orgs")) {
+			sendGitHubJson(exchange, userJson(path[1]));
+		} else if (path.length == 3 && path[0].matches("users|orgs")
+				&& "repos".equals(path[2])) {
+			sendListing(exchange, path[0] + "/" + path[1] + "/repos", path[1]);
+		} else if (path.length >= 3 && "repos".equals(path[0])
+				&& this.byName.containsKey(path[2])) {
+			StubRepo repo = this.byName.get(path[2]);
+			if (path.length == 3) {
+				sendGitHubJson(exchange, repo.json(path[1]));
+			} else if (path.length == 4 && "contents".equals(path[3])
+					&& repo.hasContents()) {
+				sendGitHubJson(exchange, repo.contentsJson(path[1]));
+			} else if (path.length == 5 && "contents".equals(path[3])
+					&& ".opf.yml".equals(path[4]) && repo.metadata) {
+				sendGitHubJson(exchange, repo.metadataJson());
+			} else {
+				sendJson(exchange, 404, NOT_FOUND);
+			}
+		} else {
+			sendJson(exchange, 404, NOT_FOUND);
+		}
+	}
+
+	private void sendListing(final HttpExchange exchange,
+			final String listingPath, final String owner) throws IOException {
+		int page = 1;
+		int pageSize = DEFAULT_PAGE_SIZE;
+		String query = exchange.getRequestURI().getQuery();
+		if (query != null) {
+			for (String param : Splitter.on('&').split(query)) {
+				if (param.startsWith("page=")) {
+					page = Integer.parseInt(param.substring("page=".length()));
+				} else if (param.startsWith("per_page=")) {
+					pageSize = Math.min(MAX_PAGE_SIZE, Integer.parseInt(param
+							.substring("per_page=".length())));
+				}
+			}
+		}
+		int lastPage = Math.max(1,
+				(this.listed.size() + pageSize - 1) / pageSize);
+		StringBuilder json = new StringBuilder("[");
+		int end = Math.min(this.listed.size(), page * pageSize);
+		for (int index = (page - 1) * pageSize; index < end; index++) {
+			if (json.length() > 1) {
+				json.append(',');
+			}
+			json.append(this.listed.get(index).json(owner));
+		}
+		json.append(']');
+		if (page < lastPage) {
+			String pageUrl = getGitHubUrl() + GITHUB_ROOT + listingPath
+					+ "?per_page=" + pageSize + "&page=";
+			exchange.getResponseHeaders().add("Link",
+					"<" + pageUrl + (page + 1) + ">; rel=\"next\", <" + pageUrl
+							+ lastPage + ">; rel=\"last\"");
+		}
+		sendGitHubJson(exchange, json.toString());
+	}
+
+	private void handleGraphQL(final HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			sendJson(exchange, 405, "{\"message\":\"Method Not Allowed\"}");
+			return;
+		}
+		JsonNode variables;
+		try (InputStream in = exchange.getRequestBody()) {
+			variables = MAPPER.readTree(in).path("variables");
+		}
+		String owner = variables.path("login").asText();
+		int first = Math.min(MAX_PAGE_SIZE, variables.path("first").asInt(
+				DEFAULT_PAGE_SIZE));
+		// The cursor's the index of the page's first repository
+		int start = variables.path("after").isTextual() ? Integer
+				.parseInt(variables.path("after").asText()) : 0;
+		int end = Math.min(this.listed.size(), start + first);
+		StringBuilder nodes = new StringBuilder("[");
+		for (int index = start; index < end; index++) {
+			if (nodes.length() > 1) {
+				nodes.append(',');
+			}
+			nodes.append(this.listed.get(index).graphQLJson(owner));
+		}
+		nodes.append(']');
+		sendJson(exchange, 200, "{\"data\":{\"repositoryOwner\":{\"repositories\":"
+				+ "{\"pageInfo\":{\"hasNextPage\":" + (end < this.listed.size())
+				+ ",\"endCursor\":\"" + end + "\"},\"nodes\":" + nodes
+				+ "}}}}");
+	}
+
+	private void handleTravis(final HttpExchange exchange) throws IOException {
+		String[] path = exchange.getRequestURI().getPath()
+				.substring(TRAVIS_ROOT.length()).split("/");
+		StubRepo repo = (path.length == 3 && "repos".equals(path[0])) ? this.byName
+				.get(path[2]) : null;
+		if (repo == null || !repo.travis) {
+			sendJson(exchange, 404, "{}");
+			return;
+		}
+		sendJson(exchange, 200, "{\"id\":" + (repo.index + 1) + ",\"slug\":\""
+				+ path[1] + "/" + repo.name + "\",\"last_build_id\":"
+				+ (repo.index + 1000) + ",\"last_build_status\":0,"
+				+ "\"last_build_result\":0,\"last_build_duration\":120}");
+	}
+
+	/**
+	 * Sends a generated GitHub response with an ETag, or a bare 304 if the
+	 * request's If-None-Match matches it. The 304 has no Link header so a
+	 * client paging through a listing has to use the one it cached.
+	 */
+	private void sendGitHubJson(final HttpExchange exchange, final String json)
+			throws IOException {
+		String etag = "\"" + DigestUtils.sha1Hex(json) + "\"";
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			this.notModified.incrementAndGet();
+			exchange.getResponseHeaders().remove("Link");
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		exchange.getResponseHeaders().add("ETag", etag);
+		sendJson(exchange, 200, json);
+	}
+
+	/**
+	 * Sends a JSON response and closes the exchange.
+	 *
+	 * @param exchange
+	 *            the exchange to answer
+	 * @param status
+	 *            the HTTP status
+	 * @param json
+	 *            the response body
+	 * @throws IOException
+	 *             if the response can't be sent
+	 */
+	static void sendJson(final HttpExchange exchange, final int status,
+			final String json) throws IOException {
+		byte[] body = json.getBytes(Charsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", JSON_TYPE);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String userJson(final String login) {
+		return "{\"login\":\"" + login + "\",\"name\":\"Org " + login
+				+ "\",\"avatar_url\":\"https://github.com/" + login
+				+ ".png\",\"html_url\":\"https://github.com/" + login + "\"}";
+	}
+
+	/**
+	 * A repository the stub serves, the synthetic ones have files and builds
+	 * chosen by their position.
+	 */
+	private static final class StubRepo {
+		final int index;
+		final String name;
+		final boolean readme;
+		final boolean license;
+		final boolean metadata;
+		final boolean travis;
+
+		StubRepo(final int index, final String name, final boolean synthetic) {
+			this.index = index;
+			this.name = name;
+			this.readme = synthetic && index % 2 == 0;
+			this.license = synthetic && index % 3 == 0;
+			this.metadata = synthetic && index % 5 == 0;
+			this.travis = synthetic && index % 4 == 0;
+		}
+
+		boolean hasContents() {
+			return this.readme || this.license || this.metadata;
+		}
+
+		String json(final String owner) {
+			return "{\"name\":\"" + this.name + "\",\"owner\":{\"login\":\""
+					+ owner + "\"},\"html_url\":\"https://github.com/" + owner
+					+ "/" + this.name + "\",\"description\":\"\","
+					+ "\"language\":\"Java\",\"open_issues\":" + this.index % 7
+					+ ",\"updated_at\":\"2013-07-10T12:00:00Z\","
+					+ "\"pushed_at\":\"2013-07-10T12:00:00Z\",\"private\":false}";
+		}
+
+		String graphQLJson(final String owner) {
+			StringBuilder entries = new StringBuilder("[");
+			for (String file : files()) {
+				if (entries.length() > 1) {
+					entries.append(',');
+				}
+				entries.append("{\"name\":\"" + file + "\",\"type\":\"blob\"}");
+			}
+			entries.append(']');
+			return "{\"name\":\"" + this.name + "\",\"owner\":{\"login\":\""
+					+ owner + "\"},\"url\":\"https://github.com/" + owner + "/"
+					+ this.name + "\",\"description\":\"\",\"isPrivate\":false,"
+					+ "\"updatedAt\":\"2013-07-10T12:00:00Z\","
+					+ "\"pushedAt\":\"2013-07-10T12:00:00Z\","
+					+ "\"primaryLanguage\":{\"name\":\"Java\"},"
+					+ "\"issues\":{\"totalCount\":" + this.index % 7 + "},"
+					+ "\"pullRequests\":{\"totalCount\":0},\"tree\":"
+					+ (hasContents() ? "{\"entries\":" + entries + "}" : "null")
+					+ ",\"opfYaml\":"
+					+ (this.metadata ? MAPPER.createObjectNode().put("text", yaml())
+							.toString() : "null") + "}";
+		}
+
+		String contentsJson(final String owner) {
+			StringBuilder json = new StringBuilder("[");
+			for (String file : files()) {
+				if (json.length() > 1) {
+					json.append(',');
+				}
+				json.append("{\"type\":\"file\",\"name\":\"" + file
+						+ "\",\"path\":\"" + file + "\",\"html_url\":\"https://github.com/"
+						+ owner + "/" + this.name + "/blob/master/" + file + "\"}");
+			}
+			return json.append(']').toString();
+		}
+
+		private List<String> files() {
+			List<String> files = new ArrayList<>();
+			if (this.readme) {
+				files.add("README.md");
+			}
+			if (this.license) {
+				files.add("LICENSE");
+			}
+			if (this.metadata) {
+				files.add(".opf.yml");
+			}
+			return files;
+		}
+
+		private String yaml() {
+			return "name: Project " + this.name + "\nvendor: "
+					+ ((this.index % 10 == 0) ? "Open Planets Foundation" : "SCAPE")
+					+ "\n";
+		}
+
+		String metadataJson() {
+			String yaml = yaml();
+			// GitHub wraps the base64 content every 60 characters
+			return "{\"type\":\"file\",\"name\":\".opf.yml\",\"path\":\".opf.yml\","
+					+ "\"encoding\":\"base64\",\"content\":\""
+					+ new String(Base64.encodeBase64Chunked(yaml
+							.getBytes(Charsets.UTF_8)), Charsets.US_ASCII)
+							.replace("\r\n", "\\n") + "\"}";
+		}
+	}
+
+	/**
+	 * Builder for stub servers.
+	 */
+	public static final class Builder {
+		private final List<StubRepo> listed = new ArrayList<>();
+		private final List<StubRepo> unlisted = new ArrayList<>();
+		private final Set<String> deleted = new HashSet<>();
+		private File fixtures = null;
+		private long latencyMillis = 0L;
+		private double errorRate = 0.0;
+		private final List<String> failing = new ArrayList<>();
+		private final Map<String, Integer> refused = new LinkedHashMap<>();
+
+		/**
+		 * @param names
+		 *            repositories to list, without contents or builds
+		 * @return the builder instance for chaining
+		 */
+		public Builder repos(final String... names) {
+			for (String name : names) {
+				this.listed.add(new StubRepo(this.listed.size(), name, false));
+			}
+			return this;
+		}
+
+		/**
+		 * @param count
+		 *            the number of synthetic repositories to list, named
+		 *            repo-00000 onwards
+		 * @return the builder instance for chaining
+		 */
+		public Builder syntheticRepos(final int count) {
+			Preconditions.checkArgument(count >= 0, "count < 0");
+			for (int index = 0; index < count; index++) {
+				this.listed.add(new StubRepo(this.listed.size(), String.format(
+						"repo-%05d", Integer.valueOf(index)), true));
+			}
+			return this;
+		}
+
+		/**
+		 * @param names
+		 *            repositories that can be fetched by name but aren't
+		 *            listed
+		 * @return the builder instance for chaining
+		 */
+		public Builder unlisted(final String... names) {
+			for (String name : names) {
+				this.unlisted.add(new StubRepo(this.listed.size()
+						+ this.unlisted.size(), name, false));
+			}
+			return this;
+		}
+
+		/**
+		 * @param names
+		 *            listed repositories that can't be fetched by name
+		 * @return the builder instance for chaining
+		 */
+		public Builder deleted(final String... names) {
+			this.deleted.addAll(Arrays.asList(names));
+			return this;
+		}
+
+		/**
+		 * @param fixtures
+		 *            directory of recorded responses that take precedence
+		 *            over the generated ones
+		 * @return the builder instance for chaining
+		 */
+		public Builder fixtures(final File fixtures) {
+			Preconditions.checkNotNull(fixtures, "fixtures == null");
+			this.fixtures = fixtures;
+			return this;
+		}
+
+		/**
+		 * @param latencyMillis
+		 *            the delay added to every response
+		 * @return the builder instance for chaining
+		 */
+		public Builder latency(final long latencyMillis) {
+			Preconditions.checkArgument(latencyMillis >= 0, "latencyMillis < 0");
+			this.latencyMillis = latencyMillis;
+			return this;
+		}
+
+		/**
+		 * @param errorRate
+		 *            the share of requests failed with a 500, between 0 and 1
+		 * @return the builder instance for chaining
+		 */
+		public Builder errorRate(final double errorRate) {
+			Preconditions.checkArgument(errorRate >= 0 && errorRate <= 1,
+					"errorRate not in [0, 1]");
+			this.errorRate = errorRate;
+			return this;
+		}
+
+		/**
+		 * @param roots
+		 *            paths under which every request is failed with a 500,
+		 *            {@link StubApiServer#TRAVIS_ROOT} say
+		 * @return the builder instance for chaining
+		 */
+		public Builder failing(final String... roots) {
+			this.failing.addAll(Arrays.asList(roots));
+			return this;
+		}
+
+		/**
+		 * @param status
+		 *            the 4xx every request under the roots is refused with, a
+		 *            429 asks for an immediate retry
+		 * @param roots
+		 *            paths under which requests are refused
+		 * @return the builder instance for chaining
+		 */
+		public Builder refusing(final int status, final String... roots) {
+			Preconditions.checkArgument(status >= 400 && status < 500,
+					"status not a 4xx");
+			for (String root : roots) {
+				this.refused.put(root, Integer.valueOf(status));
+			}
+			return this;
+		}
+
+		/**
+		 * @return a started stub server
+		 * @throws IOException
+		 *             if the server can't be started
+		 */
+		@SuppressWarnings("synthetic-access")
+		public StubApiServer build() throws IOException {
+			return new StubApiServer(this);
+		}
+	}
+}